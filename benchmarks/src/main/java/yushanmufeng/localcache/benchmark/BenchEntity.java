@@ -0,0 +1,30 @@
+package yushanmufeng.localcache.benchmark;
+
+import yushanmufeng.localcache.Cacheable;
+
+/**
+ * 基准测试使用的实体类, 模拟包含几个bigint字段和一个字符串字段的表
+ */
+public class BenchEntity extends Cacheable {
+
+    public long id;
+    /** 条件查询字段 */
+    public long owner;
+    public long value;
+    public String name;
+
+    public BenchEntity(long id, long owner, long value){
+        this.id = id;
+        this.owner = owner;
+        this.value = value;
+        this.name = "entity-" + id;
+    }
+
+    /** 复制一份数据, 模拟从db查询出的新对象 */
+    public BenchEntity copy(){
+        BenchEntity entity = new BenchEntity(id, owner, value);
+        entity.name = name;
+        return entity;
+    }
+
+}
@@ -0,0 +1,44 @@
+package yushanmufeng.localcache.benchmark;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.regex.Pattern;
+
+/**
+ * 按多个线程数依次运行所有基准测试
+ * 用法: java -Dthreads=1,4,16 -Dinclude=GetByPK -jar target/benchmarks.jar
+ * 有命令行参数时直接交给JMH处理, 与 java -jar benchmarks.jar [JMH参数] 相同
+ * 系统属性:
+ *   threads 测试线程数, 多个用逗号分隔, 默认1,4,16
+ *   include 要运行的测试类或方法的正则表达式, 默认全部
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        if(args.length > 0){
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        String include = System.getProperty("include", ".*");
+        String[] threads = System.getProperty("threads", "1,4,16").split(",");
+        // 检测过期只由单线程执行
+        if(Pattern.compile(include).matcher(CheckExpireBenchmark.class.getName() + ".checkExpire").find()){
+            run(new OptionsBuilder().include(CheckExpireBenchmark.class.getName()).threads(1));
+        }
+        for(String thread : threads){
+            int threadCount = Integer.parseInt(thread.trim());
+            run(new OptionsBuilder()
+                    .include(include)
+                    .exclude(CheckExpireBenchmark.class.getName())
+                    .threads(threadCount));
+        }
+    }
+
+    private static void run(ChainedOptionsBuilder options) throws RunnerException {
+        new Runner(options.build()).run();
+    }
+
+}
@@ -0,0 +1,55 @@
+package yushanmufeng.localcache.benchmark;
+
+import yushanmufeng.localcache.LocalCacheFacade;
+import yushanmufeng.localcache.config.LocalCacheConfig;
+import yushanmufeng.localcache.datasource.TableDataSource;
+import yushanmufeng.localcache.task.MergingFutureTask;
+import yushanmufeng.localcache.util.ITaskExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基准测试的公共方法
+ */
+public final class BenchmarkSupport {
+
+    private BenchmarkSupport(){
+    }
+
+    /** 基准测试使用的默认配置, 关闭自适应过期，避免测试期间过期时间变化影响结果 */
+    public static LocalCacheConfig defaultConfig(){
+        return new LocalCacheConfig()
+                .maxCacheM(2048)
+                .expireMinutes(60)
+                .useDynamicRate(false)
+                .entitiesInitialCapacity(1 << 16);
+    }
+
+    /** 创建只有一张表的缓存组件 */
+    public static LocalCacheFacade createFacade(StubTableDataSource dataSource, LocalCacheConfig config){
+        List<TableDataSource<?>> tableSources = new ArrayList<>();
+        tableSources.add(dataSource);
+        return new LocalCacheFacade(tableSources, config);
+    }
+
+    /**
+     * 等待所有已提交的增删改任务执行完毕
+     * @param timeoutMs 最长等待的毫秒数
+     */
+    public static void awaitWrites(LocalCacheFacade facade, long timeoutMs){
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while(System.nanoTime() < deadline){
+            boolean busy = false;
+            for(ITaskExecutor<MergingFutureTask<?>> executor : facade.nonSelectExecutors){
+                busy |= !executor.isEmpty();
+            }
+            if(!busy){
+                return;
+            }
+            Thread.yield();
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package yushanmufeng.localcache.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import yushanmufeng.localcache.CacheKey;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheKey的创建、hash和比较, 每次访问缓存都会执行
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheKeyBenchmark {
+
+    private CacheKey pkKey, conditionKey;
+
+    @Setup
+    public void setup(){
+        pkKey = new CacheKey(true, 123456789L);
+        conditionKey = new CacheKey(false, StubTableDataSource.OWNER, 42L);
+    }
+
+    @Benchmark
+    public CacheKey newPrimaryKey(){
+        return new CacheKey(true, ThreadLocalRandom.current().nextLong());
+    }
+
+    @Benchmark
+    public int newPrimaryKeyAndHash(){
+        return new CacheKey(true, ThreadLocalRandom.current().nextLong()).hashCode();
+    }
+
+    @Benchmark
+    public int newConditionKeyAndHash(){
+        return new CacheKey(false, StubTableDataSource.OWNER, ThreadLocalRandom.current().nextLong()).hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsPrimaryKey(){
+        return pkKey.equals(new CacheKey(true, 123456789L));
+    }
+
+    @Benchmark
+    public boolean equalsConditionKey(){
+        return conditionKey.equals(new CacheKey(false, StubTableDataSource.OWNER, 42L));
+    }
+
+}
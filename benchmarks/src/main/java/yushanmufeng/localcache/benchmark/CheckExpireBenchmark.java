@@ -0,0 +1,63 @@
+package yushanmufeng.localcache.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import yushanmufeng.localcache.CacheKey;
+import yushanmufeng.localcache.Cacheable;
+import yushanmufeng.localcache.EntityCacheManager;
+import yushanmufeng.localcache.TableDescribe;
+import yushanmufeng.localcache.config.LocalCacheConfig;
+import yushanmufeng.localcache.datasource.TableDataSource;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单表检测过期的耗时
+ * 每轮测试前重新缓存指定数量的数据，其中一部分已经过期，测试一次检测过期移除这些数据的耗时
+ * 检测过期只会由单个线程执行，不受测试线程数影响，由{@link BenchmarkRunner}固定使用单线程执行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class CheckExpireBenchmark {
+
+    /** 缓存的数据条数 */
+    @Param({"100000", "1000000", "10000000"})
+    public int entries;
+    /** 已过期数据的百分比 */
+    @Param({"1", "10"})
+    public int expiredPercent;
+    @Param({"false", "true"})
+    public boolean longPrimaryKey;
+
+    private EntityCacheManager cache;
+    private TableDescribe<Cacheable> tableDesc;
+
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Iteration)
+    public void setup(){
+        LocalCacheConfig config = BenchmarkSupport.defaultConfig().entitiesInitialCapacity(entries);
+        StubTableDataSource dataSource = new StubTableDataSource(0, longPrimaryKey);
+        cache = new EntityCacheManager(config);
+        tableDesc = new TableDescribe<>(config, (TableDataSource<Cacheable>) (TableDataSource<?>) dataSource, cache);
+        cache.initTableCache(tableDesc);
+        int expired = (int) ((long) entries * expiredPercent / 100);
+        // 过期时间为0的数据在缓存时即已过期
+        dataSource.setExpireSeconds(0);
+        for(long id = 0; id < expired; id++){
+            cache.cacheCore(tableDesc, new CacheKey(true, id), new BenchEntity(id, id % 100, 0));
+        }
+        dataSource.setExpireSeconds(3600);
+        for(long id = expired; id < entries; id++){
+            cache.cacheCore(tableDesc, new CacheKey(true, id), new BenchEntity(id, id % 100, 0));
+        }
+    }
+
+    @Benchmark
+    public void checkExpire(){
+        cache.checkExpire(tableDesc);
+    }
+
+}
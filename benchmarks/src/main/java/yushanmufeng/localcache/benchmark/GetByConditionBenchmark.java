@@ -0,0 +1,63 @@
+package yushanmufeng.localcache.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import yushanmufeng.localcache.LocalCacheFacade;
+import yushanmufeng.localcache.config.LocalCacheConfig;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 条件查询命中缓存, 测试不同结果集大小下的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class GetByConditionBenchmark {
+
+    /** 每个条件对应的数据条数 */
+    @Param({"10", "100", "1000"})
+    public int listSize;
+    /** 条件的数量 */
+    @Param({"100"})
+    public int conditions;
+    @Param({"1", "16"})
+    public int lockStripes;
+    @Param({"false", "true"})
+    public boolean materializeConditions;
+
+    private LocalCacheFacade facade;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        StubTableDataSource dataSource = new StubTableDataSource(0, false);
+        long id = 0;
+        for(long owner = 0; owner < conditions; owner++){
+            for(int i = 0; i < listSize; i++){
+                dataSource.preload(new BenchEntity(id++, owner, 0));
+            }
+        }
+        LocalCacheConfig config = BenchmarkSupport.defaultConfig()
+                .lockStripes(lockStripes)
+                .materializeConditions(materializeConditions);
+        facade = BenchmarkSupport.createFacade(dataSource, config);
+        for(long owner = 0; owner < conditions; owner++){
+            facade.getByCondition(BenchEntity.class, StubTableDataSource.OWNER, owner);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        facade.shutdown();
+    }
+
+    @Benchmark
+    public Map<Object, BenchEntity> hit(){
+        return facade.getByCondition(BenchEntity.class, StubTableDataSource.OWNER, (long) ThreadLocalRandom.current().nextInt(conditions));
+    }
+
+}
@@ -0,0 +1,72 @@
+package yushanmufeng.localcache.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import yushanmufeng.localcache.LocalCacheFacade;
+import yushanmufeng.localcache.config.LocalCacheConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 主键查询: 命中缓存和未命中缓存
+ * 未命中的主键在数据源中也不存在，每次都会提交查询任务并等待数据源返回
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class GetByPKBenchmark {
+
+    /** 预先缓存的数据条数 */
+    @Param({"100000"})
+    public int rows;
+    @Param({"1", "16"})
+    public int lockStripes;
+    @Param({"false", "true"})
+    public boolean optimisticRead;
+    @Param({"false", "true"})
+    public boolean longPrimaryKey;
+    /** 数据源延迟微秒数 */
+    @Param({"100"})
+    public long latencyMicros;
+
+    private LocalCacheFacade facade;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        StubTableDataSource dataSource = new StubTableDataSource(latencyMicros, longPrimaryKey);
+        List<Long> pks = new ArrayList<>(rows);
+        for(long id = 0; id < rows; id++){
+            dataSource.preload(new BenchEntity(id, id % 100, 0));
+            pks.add(id);
+        }
+        LocalCacheConfig config = BenchmarkSupport.defaultConfig()
+                .lockStripes(lockStripes)
+                .optimisticRead(optimisticRead);
+        facade = BenchmarkSupport.createFacade(dataSource, config);
+        // 预热缓存
+        for(int i = 0; i < rows; i += 1000){
+            facade.getByPKs(BenchEntity.class, pks.subList(i, Math.min(i + 1000, rows)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        facade.shutdown();
+    }
+
+    @Benchmark
+    public BenchEntity hit(){
+        return facade.getByPK(BenchEntity.class, (long) ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    @Benchmark
+    public BenchEntity miss(){
+        return facade.getByPK(BenchEntity.class, (long) (rows + ThreadLocalRandom.current().nextInt(rows)));
+    }
+
+}
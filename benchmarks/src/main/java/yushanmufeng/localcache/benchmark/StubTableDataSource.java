@@ -0,0 +1,164 @@
+package yushanmufeng.localcache.benchmark;
+
+import yushanmufeng.localcache.CacheKey;
+import yushanmufeng.localcache.config.LocalCacheConfig;
+import yushanmufeng.localcache.datasource.TableDataSource;
+import yushanmufeng.localcache.task.TaskContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 代替Mysql的内存数据源
+ * 每次访问数据源都会等待配置的延迟时间，用来模拟网络和db的耗时; 批量操作只等待一次，与真实db的批量sql相近
+ * 条件查询只支持按owner字段查询: new CacheKey(false, "owner", owner)
+ */
+public class StubTableDataSource implements TableDataSource<BenchEntity> {
+
+    /** 条件查询的字段名 */
+    public static final String OWNER = "owner";
+
+    /** [主键, 实体对象] */
+    private final ConcurrentHashMap<Long, BenchEntity> rows = new ConcurrentHashMap<>();
+    /** [owner, 主键集合] */
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<Long, Boolean>> ownerIndex = new ConcurrentHashMap<>();
+    /** 每次访问数据源的延迟纳秒数 */
+    private final long latencyNanos;
+    /** 主键是否按long类型存储 */
+    private final boolean longPrimaryKey;
+    /** 表的过期秒数, 小于0时使用全局配置 */
+    private volatile long expireSeconds = -1;
+
+    /** 查询次数, 写操作次数(一次批量操作算一次), 写入的数据条数 */
+    public final LongAdder selects = new LongAdder(), writes = new LongAdder(), writtenRows = new LongAdder();
+
+    /**
+     * @param latencyMicros 每次访问数据源的延迟微秒数, 为0时不等待
+     * @param longPrimaryKey 主键是否按long类型存储
+     */
+    public StubTableDataSource(long latencyMicros, boolean longPrimaryKey){
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        this.longPrimaryKey = longPrimaryKey;
+    }
+
+    /** 直接向数据源写入数据，不经过缓存, 用于准备测试数据 */
+    public void preload(BenchEntity entity){
+        rows.put(entity.id, entity);
+        ownerIndex.computeIfAbsent(entity.owner, k -> new ConcurrentHashMap<>()).put(entity.id, Boolean.TRUE);
+    }
+
+    /** 设置表的过期秒数, 小于0时使用全局配置 */
+    public void setExpireSeconds(long expireSeconds){
+        this.expireSeconds = expireSeconds;
+    }
+
+    @Override
+    public Class<BenchEntity> getEntityClass() {
+        return BenchEntity.class;
+    }
+
+    @Override
+    public Object getPrimaryKey(BenchEntity entity) {
+        return entity.id;
+    }
+
+    @Override
+    public List<CacheKey> getConditionKeys(BenchEntity entity) {
+        return Collections.singletonList(new CacheKey(false, OWNER, entity.owner));
+    }
+
+    @Override
+    public List<BenchEntity> select(CacheKey key) {
+        selects.increment();
+        await();
+        List<BenchEntity> results = new ArrayList<>();
+        if(key.isPK){
+            BenchEntity entity = rows.get((Long) key.keys[0]);
+            if(entity != null){
+                results.add(entity.copy());
+            }
+        }else if(OWNER.equals(key.keys[0])){
+            ConcurrentHashMap<Long, Boolean> ids = ownerIndex.get((Long) key.keys[1]);
+            if(ids != null){
+                for(Long id : ids.keySet()){
+                    BenchEntity entity = rows.get(id);
+                    if(entity != null){
+                        results.add(entity.copy());
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<BenchEntity> selectByPKs(List<Object> primaryKeys) {
+        selects.increment();
+        await();
+        List<BenchEntity> results = new ArrayList<>(primaryKeys.size());
+        for(Object pk : primaryKeys){
+            BenchEntity entity = rows.get((Long) pk);
+            if(entity != null){
+                results.add(entity.copy());
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void insert(List<TaskContext> contexts, List<BenchEntity> entities) {
+        write(entities);
+        for(BenchEntity entity : entities){
+            preload(entity.copy());
+        }
+    }
+
+    @Override
+    public void update(List<TaskContext> contexts, List<BenchEntity> entities) {
+        write(entities);
+        for(BenchEntity entity : entities){
+            rows.put(entity.id, entity.copy());
+        }
+    }
+
+    @Override
+    public void delete(List<TaskContext> contexts, List<BenchEntity> entities) {
+        write(entities);
+        for(BenchEntity entity : entities){
+            rows.remove(entity.id);
+            ConcurrentHashMap<Long, Boolean> ids = ownerIndex.get(entity.owner);
+            if(ids != null){
+                ids.remove(entity.id);
+            }
+        }
+    }
+
+    @Override
+    public long expireSeconds(LocalCacheConfig config) {
+        long seconds = expireSeconds;
+        return seconds >= 0 ? seconds : config.expireSeconds;
+    }
+
+    @Override
+    public boolean isLongPrimaryKey() {
+        return longPrimaryKey;
+    }
+
+    private void write(List<BenchEntity> entities){
+        writes.increment();
+        writtenRows.add(entities.size());
+        await();
+    }
+
+    private void await(){
+        if(latencyNanos > 0){
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package yushanmufeng.localcache.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import yushanmufeng.localcache.LocalCacheFacade;
+import yushanmufeng.localcache.config.LocalCacheConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 增删改吞吐量
+ * 增删改操作在后台异步写入数据源，每次调用提交一批操作并等待全部写入完成，测试的是包括批量合并在内的端到端吞吐量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class WriteBenchmark {
+
+    /** 每次调用提交的操作数 */
+    private static final int OPS = 1000;
+    /** 等待写入完成的最长毫秒数 */
+    private static final long AWAIT_MS = 60 * 1000;
+
+    /** 预先缓存的数据条数, 用于更新 */
+    @Param({"10000"})
+    public int rows;
+    /** 数据源延迟微秒数 */
+    @Param({"500"})
+    public long latencyMicros;
+    @Param({"false", "true"})
+    public boolean coalesceWrites;
+    @Param({"0", "5"})
+    public long batchWindowMs;
+    @Param({"false", "true"})
+    public boolean workStealingExecutor;
+
+    private LocalCacheFacade facade;
+    private StubTableDataSource dataSource;
+    /** 新插入数据的主键 */
+    private final AtomicLong nextId = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup(){
+        dataSource = new StubTableDataSource(latencyMicros, false);
+        List<Long> pks = new ArrayList<>(rows);
+        for(long id = 0; id < rows; id++){
+            dataSource.preload(new BenchEntity(id, id % 100, 0));
+            pks.add(id);
+        }
+        nextId.set(rows);
+        LocalCacheConfig config = BenchmarkSupport.defaultConfig()
+                .coalesceWrites(coalesceWrites)
+                .batchWindowMs(batchWindowMs)
+                .workStealingExecutor(workStealingExecutor);
+        facade = BenchmarkSupport.createFacade(dataSource, config);
+        for(int i = 0; i < rows; i += 1000){
+            facade.getByPKs(BenchEntity.class, pks.subList(i, Math.min(i + 1000, rows)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        facade.shutdown();
+    }
+
+    /** 每轮结束时输出平均每次写数据源的条数, 用于观察批量合并的效果 */
+    @TearDown(Level.Iteration)
+    public void report(){
+        long writes = dataSource.writes.sumThenReset(), writtenRows = dataSource.writtenRows.sumThenReset();
+        System.out.println(String.format("  写数据源次数: %d, 平均每次条数: %.1f", writes, writes == 0 ? 0 : 1.0 * writtenRows / writes));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public void insert(){
+        for(int i = 0; i < OPS; i++){
+            long id = nextId.getAndIncrement();
+            facade.insert(new BenchEntity(id, id % 100, 0));
+        }
+        BenchmarkSupport.awaitWrites(facade, AWAIT_MS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public void update(Blackhole blackhole){
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for(int i = 0; i < OPS; i++){
+            BenchEntity entity = facade.getByPK(BenchEntity.class, (long) random.nextInt(rows));
+            if(entity != null){
+                entity.value ++;
+                facade.update(entity);
+            }
+            blackhole.consume(entity);
+        }
+        BenchmarkSupport.awaitWrites(facade, AWAIT_MS);
+    }
+
+    /** 插入后立即删除, 开启合并写操作时还未执行的插入和删除会互相抵消 */
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public void insertThenDelete(){
+        for(int i = 0; i < OPS; i += 2){
+            long id = nextId.getAndIncrement();
+            BenchEntity entity = facade.insert(new BenchEntity(id, id % 100, 0));
+            facade.delete(entity);
+        }
+        BenchmarkSupport.awaitWrites(facade, AWAIT_MS);
+    }
+
+}
@@ -0,0 +1,49 @@
+package yushanmufeng.localcache;
+
+/**
+ * 单条缓存数据
+ * 主键缓存保存实体对象，条件查询缓存保存实体对象的主键列表；同时记录缓存的过期时间和内存占用，一条缓存只占用一个map节点
+ */
+public class CacheEntry {
+
+    /** 缓存的键值, 由子类自行保存键值时为null */
+    private final CacheKey key;
+    /** 主键缓存的实体对象, 条件查询缓存时为null */
+    public volatile Cacheable entity;
+    /** 条件查询缓存的主键集合, 主键缓存时为null */
+    public volatile ConditionIndex pks;
+    /** 过期时间, 无锁读命中缓存时会续期，所以可能被多个线程同时修改 */
+    public volatile long expireTime;
+    /** 所在的过期索引时间段, 由{@link ExpiryIndex}维护 */
+    volatile long expiryBucket = ExpiryIndex.UNSCHEDULED;
+    /** 占用的空间，单位字节数 */
+    public volatile long bytes = 0L;
+
+    public CacheEntry(CacheKey key){
+        this.key = key;
+    }
+
+    /** 供自行保存键值的子类使用 */
+    protected CacheEntry(){
+        this.key = null;
+    }
+
+    /** 缓存的键值 */
+    public CacheKey getKey(){
+        return key;
+    }
+
+    /** 键值的hash值, 与{@link #getKey()}的hashCode相同; 自行保存键值的子类可以直接计算，不需要创建键值对象 */
+    public int keyHash(){
+        return getKey().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "CacheEntry{" +
+                "key=" + getKey() +
+                ", expireTime=" + expireTime +
+                ", bytes=" + bytes +
+                '}';
+    }
+}
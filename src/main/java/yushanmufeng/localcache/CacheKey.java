@@ -3,18 +3,15 @@ package yushanmufeng.localcache;
 /**
  * 缓存的键值
  * 比如遇到多个同位数键的情况，可自行划分子键作为标识位，用于区分
+ * hash值在创建时直接由各个键计算得出，不会拼接字符串; 主键查询命中缓存时使用线程绑定的可重用键值{@link ReusablePkKey}，不会创建新的对象
  */
 public class CacheKey {
 
     public final Object[] keys;
-    // 拼接所有key，用于计算hash
-    public final String unionStr;
     // 是否为主键，如果为主键，keys的长度必须为1
     public final boolean isPK;
-    // 占用的空间，单位字节数
-    public long bytes = 0L;
-    // 过期时间
-    public long expireTime;
+    // 由所有key计算出的hash值
+    private final int hash;
 
     public CacheKey(boolean isPK, Object... keys){
         if(keys == null || keys.length == 0){
@@ -22,24 +19,44 @@ public class CacheKey {
         }
         this.isPK = isPK;
         this.keys = keys;
-        StringBuilder sb = new StringBuilder(isPK?"pk":"ck");   // primarykey; conditionKey
-        for(Object s : keys){
-            sb.append("-").append(s.toString());
+        this.hash = hash(isPK, keys);
+    }
+
+    /** 供可重用键值使用, 不校验也不计算hash */
+    CacheKey(boolean isPK, Object[] keys, int hash){
+        this.isPK = isPK;
+        this.keys = keys;
+        this.hash = hash;
+    }
+
+    /** 计算hash值, 主键与条件查询键值的初始值不同 */
+    private static int hash(boolean isPK, Object[] keys){
+        int h = isPK ? 1 : 2;
+        for(Object k : keys){
+            h = 31 * h + k.hashCode();
         }
-        unionStr = sb.toString();
+        return h;
+    }
+
+    /** 计算单个主键的hash值, 与{@link #hash(boolean, Object[])}的计算结果相同 */
+    static int pkHash(Object pk){
+        return 31 + pk.hashCode();
     }
 
     @Override
     public int hashCode() {
-        return unionStr.hashCode();
+        return hash;
     }
 
     @Override
     public boolean equals(Object obj) {
+        if(obj == this){
+            return true;
+        }
         if(obj != null && obj instanceof CacheKey){
             CacheKey target = (CacheKey)obj;
             Object[] tarKeys = target.keys;
-            if(target.isPK == isPK && tarKeys.length == keys.length){
+            if(target.isPK == isPK && tarKeys.length == keys.length && target.hashCode() == hashCode()){
                 for(int i = 0; i < keys.length; i++ ){
                     if(!tarKeys[i].equals(keys[i])){
                         return false;
@@ -53,9 +70,10 @@ public class CacheKey {
 
     @Override
     public String toString() {
-        return "CacheKey{" +
-                "unionStr='" + unionStr + '\'' +
-                ", expireTime=" + expireTime +
-                '}';
+        StringBuilder sb = new StringBuilder("CacheKey{").append(isPK?"pk":"ck");   // primarykey; conditionKey
+        for(Object s : keys){
+            sb.append("-").append(s);
+        }
+        return sb.append('}').toString();
     }
 }
@@ -0,0 +1,372 @@
+package yushanmufeng.localcache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yushanmufeng.localcache.util.ParallelTasks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 缓存快照
+ * 停止时将每张表未过期的主键缓存和条件查询缓存(包括过期时间)写入快照文件，启动时读取快照文件恢复缓存，避免重启后短时间内大量查询数据源
+ * 每张表一个快照文件，保存和恢复时各表并行执行; 条目逐条流式读写，不在内存中缓存整个文件，文件大小不受限制
+ * 先写入临时文件再重命名，写入过程中退出不会留下不完整的快照; 恢复前先完整校验一遍文件，损坏的快照不会恢复任何数据
+ * 快照文件恢复后即删除，异常退出时没有新的快照，不会恢复到更早的数据; 停机期间数据源被其他程序修改时，恢复的缓存在过期前可能是旧数据
+ * 文件头记录实体类的字段布局指纹(字段名和类型)，重新部署后实体类的字段有增删改时跳过此表，不会恢复出缺少字段值的实体对象
+ *
+ * 文件格式: [int 魔数][int crc32][int 条目数][int 字段布局指纹][条目...]
+ * 条目: [byte 类型][long 过期时间][byte 键值个数][键值...][主键缓存: int 长度, 实体对象序列化数据 | 条件查询缓存: int 主键个数, 主键...]
+ */
+public class CacheSnapshot {
+
+    public static final Logger log = LoggerFactory.getLogger(CacheSnapshot.class);
+
+    private static final int MAGIC = 0x4C435332;
+    /** 文件头长度 */
+    private static final int HEADER_BYTES = 16;
+    private static final String FILE_SUFFIX = ".snapshot", TEMP_SUFFIX = ".tmp";
+    /** 读写文件的缓冲区大小 */
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    /** 条目类型: 主键缓存、条件查询缓存 */
+    private static final byte ENTRY_CORE = 1, ENTRY_CONDITION = 2;
+    /** 键值类型 */
+    private static final byte KEY_LONG = 1, KEY_INT = 2, KEY_STRING = 3, KEY_SHORT = 4, KEY_BYTE = 5, KEY_BOOLEAN = 6,
+            KEY_DOUBLE = 7, KEY_FLOAT = 8, KEY_CHAR = 9;
+
+    /** 快照文件所在目录 */
+    private final File dir;
+    private final EntityCacheManager cache;
+
+    /**
+     * @param dir 快照文件所在目录，不存在时自动创建
+     */
+    public CacheSnapshot(String dir, EntityCacheManager cache){
+        this.dir = new File(dir);
+        this.cache = cache;
+        if(!this.dir.isDirectory() && !this.dir.mkdirs()){
+            throw new IllegalStateException("创建缓存快照目录失败! " + dir);
+        }
+    }
+
+    /**
+     * 并行保存所有表的缓存快照, 需要在所有异步任务执行完毕后调用
+     */
+    public void save(List<TableDescribe<Cacheable>> tables){
+        runParallel(tables, tableDesc -> {
+            long start = System.currentTimeMillis();
+            int count = saveTable(tableDesc);
+            log.info("保存缓存快照, table:" + tableDesc.entityName + ", 条目数:" + count + ", 耗时:" + (System.currentTimeMillis() - start) + "ms");
+        });
+    }
+
+    /**
+     * 并行恢复所有表的缓存快照并删除快照文件, 需要在开始执行异步任务之前调用; 快照文件不存在或已损坏时跳过此表
+     */
+    public void load(List<TableDescribe<Cacheable>> tables){
+        runParallel(tables, tableDesc -> {
+            File file = snapshotFile(tableDesc);
+            if(!file.exists()){
+                return;
+            }
+            long start = System.currentTimeMillis();
+            try{
+                int count = loadTable(tableDesc, file);
+                log.info("恢复缓存快照, table:" + tableDesc.entityName + ", 条目数:" + count + ", 耗时:" + (System.currentTimeMillis() - start) + "ms");
+            }finally {
+                if(!file.delete()){
+                    log.warn("删除已恢复的缓存快照失败! " + file);
+                }
+            }
+        });
+    }
+
+    /** 保存单表的快照, 返回写入的条目数 */
+    private int saveTable(TableDescribe<Cacheable> tableDesc) throws IOException {
+        long currentTime = System.currentTimeMillis();
+        File file = snapshotFile(tableDesc), tempFile = new File(dir, file.getName() + TEMP_SUFFIX);
+        int[] count = {0};
+        CRC32 crc = new CRC32();
+        try(FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            channel.position(HEADER_BYTES);    // 文件头在所有条目写完后补写
+            // 条目直接写入文件并同时计算校验值; 关闭外层流会关闭文件，这里只flush，由try关闭文件
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_BYTES), crc));
+            IOException[] error = {null};
+            // 先写入主键缓存，恢复条件查询缓存时可以关联已恢复的实体对象
+            for(byte type : new byte[]{ENTRY_CORE, ENTRY_CONDITION}){
+                tableDesc.cacheStore.forEach(cacheEntry -> {
+                    if(error[0] != null || cacheEntry.expireTime <= currentTime || (type == ENTRY_CORE) != (cacheEntry.entity != null)){
+                        return;
+                    }
+                    try{
+                        if(writeEntry(out, tableDesc, cacheEntry, type)){
+                            count[0] ++;
+                        }
+                    }catch (IOException e){
+                        error[0] = e;
+                    }
+                });
+            }
+            if(error[0] != null){
+                throw error[0];
+            }
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt((int) crc.getValue()).putInt(count[0])
+                    .putInt(layoutFingerprint(tableDesc.tableStrategy.getEntityClass()));
+            header.flip();
+            while(header.hasRemaining()){
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count[0];
+    }
+
+    /**
+     * 写入一条缓存数据
+     * @return 键值类型不支持时不写入，返回false
+     */
+    private boolean writeEntry(DataOutputStream out, TableDescribe<Cacheable> tableDesc, CacheEntry cacheEntry, byte type) throws IOException {
+        Object[] keys = cacheEntry.getKey().keys;
+        // 遍历期间被移除的缓存数据会被并发清空，只写入读取到的值
+        Cacheable entity = cacheEntry.entity;
+        ConditionIndex conditionIndex = cacheEntry.pks;
+        if(type == ENTRY_CORE ? entity == null : conditionIndex == null){
+            return false;
+        }
+        List<Object> pks = type == ENTRY_CONDITION ? conditionIndex.snapshot() : null;
+        if(!isSupported(keys) || (pks != null && !isSupported(pks.toArray()))){
+            return false;
+        }
+        out.writeByte(type);
+        out.writeLong(cacheEntry.expireTime);
+        out.writeByte(keys.length);
+        for(Object key : keys){
+            writeKey(out, key);
+        }
+        if(type == ENTRY_CORE){
+            byte[] payload = tableDesc.tableStrategy.encodeEntity(entity);
+            out.writeInt(payload.length);
+            out.write(payload);
+        }else{
+            out.writeInt(pks.size());
+            for(Object pk : pks){
+                writeKey(out, pk);
+            }
+        }
+        return true;
+    }
+
+    /** 恢复单表的快照, 返回恢复的条目数 */
+    private int loadTable(TableDescribe<Cacheable> tableDesc, File file) throws IOException {
+        if(file.length() < HEADER_BYTES){
+            log.warn("缓存快照格式错误，跳过恢复: " + file);
+            return 0;
+        }
+        int entryCount;
+        // 第一遍只计算校验值，校验通过后再恢复，损坏的快照不会恢复部分数据
+        try(DataInputStream in = openStream(file)){
+            if(in.readInt() != MAGIC){
+                log.warn("缓存快照格式错误，跳过恢复: " + file);
+                return 0;
+            }
+            int crcValue = in.readInt();
+            entryCount = in.readInt();
+            if(in.readInt() != layoutFingerprint(tableDesc.tableStrategy.getEntityClass())){
+                log.warn("实体类的字段与缓存快照不一致，跳过恢复: " + file);
+                return 0;
+            }
+            CRC32 crc = new CRC32();
+            InputStream body = new CheckedInputStream(in, crc);
+            byte[] buffer = new byte[BUFFER_BYTES];
+            while(body.read(buffer) >= 0){
+                // 读取时计算校验值
+            }
+            if((int) crc.getValue() != crcValue){
+                log.warn("缓存快照校验失败，跳过恢复: " + file);
+                return 0;
+            }
+        }
+        long currentTime = System.currentTimeMillis();
+        int count = 0;
+        try(DataInputStream in = openStream(file)){
+            in.readFully(new byte[HEADER_BYTES]);
+            for(int i = 0; i < entryCount; i++){
+                byte type = in.readByte();
+                long expireTime = in.readLong();
+                Object[] keys = new Object[in.readByte()];
+                for(int j = 0; j < keys.length; j++){
+                    keys[j] = readKey(in);
+                }
+                if(type == ENTRY_CORE){
+                    byte[] payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                    if(expireTime > currentTime){
+                        cache.restoreCore(tableDesc, new CacheKey(true, keys), tableDesc.tableStrategy.decodeEntity(payload), expireTime);
+                        count ++;
+                    }
+                }else{
+                    int size = in.readInt();
+                    List<Object> pks = new ArrayList<>(size);
+                    for(int j = 0; j < size; j++){
+                        pks.add(readKey(in));
+                    }
+                    if(expireTime > currentTime){
+                        cache.restoreCondition(tableDesc, new CacheKey(false, keys), pks, expireTime);
+                        count ++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 实体类的字段布局指纹, 由所有参与序列化的字段(非static、非transient，包括父类)的声明类、名称和泛型类型计算
+     * 字段有增加、删除、改名或改类型时指纹变化
+     */
+    private static int layoutFingerprint(Class<?> entityClass){
+        StringBuilder layout = new StringBuilder();
+        for(Class<?> c = entityClass; c != null && c != Object.class; c = c.getSuperclass()){
+            Field[] fields = c.getDeclaredFields();
+            Arrays.sort(fields, Comparator.comparing(Field::getName));   // 反射返回的字段顺序不固定
+            layout.append(c.getName()).append('{');
+            for(Field field : fields){
+                int modifiers = field.getModifiers();
+                if(!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)){
+                    layout.append(field.getName()).append(':').append(field.getGenericType().getTypeName()).append(';');
+                }
+            }
+            layout.append('}');
+        }
+        CRC32 crc = new CRC32();
+        byte[] bytes = layout.toString().getBytes(StandardCharsets.UTF_8);
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    private static DataInputStream openStream(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_BYTES));
+    }
+
+    private static boolean isSupported(Object[] keys){
+        for(Object key : keys){
+            if(keyType(key) == 0){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** 键值的类型, 不支持时返回0 */
+    private static byte keyType(Object key){
+        if(key instanceof Long){
+            return KEY_LONG;
+        }else if(key instanceof Integer){
+            return KEY_INT;
+        }else if(key instanceof String){
+            return KEY_STRING;
+        }else if(key instanceof Short){
+            return KEY_SHORT;
+        }else if(key instanceof Byte){
+            return KEY_BYTE;
+        }else if(key instanceof Boolean){
+            return KEY_BOOLEAN;
+        }else if(key instanceof Double){
+            return KEY_DOUBLE;
+        }else if(key instanceof Float){
+            return KEY_FLOAT;
+        }else if(key instanceof Character){
+            return KEY_CHAR;
+        }
+        return 0;
+    }
+
+    private static void writeKey(DataOutputStream out, Object key) throws IOException {
+        byte type = keyType(key);
+        out.writeByte(type);
+        switch (type){
+            case KEY_LONG: out.writeLong((Long) key); break;
+            case KEY_INT: out.writeInt((Integer) key); break;
+            case KEY_STRING:
+                byte[] bytes = ((String) key).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                break;
+            case KEY_SHORT: out.writeShort((Short) key); break;
+            case KEY_BYTE: out.writeByte((Byte) key); break;
+            case KEY_BOOLEAN: out.writeBoolean((Boolean) key); break;
+            case KEY_DOUBLE: out.writeDouble((Double) key); break;
+            case KEY_FLOAT: out.writeFloat((Float) key); break;
+            case KEY_CHAR: out.writeChar((Character) key); break;
+            default:
+        }
+    }
+
+    private static Object readKey(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type){
+            case KEY_LONG: return in.readLong();
+            case KEY_INT: return in.readInt();
+            case KEY_STRING:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            case KEY_SHORT: return in.readShort();
+            case KEY_BYTE: return in.readByte();
+            case KEY_BOOLEAN: return in.readBoolean();
+            case KEY_DOUBLE: return in.readDouble();
+            case KEY_FLOAT: return in.readFloat();
+            case KEY_CHAR: return in.readChar();
+            default: throw new IllegalStateException("未知的键值类型: " + type);
+        }
+    }
+
+    private File snapshotFile(TableDescribe<Cacheable> tableDesc){
+        return new File(dir, tableDesc.tableStrategy.getEntityClass().getName() + FILE_SUFFIX);
+    }
+
+    /** 单表的保存或恢复操作 */
+    private interface TableAction {
+        void run(TableDescribe<Cacheable> tableDesc) throws Exception;
+    }
+
+    /** 每张表在单独的线程中执行, 等待所有表执行完毕; 单表失败时记录日志，不影响其他表 */
+    private void runParallel(List<TableDescribe<Cacheable>> tables, TableAction action){
+        List<Runnable> tasks = new ArrayList<>(tables.size());
+        for(TableDescribe<Cacheable> tableDesc : tables){
+            tasks.add(() -> {
+                try{
+                    action.run(tableDesc);
+                }catch (Exception e){
+                    log.error("缓存快照执行失败! table:" + tableDesc.entityName, e);
+                }
+            });
+        }
+        ParallelTasks.invokeAll(tasks, Runtime.getRuntime().availableProcessors());
+    }
+
+}
@@ -0,0 +1,147 @@
+package yushanmufeng.localcache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yushanmufeng.localcache.util.EntitySizeEstimator;
+import yushanmufeng.localcache.util.ParallelTasks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 缓存预热
+ * 通过{@link yushanmufeng.localcache.datasource.TableDataSource#preload}逐条读取表中的数据，直接写入缓存，不经过锁分段和异步任务队列
+ * 各表在有限的线程池中并行加载; 缓存占用达到{@link yushanmufeng.localcache.config.LocalCacheConfig#warmUpMaxPercent}后停止加载，预留的空间给正常的查询使用
+ * 加载中为生成条件查询缓存而收集的主键列表同样计入占用; 停止加载的表不生成条件查询缓存，即使数据源吞掉了停止加载的异常
+ * 已经缓存的数据不会被覆盖; 预热期间有并发的增删改时可能缓存到旧数据，需要在开始处理请求之前调用
+ */
+public class CacheWarmUp {
+
+    public static final Logger log = LoggerFactory.getLogger(CacheWarmUp.class);
+
+    /** 每加载多少条数据检查一次缓存占用 */
+    private static final int CHECK_MEM_INTERVAL = 1024;
+    /** 收集条件查询时每个主键的估算占用: 装箱的主键对象和列表中的引用 */
+    private static final long CONDITION_PK_BYTES = 16 + EntitySizeEstimator.REF_BYTES;
+    /** 收集条件查询时每个条件查询键值的估算占用: map节点、键值对象和列表对象 */
+    private static final long CONDITION_KEY_BYTES = 128;
+
+    private final EntityCacheManager cache;
+    /** 缓存占用的百分比上限, 与{@link EntityCacheManager#memRatio}的计算方式相同 */
+    private final int maxPercent;
+    /** 最多同时加载的表数量 */
+    private final int threads;
+    /** 所有表正在收集、还未生成缓存的条件查询的估算占用字节数 */
+    private final LongAdder collectingBytes = new LongAdder();
+
+    /** 缓存占用达到上限时结束数据源的加载, 不需要堆栈信息 */
+    private static final class CacheFullException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        CacheFullException(){
+            super("缓存占用已达到预热上限", null, false, false);
+        }
+    }
+
+    public CacheWarmUp(EntityCacheManager cache, int maxPercent, int threads){
+        this.cache = cache;
+        this.maxPercent = maxPercent;
+        this.threads = threads;
+    }
+
+    /**
+     * 并行预热所有表, 等待全部加载完毕
+     * @return 加载的实体对象总数
+     */
+    public long warmUp(List<TableDescribe<Cacheable>> tables){
+        LongAdder total = new LongAdder();
+        List<Runnable> tasks = new ArrayList<>(tables.size());
+        for(TableDescribe<Cacheable> tableDesc : tables){
+            tasks.add(() -> {
+                try{
+                    total.add(warmUpTable(tableDesc));
+                }catch (Exception e){
+                    log.error("缓存预热失败! table:" + tableDesc.entityName, e);
+                }
+            });
+        }
+        ParallelTasks.invokeAll(tasks, threads);
+        return total.sum();
+    }
+
+    /** 预热单表, 返回加载的实体对象数 */
+    private long warmUpTable(TableDescribe<Cacheable> tableDesc){
+        long expireMs = (long) cache.calcStdExpireTime(tableDesc);
+        if(expireMs <= 0){
+            log.info("表的过期时间为0，不需要预热, table:" + tableDesc.entityName);
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        long expireTime = start + expireMs;
+        // 加载完整的表时，根据所有实体对象的条件查询键值生成条件查询缓存
+        Map<CacheKey, List<Object>> conditions = new HashMap<>();
+        long[] count = {0}, conditionBytes = {0};
+        // 数据源可能捕获停止加载的异常后继续返回true, 以此标记为准
+        boolean[] stopped = {false};
+        Consumer<Cacheable> consumer = entity -> {
+            if(stopped[0]){
+                return;
+            }
+            if(count[0] % CHECK_MEM_INTERVAL == 0 && cache.memRatio(collectingBytes.sum()) >= maxPercent){
+                stopped[0] = true;
+                throw new CacheFullException();
+            }
+            Object pk = tableDesc.tableStrategy.getPrimaryKey(entity);
+            CacheKey key = new CacheKey(true, pk);
+            if(tableDesc.cacheStore.get(key) == null){
+                cache.restoreCore(tableDesc, key, entity, expireTime);
+            }
+            List<CacheKey> conditionKeys = tableDesc.tableStrategy.getConditionKeys(entity);
+            if(conditionKeys != null){
+                long bytes = 0;
+                for(CacheKey conditionKey : conditionKeys){
+                    List<Object> pks = conditions.get(conditionKey);
+                    if(pks == null){
+                        conditions.put(conditionKey, pks = new ArrayList<>());
+                        bytes += CONDITION_KEY_BYTES;
+                    }
+                    pks.add(pk);
+                    bytes += CONDITION_PK_BYTES;
+                }
+                conditionBytes[0] += bytes;
+                collectingBytes.add(bytes);
+            }
+            count[0] ++;
+        };
+        boolean complete;
+        try{
+            complete = tableDesc.tableStrategy.preload(consumer) && !stopped[0];
+        }catch (CacheFullException e){
+            complete = false;
+        }
+        if(stopped[0]){
+            log.warn("缓存占用已达到预热上限" + maxPercent + "%，停止预热, table:" + tableDesc.entityName);
+        }
+        int conditionCount = 0;
+        try{
+            if(complete){
+                for(Map.Entry<CacheKey, List<Object>> entry : conditions.entrySet()){
+                    if(tableDesc.cacheStore.get(entry.getKey()) == null){
+                        cache.restoreCondition(tableDesc, entry.getKey(), entry.getValue(), expireTime);
+                        conditionCount ++;
+                    }
+                }
+            }
+        }finally {
+            // 已生成的条件查询缓存由缓存统计占用，未生成的直接丢弃
+            collectingBytes.add(-conditionBytes[0]);
+        }
+        log.info("缓存预热完成, table:" + tableDesc.entityName + ", 实体对象数:" + count[0] + ", 条件查询数:" + conditionCount + ", 耗时:" + (System.currentTimeMillis() - start) + "ms");
+        return count[0];
+    }
+
+}
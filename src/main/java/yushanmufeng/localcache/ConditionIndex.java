@@ -0,0 +1,309 @@
+package yushanmufeng.localcache;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 条件查询缓存的主键集合
+ * 主键按加入顺序保存在多个不可修改的分块中，插入、删除实体对象时只复制所在的分块和分块数组，时间复杂度为O(分块长度+分块数)，不再复制整个主键列表
+ * 每次修改后生成新的不可修改的快照，与之前的快照共用未修改的分块; 读取主键快照时直接返回当前快照，不复制也不加锁
+ * 开启条件查询结果物化时，同时保存主键对应的实体对象引用，所有实体对象都存在时可以返回实体对象的快照; 实体对象快照需要支持按主键查询，第一次读取时由当前快照在锁外生成
+ * 可能被多个锁分段同时修改，修改方法互斥执行，读取方法不加锁
+ */
+public class ConditionIndex {
+
+    /** 分块的最大长度 */
+    private static final int CHUNK_SIZE = 64;
+
+    /** [主键, 加入时的序号] 序号递增，用于二分查找主键所在的分块和位置; 需要持有对象锁 */
+    private final HashMap<Object, Long> seqs = new HashMap<>();
+    /** 下一个加入的主键的序号 */
+    private long nextSeq;
+    /** 当前主键集合的快照, 每次修改后替换 */
+    private volatile Snapshot snapshot;
+    /** 最近一次生成的实体对象快照, 只在生成时的主键快照仍为当前快照时有效 */
+    private volatile EntitySnapshot entitySnapshot;
+
+    /** 不可修改的分块, 按加入顺序保存主键、实体对象和序号; 修改时复制整个分块 */
+    private static final class Chunk {
+        final Object[] pks;
+        /** 未物化或实体对象未加载时为null */
+        final Cacheable[] entities;
+        final long[] seqs;
+
+        Chunk(Object[] pks, Cacheable[] entities, long[] seqs){
+            this.pks = pks;
+            this.entities = entities;
+            this.seqs = seqs;
+        }
+
+        int length(){
+            return pks.length;
+        }
+
+        /** 序号在分块中的位置, 不存在时返回负数 */
+        int indexOf(long seq){
+            return Arrays.binarySearch(seqs, seq);
+        }
+
+        Chunk append(Object pk, Cacheable entity, long seq){
+            int n = pks.length;
+            Chunk chunk = new Chunk(Arrays.copyOf(pks, n + 1), Arrays.copyOf(entities, n + 1), Arrays.copyOf(seqs, n + 1));
+            chunk.pks[n] = pk;
+            chunk.entities[n] = entity;
+            chunk.seqs[n] = seq;
+            return chunk;
+        }
+
+        Chunk withEntity(int index, Cacheable entity){
+            Cacheable[] newEntities = entities.clone();
+            newEntities[index] = entity;
+            return new Chunk(pks, newEntities, seqs);
+        }
+
+        Chunk without(int index){
+            int n = pks.length - 1;
+            Chunk chunk = new Chunk(new Object[n], new Cacheable[n], new long[n]);
+            System.arraycopy(pks, 0, chunk.pks, 0, index);
+            System.arraycopy(pks, index + 1, chunk.pks, index, n - index);
+            System.arraycopy(entities, 0, chunk.entities, 0, index);
+            System.arraycopy(entities, index + 1, chunk.entities, index, n - index);
+            System.arraycopy(seqs, 0, chunk.seqs, 0, index);
+            System.arraycopy(seqs, index + 1, chunk.seqs, index, n - index);
+            return chunk;
+        }
+
+        Chunk merge(Chunk next){
+            int n = pks.length, m = next.pks.length;
+            Chunk chunk = new Chunk(Arrays.copyOf(pks, n + m), Arrays.copyOf(entities, n + m), Arrays.copyOf(seqs, n + m));
+            System.arraycopy(next.pks, 0, chunk.pks, n, m);
+            System.arraycopy(next.entities, 0, chunk.entities, n, m);
+            System.arraycopy(next.seqs, 0, chunk.seqs, n, m);
+            return chunk;
+        }
+    }
+
+    /** 不可修改的主键快照, 由所有分块组成 */
+    private static final class Snapshot extends AbstractList<Object> {
+        final Chunk[] chunks;
+        /** 每个分块第一个主键在快照中的下标 */
+        final int[] offsets;
+        final int size;
+        /** 实体对象为null的主键数量 */
+        final int missingCount;
+
+        Snapshot(Chunk[] chunks, int missingCount){
+            this.chunks = chunks;
+            this.offsets = new int[chunks.length];
+            int total = 0;
+            for(int i = 0; i < chunks.length; i++){
+                offsets[i] = total;
+                total += chunks[i].length();
+            }
+            this.size = total;
+            this.missingCount = missingCount;
+        }
+
+        @Override
+        public Object get(int index) {
+            if(index < 0 || index >= size){
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            int i = Arrays.binarySearch(offsets, index);
+            if(i < 0){
+                i = -i - 2;   // 下标所在的分块: 起始下标不大于index的最后一个分块
+            }
+            return chunks[i].pks[index - offsets[i]];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /** 序号所在的分块, 分块按序号递增排列; 不存在时返回-1 */
+        int chunkOf(long seq){
+            int low = 0, high = chunks.length - 1, found = -1;
+            while(low <= high){
+                int mid = (low + high) >>> 1;
+                if(chunks[mid].seqs[0] <= seq){
+                    found = mid;
+                    low = mid + 1;
+                }else{
+                    high = mid - 1;
+                }
+            }
+            return found;
+        }
+    }
+
+    /** 实体对象快照及生成它的主键快照 */
+    private static final class EntitySnapshot {
+        final Snapshot source;
+        final Map<Object, Cacheable> entities;
+
+        EntitySnapshot(Snapshot source, Map<Object, Cacheable> entities){
+            this.source = source;
+            this.entities = entities;
+        }
+    }
+
+    public ConditionIndex(Collection<Object> pks){
+        Chunk[] chunks = new Chunk[(pks.size() + CHUNK_SIZE - 1) / CHUNK_SIZE];
+        int chunkCount = 0, n = 0;
+        Object[] chunkPks = null;
+        long[] chunkSeqs = null;
+        for(Object pk : pks){
+            if(seqs.containsKey(pk)){
+                continue;
+            }
+            long seq = nextSeq++;
+            seqs.put(pk, seq);
+            if(chunkPks == null){
+                chunkPks = new Object[CHUNK_SIZE];
+                chunkSeqs = new long[CHUNK_SIZE];
+                n = 0;
+            }
+            chunkPks[n] = pk;
+            chunkSeqs[n] = seq;
+            if(++n == CHUNK_SIZE){
+                chunks[chunkCount++] = new Chunk(chunkPks, new Cacheable[n], chunkSeqs);
+                chunkPks = null;
+            }
+        }
+        if(chunkPks != null){
+            chunks[chunkCount++] = new Chunk(Arrays.copyOf(chunkPks, n), new Cacheable[n], Arrays.copyOf(chunkSeqs, n));
+        }
+        this.snapshot = new Snapshot(Arrays.copyOf(chunks, chunkCount), seqs.size());
+    }
+
+    /** 加入主键, 已存在时更新实体对象 */
+    public synchronized void add(Object pk, Cacheable entity){
+        if(seqs.containsKey(pk)){
+            setEntity(pk, entity);
+            return;
+        }
+        long seq = nextSeq++;
+        seqs.put(pk, seq);
+        Snapshot current = snapshot;
+        Chunk[] chunks = current.chunks;
+        int last = chunks.length - 1;
+        Chunk[] newChunks;
+        if(last >= 0 && chunks[last].length() < CHUNK_SIZE){
+            newChunks = chunks.clone();
+            newChunks[last] = chunks[last].append(pk, entity, seq);
+        }else{
+            newChunks = Arrays.copyOf(chunks, chunks.length + 1);
+            newChunks[chunks.length] = new Chunk(new Object[]{pk}, new Cacheable[]{entity}, new long[]{seq});
+        }
+        snapshot = new Snapshot(newChunks, current.missingCount + (entity == null ? 1 : 0));
+    }
+
+    /** 移除主键 */
+    public synchronized void remove(Object pk){
+        Long seq = seqs.remove(pk);
+        if(seq == null){
+            return;
+        }
+        Snapshot current = snapshot;
+        Chunk[] chunks = current.chunks;
+        int i = current.chunkOf(seq);
+        Chunk chunk = chunks[i];
+        int index = chunk.indexOf(seq);
+        int missingCount = current.missingCount - (chunk.entities[index] == null ? 1 : 0);
+        Chunk rest = chunk.without(index);
+        Chunk[] newChunks;
+        if(rest.length() == 0){
+            newChunks = new Chunk[chunks.length - 1];
+            System.arraycopy(chunks, 0, newChunks, 0, i);
+            System.arraycopy(chunks, i + 1, newChunks, i, chunks.length - i - 1);
+        }else if(i + 1 < chunks.length && rest.length() + chunks[i + 1].length() <= CHUNK_SIZE){
+            // 与下一个分块合并，避免删除较多时分块数量不减少
+            newChunks = new Chunk[chunks.length - 1];
+            System.arraycopy(chunks, 0, newChunks, 0, i);
+            newChunks[i] = rest.merge(chunks[i + 1]);
+            System.arraycopy(chunks, i + 2, newChunks, i + 1, chunks.length - i - 2);
+        }else{
+            newChunks = chunks.clone();
+            newChunks[i] = rest;
+        }
+        snapshot = new Snapshot(newChunks, missingCount);
+    }
+
+    /** 主键已存在时，更新主键对应的实体对象 */
+    public synchronized void refresh(Object pk, Cacheable entity){
+        if(seqs.containsKey(pk)){
+            setEntity(pk, entity);
+        }
+    }
+
+    /** 主键对应的实体对象仍为entity时置空, 实体对象的缓存已被移除，不再保持引用 */
+    public synchronized void release(Object pk, Cacheable entity){
+        Long seq = seqs.get(pk);
+        if(seq == null || entity == null){
+            return;
+        }
+        Snapshot current = snapshot;
+        Chunk chunk = current.chunks[current.chunkOf(seq)];
+        if(chunk.entities[chunk.indexOf(seq)] == entity){
+            setEntity(pk, null);
+        }
+    }
+
+    /** 更新已存在的主键对应的实体对象, 需要持有对象锁 */
+    private void setEntity(Object pk, Cacheable entity){
+        long seq = seqs.get(pk);
+        Snapshot current = snapshot;
+        int i = current.chunkOf(seq);
+        Chunk chunk = current.chunks[i];
+        int index = chunk.indexOf(seq);
+        Cacheable old = chunk.entities[index];
+        if(old == entity){
+            return;
+        }
+        Chunk[] newChunks = current.chunks.clone();
+        newChunks[i] = chunk.withEntity(index, entity);
+        snapshot = new Snapshot(newChunks, current.missingCount + (entity == null ? 1 : 0) - (old == null ? 1 : 0));
+    }
+
+    /** 主键数量 */
+    public int size(){
+        return snapshot.size;
+    }
+
+    /** 返回当前所有主键的快照, 快照不可修改，之后集合的变化不会影响已返回的快照 */
+    public List<Object> snapshot(){
+        return snapshot;
+    }
+
+    /**
+     * 返回当前所有实体对象的快照, 快照不可修改
+     * @return [主键, 实体对象], 按主键加入的顺序排列; 有实体对象未加载时返回null
+     */
+    public Map<Object, Cacheable> entitySnapshot(){
+        Snapshot current = snapshot;
+        EntitySnapshot cached = entitySnapshot;
+        if(cached != null && cached.source == current){
+            return cached.entities;
+        }
+        if(current.missingCount > 0){
+            return null;
+        }
+        Map<Object, Cacheable> entities = new LinkedHashMap<>((int)(current.size / 0.75f) + 1);
+        for(Chunk chunk : current.chunks){
+            for(int i = 0; i < chunk.length(); i++){
+                entities.put(chunk.pks[i], chunk.entities[i]);
+            }
+        }
+        entities = Collections.unmodifiableMap(entities);
+        entitySnapshot = new EntitySnapshot(current, entities);
+        return entities;
+    }
+
+}
@@ -1,23 +1,24 @@
 package yushanmufeng.localcache;
 
+import yushanmufeng.localcache.atomic.EntityState;
 import yushanmufeng.localcache.config.LocalCacheConfig;
-import org.apache.lucene.util.RamUsageEstimator;
+import yushanmufeng.localcache.metrics.RemovalCause;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import yushanmufeng.localcache.util.MapRandomAccessUtil;
+import yushanmufeng.localcache.store.ConcurrentMapCacheStore;
+import yushanmufeng.localcache.store.ICacheStore;
+import yushanmufeng.localcache.store.LongKeyCacheStore;
+import yushanmufeng.localcache.util.EntitySizeEstimator;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Entity的缓存管理, 是实际缓存实体对象的地方
- * 不使用LRU的方式(使用的类似方式，取一部分数据然后将移除其中最濒临过期的数据)，因为 1.比较难以控制缓存区域的大小； 2.无法针对每张表进行单独优化
+ * 不使用LRU的方式(使用的类似方式，内存不足时移除最濒临过期的数据)，因为 1.比较难以控制缓存区域的大小； 2.无法针对每张表进行单独优化
  */
 public class EntityCacheManager {
 
@@ -26,31 +27,21 @@ public class EntityCacheManager {
     /** 缓存可用的总字节数，用于限制内存占用 */
     public final long MAX_WEIGHT_BYTES;
 
-    /**
-     * 已经使用了的缓存与最大缓存的占比，逻辑上分为三档：0%~75%; 75~90%; 95%~，处于不同挡时会应用不同的策略，详见 {@link TableDescribe}
-     * 根据此占比会计算出过期权重，用于控制缓存的内存空间占用
-     */
-    public volatile int memRatio = 0;
-
     /** 缓存map的初始参数，防止频繁发生扩容 */
     private final int INITIAL_CAPACITY;
     private static final float LOAD_FACTOR = 0.98f;
 
-    /** 缓存key,因为从缓存中读取时无法获得真正的key; 所以移除主缓存和查询缓存时要同时移除key的缓存 */
-    private final Map<TableDescribe<Cacheable>, Map<CacheKey, CacheKey>> keyCache = new ConcurrentHashMap<>(128, LOAD_FACTOR);
-    /** 主缓存 [表， [主键cacheKey， 实体对象]] */
-    private final Map<TableDescribe<Cacheable>, Map<CacheKey, Cacheable>> coreCache = new HashMap<>(128, LOAD_FACTOR);
-    /** 条件查询缓存 [表， [查询条件cacheKey, [实体对象主键数组]]] */
-    private final Map<TableDescribe<Cacheable>, Map<CacheKey, List<Object>>> conditionCache = new HashMap<>(128, LOAD_FACTOR);
-
-    /** 上次计算汇总所有表的内存占用的时间，单位毫秒 */
-    private final AtomicLong lastSumMemTime = new AtomicLong(System.currentTimeMillis());
-    /** 计算汇总所有表的内存占用操作的时间间隔 */
-    private final long SUM_MEM_MS;
-    /** 单轮检测过期最大条目数，越大则所需时间越长 */
-    private final int ONE_ROLL_CHECK_MAX;
+    /** 所有已初始化缓存空间的表, 每张表的缓存数据保存在{@link TableDescribe#cacheStore}中 */
+    private final List<TableDescribe<Cacheable>> tables = new CopyOnWriteArrayList<>();
+
+    /** 上次打印所有表的内存占用的时间，单位毫秒 */
+    private final AtomicLong lastLogMemTime = new AtomicLong(System.currentTimeMillis());
+    /** 打印所有表的内存占用的时间间隔 */
+    private final long LOG_MEM_MS;
     /** 配置项 */
     private final LocalCacheConfig config;
+    /** 按字节数限制缓存总大小的淘汰策略, 未开启时为null */
+    private final WTinyLfuPolicy evictionPolicy;
 
     /**
      * @param config 可配置参数
@@ -59,17 +50,23 @@ public class EntityCacheManager {
         this.config = config;
         MAX_WEIGHT_BYTES = config.maxCacheBytes;
         INITIAL_CAPACITY = config.entitiesInitialCapacity;
-        ONE_ROLL_CHECK_MAX = config.oneRollCheckMax;
-        SUM_MEM_MS = config.sumAllTableMemMs;
+        LOG_MEM_MS = config.sumAllTableMemMs;
+        // 与内存占比的计算保持一致，预留20%给基础组件占用的内存
+        evictionPolicy = config.sizeBoundedEviction ? new WTinyLfuPolicy(MAX_WEIGHT_BYTES * 100 / 120, this::releaseEntry) : null;
     }
 
     /**
      * 为每张表单独初始化缓存空间
      */
     public void initTableCache(TableDescribe<Cacheable> tableDesc){
-        keyCache.put(tableDesc, new ConcurrentHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR));
-        coreCache.put(tableDesc, new ConcurrentHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR));
-        conditionCache.put(tableDesc, new ConcurrentHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR));
+        tableDesc.cacheStore = tableDesc.tableStrategy.isLongPrimaryKey()
+                ? new LongKeyCacheStore(INITIAL_CAPACITY, LOAD_FACTOR)
+                : new ConcurrentMapCacheStore(INITIAL_CAPACITY, LOAD_FACTOR);
+        tableDesc.expiryIndex = new ExpiryIndex();
+        if(tableDesc.negativeCacheMs > 0){
+            tableDesc.negativeCache = new NegativeCache(tableDesc.negativeCacheMs, tableDesc.negativeCacheMaxKeys);
+        }
+        tables.add(tableDesc);
     }
 
     /**
@@ -81,10 +78,10 @@ public class EntityCacheManager {
      */
     public Cacheable getByPK(TableDescribe<Cacheable> tableDesc, CacheKey key, boolean isStatistic) {
         long queryTime = System.currentTimeMillis();
-        Cacheable cacheEntity = coreCache.get(tableDesc).get(key);
-        CacheKey realKey = keyCache.get(tableDesc).get(key);
+        CacheEntry cacheEntry = tableDesc.cacheStore.get(key);
+        Cacheable cacheEntity = cacheEntry != null ? cacheEntry.entity : null;
         if(cacheEntity != null && tableDesc.tableStrategy.strictExpireMode(config)){   // 如果严格检测过期，则要在查询到过期数据时将其移除
-            if(checkExpireAndRemove(tableDesc, realKey, queryTime)){
+            if(checkExpireAndRemove(tableDesc, cacheEntry, queryTime)){
                 cacheEntity = null;
             }
         }
@@ -92,13 +89,59 @@ public class EntityCacheManager {
         if(isStatistic){
             tableDesc.visit(queryTime);
             if (cacheEntity != null) {
-                resetExpireTime(tableDesc, realKey, true); // 有访问缓存，续期缓存时间
+                if(!isRefreshDue(tableDesc, cacheEntry, queryTime)){    // 有访问缓存，续期缓存时间; 需要提前刷新时不再续期，由刷新后的数据重新设置过期时间
+                    resetExpireTime(tableDesc, cacheEntry, true);
+                }
                 tableDesc.hit(queryTime); // 缓存命中, 统计命中率
+                recordAccess(cacheEntry);
             }
         }
         return cacheEntity;
     }
 
+    /**
+     * 不加锁从核心缓存中读取数据, 仅用于主键查询命中缓存的快速路径
+     * 与{@link #getByPK}不同，此方法不会移除任何数据: 严格过期模式下读到过期数据时直接返回null，由加锁的查询逻辑负责移除; 需要提前刷新时同样返回null
+     * 只有命中缓存时才会统计访问次数和命中次数并续期，返回null时调用方需要走加锁的查询逻辑，由其进行统计
+     *
+     * @return 未命中缓存或数据已过期时返回null
+     */
+    public Cacheable getByPKWithoutLock(TableDescribe<Cacheable> tableDesc, CacheKey key){
+        CacheEntry cacheEntry = tableDesc.cacheStore.get(key);
+        Cacheable cacheEntity;
+        if(cacheEntry == null || (cacheEntity = cacheEntry.entity) == null || cacheEntity._getStatus() != EntityState.LATEST){
+            return null;
+        }
+        long queryTime = System.currentTimeMillis();
+        if(cacheEntry.expireTime <= queryTime && tableDesc.tableStrategy.strictExpireMode(config)){
+            return null;
+        }
+        if(isRefreshDue(tableDesc, cacheEntry, queryTime)){  // 需要提前刷新时由加锁的查询逻辑提交刷新任务
+            return null;
+        }
+        tableDesc.visit(queryTime);
+        tableDesc.hit(queryTime);
+        resetExpireTime(tableDesc, cacheEntry, true);
+        recordAccess(cacheEntry);
+        return cacheEntity;
+    }
+
+    /**
+     * 主键缓存是否需要提前刷新: 开启提前刷新并且剩余的过期时间小于标准过期时间x提前刷新系数
+     * @return 未开启提前刷新或缓存不存在时返回false
+     */
+    public boolean isRefreshDue(TableDescribe<Cacheable> tableDesc, CacheKey key){
+        if(tableDesc.refreshAheadRate <= 0){
+            return false;
+        }
+        CacheEntry cacheEntry = tableDesc.cacheStore.get(key);
+        return cacheEntry != null && cacheEntry.entity != null && isRefreshDue(tableDesc, cacheEntry, System.currentTimeMillis());
+    }
+
+    private boolean isRefreshDue(TableDescribe<Cacheable> tableDesc, CacheEntry cacheEntry, long currentTime){
+        return tableDesc.refreshAheadRate > 0 && cacheEntry.expireTime - currentTime < calcStdExpireTime(tableDesc) * tableDesc.refreshAheadRate;
+    }
+
     /**
      * 从条件查询缓存中查询关联列表
      *
@@ -109,19 +152,34 @@ public class EntityCacheManager {
      */
     public List<Object> getByCondition(TableDescribe<Cacheable> tableDesc, CacheKey conditionKey, boolean isStatistic){
         long queryTime = System.currentTimeMillis();
-        List<Object> pks = conditionCache.get(tableDesc).get(conditionKey);
-        CacheKey realKey = keyCache.get(tableDesc).get(conditionKey);
+        CacheEntry cacheEntry = tableDesc.cacheStore.get(conditionKey);
+        ConditionIndex conditionIndex = cacheEntry != null ? cacheEntry.pks : null;    // 已移除的缓存数据会被并发清空
+        List<Object> pks = conditionIndex != null ? conditionIndex.snapshot() : null;
         if(pks != null && tableDesc.tableStrategy.strictExpireMode(config)){   // 如果严格检测过期，则要在查询到过期数据时将其移除
-            if(checkExpireAndRemove(tableDesc, realKey, queryTime)){
+            if(checkExpireAndRemove(tableDesc, cacheEntry, queryTime)){
                 pks = null;
             }
         }
         if(isStatistic && pks != null){
-            resetExpireTime(tableDesc, realKey, true);    // 有访问缓存，续期缓存时间
+            resetExpireTime(tableDesc, cacheEntry, true);    // 有访问缓存，续期缓存时间
+            recordAccess(cacheEntry);
         }
         return pks;
     }
 
+    /**
+     * 获取物化的条件查询结果, 只在已经通过{@link #getByCondition}命中缓存后调用
+     * @return 不可修改的[主键, 实体对象], 未开启物化或有实体对象未加载时返回null
+     */
+    public Map<Object, Cacheable> getMaterializedCondition(TableDescribe<Cacheable> tableDesc, CacheKey conditionKey){
+        if(!tableDesc.materializeConditions){
+            return null;
+        }
+        CacheEntry cacheEntry = tableDesc.cacheStore.get(conditionKey);
+        ConditionIndex conditionIndex = cacheEntry != null ? cacheEntry.pks : null;
+        return conditionIndex != null ? conditionIndex.entitySnapshot() : null;
+    }
+
     /** 缓存调优系数默认值 */
     private static final double STD_ADAPT_RATE = 0.95;
     /** 缓存调优系数，大于0小于1，根据负载情况动态适应, */
@@ -163,22 +221,26 @@ public class EntityCacheManager {
     /**
      * 设置查询缓存过期时间
      * @param tableDesc
-     * @param key
+     * @param cacheEntry
      * @param isRenewal 是否为续期
      */
-    private void resetExpireTime(TableDescribe<Cacheable> tableDesc, CacheKey key, boolean isRenewal){
+    private void resetExpireTime(TableDescribe<Cacheable> tableDesc, CacheEntry cacheEntry, boolean isRenewal){
         final long currentTime = System.currentTimeMillis();
         long expireTime;
         double stdExpireTime = calcStdExpireTime(tableDesc);
         if(isRenewal){  // 是否为续期
             expireTime = (long)(stdExpireTime * tableDesc.tableStrategy.renewalRate(config));
             // 如果续期时间未超过初始的过期时间，则无需增加时间
-            expireTime = currentTime + expireTime >= key.expireTime ? expireTime : key.expireTime - currentTime;
+            expireTime = currentTime + expireTime >= cacheEntry.expireTime ? expireTime : cacheEntry.expireTime - currentTime;
         }else{  // 初始过期时间
             expireTime = (long)(stdExpireTime);
         }
         if(expireTime > 0){
-            key.expireTime = currentTime + expireTime;
+            cacheEntry.expireTime = currentTime + expireTime;
+        }
+        // 续期只会延后过期时间，不需要移动过期索引; 初始过期时间可能早于之前的过期时间，需要放入更早的时间段
+        if(!isRenewal){
+            tableDesc.expiryIndex.schedule(cacheEntry);
         }
     }
 
@@ -188,16 +250,56 @@ public class EntityCacheManager {
      * @param tableDesc
      * @param key
      * @param pks
+     * @param entities 开启条件查询结果物化时，主键对应的实体对象; 否则为null
      */
-    public void cacheCondition(TableDescribe<Cacheable> tableDesc, CacheKey key, List<Object> pks){
-        CacheKey realKey = keyCache.get(tableDesc).get(key);
-        if(realKey == null){
-            keyCache.get(tableDesc).put(key, key);
-            realKey = key;
+    public void cacheCondition(TableDescribe<Cacheable> tableDesc, CacheKey key, List<Object> pks, Map<Object, Cacheable> entities){
+        ICacheStore cacheStore = tableDesc.cacheStore;
+        CacheEntry cacheEntry = cacheStore.get(key);
+        boolean isNew = cacheEntry == null;
+        if(isNew){
+            cacheEntry = cacheStore.newEntry(key);
+        }
+        resetExpireTime(tableDesc, cacheEntry, false);
+        long oldBytes = isNew ? 0L : cacheEntry.bytes;
+        ConditionIndex conditionIndex = new ConditionIndex(pks);
+        if(entities != null){
+            for(Map.Entry<Object, Cacheable> entry : entities.entrySet()){
+                conditionIndex.refresh(entry.getKey(), entry.getValue());
+            }
+        }
+        cacheEntry.pks = conditionIndex;
+        cacheEntry.bytes = EntitySizeEstimator.sizeOfNodes(pks);
+        if(isNew){  // 新的缓存数据在赋值完成后再放入map，无锁读不会读到未初始化完成的数据
+            cacheStore.put(cacheEntry);
+        }
+        onCacheWrite(tableDesc, cacheEntry, isNew, oldBytes);
+    }
+
+    /**
+     * 主键是否已确认在数据源中不存在(负缓存), 需要在持有主键所在锁分段时调用
+     * @return 未开启负缓存或未记录时返回false
+     */
+    public boolean isKnownAbsent(TableDescribe<Cacheable> tableDesc, CacheKey key){
+        NegativeCache negativeCache = tableDesc.negativeCache;
+        return negativeCache != null && negativeCache.contains(key, System.currentTimeMillis());
+    }
+
+    /**
+     * 记录数据源中不存在的主键(负缓存), 需要在持有主键所在锁分段时调用; 未开启负缓存时不做处理
+     */
+    public void cacheAbsent(TableDescribe<Cacheable> tableDesc, CacheKey key){
+        NegativeCache negativeCache = tableDesc.negativeCache;
+        if(negativeCache != null){
+            negativeCache.add(key, System.currentTimeMillis());
+        }
+    }
+
+    /** 主键对应的数据已放入缓存，移除负缓存中的记录 */
+    private void removeAbsent(TableDescribe<Cacheable> tableDesc, CacheKey key){
+        NegativeCache negativeCache = tableDesc.negativeCache;
+        if(negativeCache != null){
+            negativeCache.remove(key);
         }
-        resetExpireTime(tableDesc, realKey, false);
-        conditionCache.get(tableDesc).put(realKey, pks);
-        realKey.bytes = RamUsageEstimator.sizeOfObject(pks);
     }
 
     /**
@@ -210,25 +312,132 @@ public class EntityCacheManager {
      * @return 是否缓存成功，如果数据不需要缓存，返回false
      */
     public <T extends Cacheable> void cacheCore(TableDescribe<Cacheable> tableDesc, CacheKey key, T entity){
-        CacheKey realKey = keyCache.get(tableDesc).get(key);
-        if(realKey == null){
-            keyCache.get(tableDesc).put(key, key);
-            realKey = key;
+        ICacheStore cacheStore = tableDesc.cacheStore;
+        CacheEntry cacheEntry = cacheStore.get(key);
+        boolean isNew = cacheEntry == null;
+        if(isNew){
+            cacheEntry = cacheStore.newEntry(key);
+        }
+        resetExpireTime(tableDesc, cacheEntry, false);
+        long oldBytes = isNew ? 0L : cacheEntry.bytes;
+        cacheEntry.entity = entity;
+        cacheEntry.bytes = tableDesc.calcMemCache(entity);
+        if(isNew){  // 新的缓存数据在赋值完成后再放入map，无锁读不会读到未初始化完成的数据
+            cacheStore.put(cacheEntry);
+        }
+        onCacheWrite(tableDesc, cacheEntry, isNew, oldBytes);
+        removeAbsent(tableDesc, key);   // 插入或加载后数据已存在，负缓存立即失效
+    }
+
+    /**
+     * 批量加载一条主键缓存(恢复缓存快照、预热), 使用指定的过期时间; 不经过锁分段，需要在启动时开始处理请求之前调用
+     * @param expireTime 过期时间
+     */
+    public void restoreCore(TableDescribe<Cacheable> tableDesc, CacheKey key, Cacheable entity, long expireTime){
+        entity._setStatus(EntityState.LATEST);
+        CacheEntry cacheEntry = tableDesc.cacheStore.newEntry(key);
+        cacheEntry.entity = entity;
+        cacheEntry.bytes = tableDesc.calcMemCache(entity);
+        restoreEntry(tableDesc, cacheEntry, expireTime);
+        removeAbsent(tableDesc, key);
+    }
+
+    /**
+     * 批量加载一条条件查询缓存(恢复缓存快照、预热), 使用指定的过期时间; 开启条件查询结果物化时，关联已加载的主键缓存中的实体对象
+     * 需要在此表的主键缓存加载完成后调用
+     * @param expireTime 过期时间
+     */
+    public void restoreCondition(TableDescribe<Cacheable> tableDesc, CacheKey key, List<Object> pks, long expireTime){
+        CacheEntry cacheEntry = tableDesc.cacheStore.newEntry(key);
+        ConditionIndex conditionIndex = new ConditionIndex(pks);
+        if(tableDesc.materializeConditions){
+            for(Object pk : pks){
+                CacheEntry coreEntry = tableDesc.cacheStore.get(new CacheKey(true, pk));
+                if(coreEntry != null){
+                    conditionIndex.refresh(pk, coreEntry.entity);
+                }
+            }
+        }
+        cacheEntry.pks = conditionIndex;
+        cacheEntry.bytes = EntitySizeEstimator.sizeOfNodes(pks);
+        restoreEntry(tableDesc, cacheEntry, expireTime);
+    }
+
+    private void restoreEntry(TableDescribe<Cacheable> tableDesc, CacheEntry cacheEntry, long expireTime){
+        cacheEntry.expireTime = expireTime;
+        tableDesc.expiryIndex.schedule(cacheEntry);
+        tableDesc.cacheStore.put(cacheEntry);
+        onCacheWrite(tableDesc, cacheEntry, true, 0L);
+    }
+
+    /**
+     * 保存缓存后更新内存占用
+     * 开启按大小淘汰时由淘汰策略统计，淘汰其他锁分段的数据和更新占用在同一把锁内完成，不会重复统计
+     * @param oldBytes 已有的缓存数据替换前的占用字节数
+     */
+    private void onCacheWrite(TableDescribe<Cacheable> tableDesc, CacheEntry cacheEntry, boolean isNew, long oldBytes){
+        if(evictionPolicy != null){
+            evictionPolicy.onWrite(tableDesc, cacheEntry, isNew);
+        }else{
+            tableDesc.memBytes.add(cacheEntry.bytes - oldBytes);
         }
-        resetExpireTime(tableDesc, realKey, false);
-        coreCache.get(tableDesc).put(realKey, entity);
-        realKey.bytes = tableDesc.calcMemCache(entity);
     }
 
     /** 卸载缓存 */
     public void unloadCache(TableDescribe<Cacheable> tableDesc, CacheKey key){
-        key = keyCache.get(tableDesc).remove(key);
-        if(key != null){
-            if(key.isPK){
-                coreCache.get(tableDesc).remove(key);
+        CacheEntry cacheEntry = tableDesc.cacheStore.get(key);
+        if(cacheEntry != null && removeEntry(tableDesc, cacheEntry)){
+            tableDesc.metrics.recordRemoval(tableDesc.entityName, RemovalCause.EXPLICIT, 1);
+        }
+    }
+
+    /**
+     * 移除一条缓存
+     * @return 是否移除成功; 同一个key已重新缓存了其他数据时不会移除
+     */
+    private boolean removeEntry(TableDescribe<Cacheable> tableDesc, CacheEntry cacheEntry){
+        if(tableDesc.cacheStore.remove(cacheEntry)){
+            if(evictionPolicy != null){
+                evictionPolicy.onRemove(cacheEntry);
             }else{
-                conditionCache.get(tableDesc).remove(key);
+                tableDesc.memBytes.add(-cacheEntry.bytes);
             }
+            releaseEntry(tableDesc, cacheEntry);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 缓存数据从缓存中移除(过期、卸载或被淘汰)后释放其引用的数据
+     * 已移除的缓存数据可能仍留在过期索引的时间段中，直到遍历到此时间段; 先从过期索引注销并清空实体对象和主键集合，只保留缓存数据本身
+     * 开启条件查询结果物化时，条件查询中对此实体对象的引用同时置空，之后读取物化结果时由主键缓存重新加载
+     */
+    private void releaseEntry(TableDescribe<Cacheable> tableDesc, CacheEntry cacheEntry){
+        Cacheable entity = cacheEntry.entity;
+        cacheEntry.expiryBucket = ExpiryIndex.UNSCHEDULED;
+        cacheEntry.entity = null;
+        cacheEntry.pks = null;
+        if(entity == null || !tableDesc.materializeConditions){
+            return;
+        }
+        List<CacheKey> conditionKeys = tableDesc.tableStrategy.getConditionKeys(entity);
+        if(conditionKeys != null && conditionKeys.size() > 0){
+            Object pk = tableDesc.tableStrategy.getPrimaryKey(entity);
+            for(CacheKey conditionKey : conditionKeys){
+                CacheEntry conditionEntry = tableDesc.cacheStore.get(conditionKey);
+                ConditionIndex conditionIndex = conditionEntry != null ? conditionEntry.pks : null;
+                if(conditionIndex != null){
+                    conditionIndex.release(pk, entity);
+                }
+            }
+        }
+    }
+
+    /** 开启按大小淘汰时记录一次缓存访问 */
+    private void recordAccess(CacheEntry cacheEntry){
+        if(evictionPolicy != null){
+            evictionPolicy.onAccess(cacheEntry);
         }
     }
 
@@ -237,14 +446,32 @@ public class EntityCacheManager {
         List<CacheKey> conditionKeys = tableDesc.tableStrategy.getConditionKeys(entity);
         if(conditionKeys != null && conditionKeys.size() > 0){
             Object pk = tableDesc.tableStrategy.getPrimaryKey(entity);
-            Map<CacheKey, List<Object>> conditionMapping = conditionCache.get(tableDesc);
-            Map<CacheKey, CacheKey> keyMapping = keyCache.get(tableDesc);
+            ICacheStore cacheStore = tableDesc.cacheStore;
+            for(CacheKey conditionKey : conditionKeys){
+                // 条件查询缓存可能同时被其他锁分段修改，由主键集合自身保证线程安全
+                CacheEntry cacheEntry = cacheStore.get(conditionKey);
+                ConditionIndex conditionIndex = cacheEntry != null ? cacheEntry.pks : null;
+                if(conditionIndex != null){
+                    conditionIndex.add(pk, tableDesc.materializeConditions ? entity : null);
+                }
+            }
+        }
+    }
+
+    /** 开启条件查询结果物化时，更新或加载实体类的同时，更新条件查询中的实体对象引用 */
+    public <T extends Cacheable> void whenRefreshEntity(TableDescribe<Cacheable> tableDesc, T entity){
+        if(!tableDesc.materializeConditions){
+            return;
+        }
+        List<CacheKey> conditionKeys = tableDesc.tableStrategy.getConditionKeys(entity);
+        if(conditionKeys != null && conditionKeys.size() > 0){
+            Object pk = tableDesc.tableStrategy.getPrimaryKey(entity);
+            ICacheStore cacheStore = tableDesc.cacheStore;
             for(CacheKey conditionKey : conditionKeys){
-                conditionKey = keyMapping.get(conditionKey);
-                if(conditionKey != null){
-                    List<Object> newPks = new ArrayList<>(conditionMapping.get(conditionKey));
-                    newPks.add(pk);
-                    conditionMapping.put(conditionKey, newPks);
+                CacheEntry cacheEntry = cacheStore.get(conditionKey);
+                ConditionIndex conditionIndex = cacheEntry != null ? cacheEntry.pks : null;
+                if(conditionIndex != null){
+                    conditionIndex.refresh(pk, entity);
                 }
             }
         }
@@ -257,14 +484,13 @@ public class EntityCacheManager {
         List<CacheKey> conditionKeys = tableDesc.tableStrategy.getConditionKeys(entity);
         if(conditionKeys != null && conditionKeys.size() > 0){
             Object pk = tableDesc.tableStrategy.getPrimaryKey(entity);
-            Map<CacheKey, List<Object>> conditionMapping = conditionCache.get(tableDesc);
-            Map<CacheKey, CacheKey> keyMapping = keyCache.get(tableDesc);
+            ICacheStore cacheStore = tableDesc.cacheStore;
             for(CacheKey conditionKey : conditionKeys){
-                conditionKey = keyMapping.get(conditionKey);
-                if(conditionKey != null){
-                    List<Object> newPks = new ArrayList<>(conditionMapping.get(conditionKey));
-                    newPks.remove(pk);
-                    conditionMapping.put(conditionKey, newPks);
+                // 条件查询缓存可能同时被其他锁分段修改，由主键集合自身保证线程安全
+                CacheEntry cacheEntry = cacheStore.get(conditionKey);
+                ConditionIndex conditionIndex = cacheEntry != null ? cacheEntry.pks : null;
+                if(conditionIndex != null){
+                    conditionIndex.remove(pk);
                 }
             }
         }
@@ -272,58 +498,50 @@ public class EntityCacheManager {
 
     /**
      * 检测过期
-     * 采用与redisExpire类似的随机过期机制，检测随机一部分数据
+     * 通过过期索引只遍历已过期的时间段，移除其中所有已过期的数据
      *
      * @param tableDesc
      */
     public void checkExpire(TableDescribe<Cacheable> tableDesc){
         long startCheckTime = System.currentTimeMillis();
 
-        // 随机检查部分缓存数据是否过期
-        int totalCacheCount = 0, removeCacheCount = 0, checkKeyCount = ONE_ROLL_CHECK_MAX;
-        Map<CacheKey, CacheKey> cacheKeyMapping = keyCache.get(tableDesc);
-        if( checkKeyCount >= (totalCacheCount = cacheKeyMapping.size()) ) checkKeyCount = 1 + totalCacheCount/2;
-        if(totalCacheCount > 0){
-            Map<CacheKey, CacheKey> randomMap = MapRandomAccessUtil.getRandomEntrys(cacheKeyMapping, checkKeyCount);
-            for(Map.Entry<CacheKey, CacheKey> entry : randomMap.entrySet()){
-                CacheKey cacheKey = entry.getValue();
-                // 检测主缓存是否过期，卸载过期数据
-                if( cacheKey != null && checkExpireAndRemove(tableDesc, cacheKey, startCheckTime) ){
-                    removeCacheCount ++;
-                }
-            }
+        if(evictionPolicy != null){ // 处理淘汰策略写缓冲区中滞留的记录，内存占用的统计保持最新
+            evictionPolicy.cleanUp();
         }
+        // 移除所有过期数据
+        ICacheStore cacheStore = tableDesc.cacheStore;
+        int totalCacheCount = cacheStore.size();
+        int removeCacheCount = tableDesc.expiryIndex.expire(cacheStore, startCheckTime, entry -> removeEntry(tableDesc, entry));
         // 自适应优化表级权重
+        int memRatio = memRatio();
+        logMemRatio(memRatio, startCheckTime);
         if(tableDesc.tableStrategy.useDynamicRate(config)){
             tableDesc.adaptRate(memRatio, ThreadLocalRandom.current(), startCheckTime);
         }
+        tableDesc.metrics.recordRemoval(tableDesc.entityName, RemovalCause.EXPIRED, removeCacheCount);
         // 打印统计日志
-        StringBuilder logBuilder = new StringBuilder("本轮检查过期缓存完成, table：")
-                .append(tableDesc.entityName)
-                .append(", 表权重系数：").append(tableDesc.expireRate)
-                .append(", 初始过期时间：").append((long)(calcStdExpireTime(tableDesc)/1000))
-                .append("s, 耗时：").append(System.currentTimeMillis() - startCheckTime).append("ms")
-                .append("\r\n        - 剩余缓存键值数量：")
-                .append(totalCacheCount).append("-").append(removeCacheCount).append("=").append(totalCacheCount - removeCacheCount)
-                .append("\r\n        - 每小时命中率统计：").append(tableDesc.toStringEveryHourStats())
-                .append("\r\n        - 每10分钟命中率统计：").append(tableDesc.toStringEvery10MinStats());
-        log.debug(logBuilder.toString());
+        if(log.isDebugEnabled()){
+            StringBuilder logBuilder = new StringBuilder("本轮检查过期缓存完成, table：")
+                    .append(tableDesc.entityName)
+                    .append(", 表权重系数：").append(tableDesc.expireRate)
+                    .append(", 初始过期时间：").append((long)(calcStdExpireTime(tableDesc)/1000))
+                    .append("s, 耗时：").append(System.currentTimeMillis() - startCheckTime).append("ms")
+                    .append("\r\n        - 剩余缓存键值数量：")
+                    .append(totalCacheCount).append("-").append(removeCacheCount).append("=").append(totalCacheCount - removeCacheCount)
+                    .append("\r\n        - 每小时命中率统计：").append(tableDesc.toStringEveryHourStats())
+                    .append("\r\n        - 每10分钟命中率统计：").append(tableDesc.toStringEvery10MinStats());
+            log.debug(logBuilder.toString());
+        }
 
 
         // if(!isTimeOut) isTimeOut = startCheckTime + timeoutMs <= System.currentTimeMillis();
-        // 内存达到一定阈值，则除了过期数据，还会额外随机卸载部分快要过期的数据
+        // 内存达到一定阈值，则除了过期数据，还会额外卸载部分快要过期的数据
         int outRate;
-        if( ( outRate = memRatio - 95 ) > 0 && (100.0*removeCacheCount/totalCacheCount < outRate) ){
+        if( ( outRate = memRatio - 95 ) > 0 && totalCacheCount > 0 && (100.0*removeCacheCount/totalCacheCount < outRate) ){
             startCheckTime = System.currentTimeMillis();
-            removeCacheCount = 0;
-            int forceRmc = 1 +  totalCacheCount/33;  // 强制从9%的缓存中最多移除3%濒临过期数据
-            Map<CacheKey, CacheKey> randomMap = MapRandomAccessUtil.getRandomEntrys(cacheKeyMapping, forceRmc * 3);
-            CacheKey[] entries = randomMap.values().toArray(new CacheKey[randomMap.size()]);
-            Arrays.sort( entries, ((o1, o2) -> (int)(o1.expireTime - o2.expireTime)) );
-            for(int i = 0; i < entries.length && i <= forceRmc; i++){
-                checkExpireAndRemove(tableDesc, entries[i], Long.MAX_VALUE);
-                removeCacheCount++;
-            }
+            int forceRmc = 1 +  totalCacheCount/33;  // 强制最多移除3%最濒临过期的数据
+            removeCacheCount = tableDesc.expiryIndex.evict(forceRmc, entry -> removeEntry(tableDesc, entry));
+            tableDesc.metrics.recordRemoval(tableDesc.entityName, RemovalCause.MEMORY, removeCacheCount);
             StringBuilder logExtraBuilder = new StringBuilder("本轮检查过期缓存时,负载过高, table：")
                     .append(tableDesc.entityName)
                     .append(", 额外移除键值数量：").append(removeCacheCount).append(", 额外耗时：").append(System.currentTimeMillis() - startCheckTime).append("ms");
@@ -337,45 +555,51 @@ public class EntityCacheManager {
      *
      * @return 数据是否过期
      */
-    private boolean checkExpireAndRemove(TableDescribe<Cacheable> tableDesc, CacheKey conditionKey, long currentTime){
-        if(conditionKey.expireTime <= currentTime){
-            unloadCache(tableDesc, conditionKey);
+    private boolean checkExpireAndRemove(TableDescribe<Cacheable> tableDesc, CacheEntry cacheEntry, long currentTime){
+        if(cacheEntry.expireTime <= currentTime){
+            if(removeEntry(tableDesc, cacheEntry)){  // 只移除检测的这一条缓存，不会误删同一个key已重新缓存的数据
+                tableDesc.metrics.recordRemoval(tableDesc.entityName, RemovalCause.EXPIRED, 1);
+            }
             return true;
         }
         return false;
     }
 
 
+    /** 所有表的缓存占用内存大小的字节数 */
+    public long totalMemBytes(){
+        long totalSize = 0;
+        for(TableDescribe<Cacheable> tableDesc : tables){
+            totalSize += tableDesc.memBytes.sum();
+        }
+        return totalSize;
+    }
+
+    /**
+     * 已经使用了的缓存与最大缓存的占比，逻辑上分为三档：0%~75%; 75~90%; 95%~，处于不同挡时会应用不同的策略，详见 {@link TableDescribe}
+     * 根据此占比会计算出过期权重，用于控制缓存的内存空间占用; 每张表的内存占用是增量更新的，只需要累加各表的计数
+     */
+    public int memRatio(){
+        return memRatio(0);
+    }
+
     /**
-     * 汇总缓存使用内存情况
+     * 计入缓存之外的额外占用后的内存占比, 如预热时还未生成缓存的数据
+     * @param extraBytes 额外占用的字节数
      */
-    public <T extends Cacheable> void sumMem(TableDescribe<Cacheable> tableDesc){
-        // 计算汇总单张表的内存占用
-        long totalMem = 0L;
-        for(CacheKey cacheKey : keyCache.get(tableDesc).values()){
-            totalMem += cacheKey.bytes;
-        }
-        tableDesc.totalMemBytes = totalMem;
-        // 汇总所有表的总内存占用情况
-        long lastSumMs = lastSumMemTime.get();
-        long currentMs = System.currentTimeMillis();
-        boolean isTimeout = currentMs - lastSumMs >= SUM_MEM_MS;
-        if(isTimeout && lastSumMemTime.compareAndSet(lastSumMs, currentMs)){
-            statisticMemRatio();
-        }
+    public int memRatio(long extraBytes){
+        return (int)(120.0 * (totalMemBytes() + extraBytes)/MAX_WEIGHT_BYTES);   // 组件基础结构也有一定的内存占用，暂时设为额外20%用于基础组件占用的内存
     }
 
     /**
-     * 计算缓存使用内存情况
+     * 定时打印缓存使用内存情况
      */
-    private void statisticMemRatio(){
-        long startTime = System.currentTimeMillis();
-        long totalSize = 0; // 总占用字节数
-        for(TableDescribe<Cacheable> tableDesc : keyCache.keySet()){
-            totalSize += tableDesc.totalMemBytes;
-        }
-        memRatio = (int)(120.0 * totalSize/MAX_WEIGHT_BYTES);   // 组件基础结构也有一定的内存占用，暂时设为额外20%用于基础组件占用的内存
-        log.info( String.format("========缓存已使用内存%d%s：%.1fMB/%.1fMB,优化系数：%.3f", memRatio, "%", totalSize/1024.0/1024.0, MAX_WEIGHT_BYTES/1024.0/1024.0, adaptRate ) + "耗时：" + (System.currentTimeMillis() - startTime) + "ms========");
+    private void logMemRatio(int memRatio, long currentMs){
+        long lastLogMs = lastLogMemTime.get();
+        if(currentMs - lastLogMs < LOG_MEM_MS || !lastLogMemTime.compareAndSet(lastLogMs, currentMs)){
+            return;
+        }
+        log.info( String.format("========缓存已使用内存%d%s：%.1fMB/%.1fMB,优化系数：%.3f", memRatio, "%", totalMemBytes()/1024.0/1024.0, MAX_WEIGHT_BYTES/1024.0/1024.0, adaptRate ) + "========");
         // 自适应优化过期算法曲线 TODO 暂时屏蔽
 //        if(memRatio >= 95){
 //            adaptRate -= ADAPT_STEP;
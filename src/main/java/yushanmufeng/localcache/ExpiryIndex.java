@@ -0,0 +1,110 @@
+package yushanmufeng.localcache;
+
+import yushanmufeng.localcache.store.ICacheStore;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * 单表缓存数据的过期索引
+ * 按过期时间将缓存数据分到以秒为单位的时间段中，检测过期时只需要遍历已经过期的时间段，时间复杂度与过期的数据量相关，不需要随机抽样
+ * 续期只修改{@link CacheEntry#expireTime}，不移动缓存数据: 遍历到已续期的数据时再重新放入新的时间段
+ * 缓存数据被移除或重新放入更早的时间段后，原时间段中的记录不会立即删除，遍历到时再跳过
+ */
+public class ExpiryIndex {
+
+    /** 每个时间段的毫秒数, 也是检测过期的最小精度 */
+    private static final long BUCKET_MS = 1000;
+    /** 缓存数据未放入任何时间段 */
+    static final long UNSCHEDULED = Long.MIN_VALUE;
+
+    /** [时间段, 此时间段内过期的缓存数据] */
+    private final ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<CacheEntry>> buckets = new ConcurrentSkipListMap<>();
+
+    /**
+     * 根据缓存数据当前的过期时间放入对应的时间段，已经在更早或相同的时间段中时不做处理
+     * 需要在持有缓存数据所在的锁分段时调用
+     */
+    public void schedule(CacheEntry entry){
+        long bucket = entry.expireTime / BUCKET_MS;
+        long current = entry.expiryBucket;
+        if(current != UNSCHEDULED && current <= bucket){
+            return;
+        }
+        entry.expiryBucket = bucket;
+        ConcurrentLinkedQueue<CacheEntry> queue;
+        do{
+            queue = buckets.computeIfAbsent(bucket, k -> new ConcurrentLinkedQueue<>());
+            queue.add(entry);
+            // 放入的同时此时间段可能刚好被遍历完并移除，需要重新放入; 重复放入的记录遍历时会跳过
+        }while(buckets.get(bucket) != queue);
+    }
+
+    /**
+     * 移除所有已过期的缓存数据
+     * @param cacheStore 所属表的缓存数据
+     * @param currentTime 当前时间
+     * @param remover 移除一条缓存数据，返回是否移除成功
+     * @return 移除的缓存数据条数
+     */
+    public int expire(ICacheStore cacheStore, long currentTime, Predicate<CacheEntry> remover){
+        long currentBucket = currentTime / BUCKET_MS;
+        int removeCount = 0;
+        Map.Entry<Long, ConcurrentLinkedQueue<CacheEntry>> first;
+        // 当前时间所在的时间段还未结束，留到下一轮检测
+        while((first = buckets.firstEntry()) != null && first.getKey() < currentBucket){
+            long bucket = first.getKey();
+            ConcurrentLinkedQueue<CacheEntry> queue = first.getValue();
+            CacheEntry entry;
+            while((entry = queue.poll()) != null){
+                if(entry.expiryBucket != bucket){
+                    continue;
+                }
+                entry.expiryBucket = UNSCHEDULED;
+                if(entry.expireTime <= currentTime){
+                    if(remover.test(entry)){   // 只移除这一条缓存，不会误删同一个key已重新缓存的数据
+                        removeCount ++;
+                    }
+                }else if(cacheStore.contains(entry)){ // 已续期且仍在缓存中，放入新的时间段
+                    schedule(entry);
+                }
+            }
+            buckets.remove(bucket, queue);
+        }
+        return removeCount;
+    }
+
+    /**
+     * 不论是否过期，按过期时间从早到晚移除一定数量的缓存数据, 用于内存不足时提前卸载即将过期的数据
+     * @param count 最多移除的条数
+     * @param remover 移除一条缓存数据，返回是否移除成功
+     * @return 移除的缓存数据条数
+     */
+    public int evict(int count, Predicate<CacheEntry> remover){
+        int removeCount = 0;
+        for(Map.Entry<Long, ConcurrentLinkedQueue<CacheEntry>> first : buckets.entrySet()){
+            if(removeCount >= count){
+                break;
+            }
+            long bucket = first.getKey();
+            ConcurrentLinkedQueue<CacheEntry> queue = first.getValue();
+            CacheEntry entry;
+            while(removeCount < count && (entry = queue.poll()) != null){
+                if(entry.expiryBucket != bucket){
+                    continue;
+                }
+                entry.expiryBucket = UNSCHEDULED;
+                if(remover.test(entry)){
+                    removeCount ++;
+                }
+            }
+            if(queue.isEmpty()){
+                buckets.remove(bucket, queue);
+            }
+        }
+        return removeCount;
+    }
+
+}
@@ -1,8 +1,10 @@
 package yushanmufeng.localcache;
 
 import yushanmufeng.localcache.datasource.TableDataSource;
-import yushanmufeng.localcache.util.MapRandomAccessUtil;
+import yushanmufeng.localcache.util.ITaskExecutor;
 import yushanmufeng.localcache.util.SimpleTaskExecutor;
+import yushanmufeng.localcache.util.VirtualThreadTaskExecutor;
+import yushanmufeng.localcache.util.WorkStealingTaskExecutor;
 import yushanmufeng.localcache.config.EmptyExpireRateLoader;
 import yushanmufeng.localcache.config.LocalCacheConfig;
 import yushanmufeng.localcache.task.MergingFutureTask;
@@ -11,10 +13,14 @@ import yushanmufeng.localcache.task.TaskContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -32,7 +38,11 @@ public class LocalCacheFacade {
     /** 执行器结束计数器 */
     private CountDownLatch countDownLatch;
     /** 所有要从DB中查询数据的任务队列(主键查询和条件查询)、 所有增删改db操作的任务队列 */
-    public final SimpleTaskExecutor<MergingFutureTask<?>>[] selectExecutors, nonSelectExecutors;
+    public final ITaskExecutor<MergingFutureTask<?>>[] selectExecutors, nonSelectExecutors;
+    /** 使用工作窃取的任务执行器时，查询和增删改任务的执行器组; 否则为null */
+    private WorkStealingTaskExecutor<MergingFutureTask<?>> selectWorkers, nonSelectWorkers;
+    /** 使用虚拟线程执行查询任务时，每张表的查询任务执行器; selectExecutors同时包含所有表的执行器 */
+    private Map<Class<Cacheable>, ITaskExecutor<MergingFutureTask<?>>[]> tableSelectExecutors;
 
     /** 各表的原子操作组件 */
     private Map<Class<Cacheable>, SingleTableAtomicLogic> tableAtomicLogics;
@@ -40,6 +50,13 @@ public class LocalCacheFacade {
     /** 自适应过期时间参数持久化接口 */
     private IExpireRateLoader expireRateLoader;
 
+    /** 增删改操作的写日志, 未开启时为null */
+    private WriteJournal journal;
+    /** 缓存快照, 未开启时为null */
+    private CacheSnapshot snapshot;
+    /** 缓存预热 */
+    private CacheWarmUp cacheWarmUp;
+
     /** 任务执行线程的名字前缀 */
     private String PRE_SELECT_THREAD_NAME, PRE_NON_SELECT_THREAD_NAME;
 
@@ -64,35 +81,87 @@ public class LocalCacheFacade {
         expireRateLoader = expireRateLoader != null ? expireRateLoader : new EmptyExpireRateLoader();
         PRE_SELECT_THREAD_NAME = config.selectThreadPreName;
         PRE_NON_SELECT_THREAD_NAME = config.nonSelectThreadPreName;
-        selectExecutors = new SimpleTaskExecutor[config.selectThreadCount];
-        nonSelectExecutors = new SimpleTaskExecutor[config.nonSelectThreadCount];
+        int tableCount = tableDataSources != null ? tableDataSources.size() : 0;
+        // 使用虚拟线程执行查询时，每张表一个查询执行器，结束时各计数一次
+        countDownLatch = new CountDownLatch((config.virtualThreadSelects ? tableCount : config.selectThreadCount) + config.nonSelectThreadCount);
+        if(config.virtualThreadSelects){
+            tableSelectExecutors = new HashMap<>();
+            selectExecutors = new VirtualThreadTaskExecutor[tableCount];
+            for(int i = 0; i < tableCount; i++){
+                TableDataSource<Cacheable> tableDataSource = (TableDataSource<Cacheable>)tableDataSources.get(i);
+                selectExecutors[i] = new VirtualThreadTaskExecutor<>(PRE_SELECT_THREAD_NAME + "-" + tableDataSource.getEntityClass().getSimpleName(),
+                        tableDataSource.maxConcurrentSelects(config), countDownLatch);
+                tableSelectExecutors.put(tableDataSource.getEntityClass(), new ITaskExecutor[]{selectExecutors[i]});
+            }
+        }else if(config.workStealingExecutor){
+            selectWorkers = new WorkStealingTaskExecutor<>(PRE_SELECT_THREAD_NAME, config.selectThreadCount, countDownLatch);
+            selectExecutors = selectWorkers.getLanes();
+        }else{
+            selectExecutors = new SimpleTaskExecutor[config.selectThreadCount];
+            for(int i = 0; i < selectExecutors.length; i++){
+                selectExecutors[i] = new SimpleTaskExecutor<>(PRE_SELECT_THREAD_NAME + i, false, countDownLatch);
+            }
+        }
+        if(config.workStealingExecutor){
+            nonSelectWorkers = new WorkStealingTaskExecutor<>(PRE_NON_SELECT_THREAD_NAME, config.nonSelectThreadCount, countDownLatch);
+            nonSelectExecutors = nonSelectWorkers.getLanes();
+        }else{
+            nonSelectExecutors = new SimpleTaskExecutor[config.nonSelectThreadCount];
+            for(int i = 0; i < nonSelectExecutors.length; i++){
+                nonSelectExecutors[i] = new SimpleTaskExecutor<>(PRE_NON_SELECT_THREAD_NAME + i, false, countDownLatch);
+            }
+        }
+        config.metrics.bindExecutors("select", selectExecutors);
+        config.metrics.bindExecutors("nonSelect", nonSelectExecutors);
         cache = new EntityCacheManager(config);
+        cacheWarmUp = new CacheWarmUp(cache, config.warmUpMaxPercent, config.warmUpThreads);
         // 初始化所有table数据源
         if(tableDataSources != null && tableDataSources.size() > 0){
             tableAtomicLogics = new HashMap<>();
-            MapRandomAccessUtil.init(); // 初始化Map随机访问工具
             expireRateLoader.initiation();
+            journal = config.writeJournalDir != null ? new WriteJournal(config.writeJournalDir) : null;
+            Map<String, TableDescribe<Cacheable>> tableDescs = new HashMap<>();
+            snapshot = config.snapshotDir != null ? new CacheSnapshot(config.snapshotDir, cache) : null;
             for(TableDataSource<?> dataSource : tableDataSources){
                 TableDataSource<Cacheable> tableDataSource = (TableDataSource<Cacheable>)dataSource;
                 TableDescribe<Cacheable> tableDesc = new TableDescribe<>(config, tableDataSource, cache);
                 cache.initTableCache(tableDesc);
+                config.metrics.bindTable(tableDesc);
                 expireRateLoader.load(tableDesc);
-                tableAtomicLogics.put(tableDataSource.getEntityClass(), new SingleTableAtomicLogic(config, tableDesc, cache, selectExecutors, nonSelectExecutors));
+                ITaskExecutor<MergingFutureTask<?>>[] tableSelects = tableSelectExecutors != null ? tableSelectExecutors.get(tableDataSource.getEntityClass()) : selectExecutors;
+                tableAtomicLogics.put(tableDataSource.getEntityClass(), new SingleTableAtomicLogic(config, tableDesc, cache, tableSelects, nonSelectExecutors));
+                tableDesc.journal = journal;
+                tableDescs.put(tableDataSource.getEntityClass().getName(), tableDesc);
+            }
+            // 先将上次运行未完成的增删改重新写入数据源，再开始接受新的操作
+            if(journal != null){
+                journal.open(tableDescs);
+            }
+            // 恢复上次停止时保存的缓存快照
+            if(snapshot != null){
+                snapshot.load(new ArrayList<>(tableDescs.values()));
             }
-            countDownLatch = new CountDownLatch(nonSelectExecutors.length);
             startConsumerThread();
         }
     }
 
     /** 启动sql异步任务执行线程 */
     private void startConsumerThread(){
-        // 查询任务消费线程
-        for(int i = 0; i < selectExecutors.length; i++){
-            selectExecutors[i] = new SimpleTaskExecutor<>(PRE_SELECT_THREAD_NAME + i, true, countDownLatch);
+        // 查询任务消费线程; 使用虚拟线程时按需创建，不需要启动
+        if(selectWorkers != null){
+            selectWorkers.start();
+        }else if(tableSelectExecutors == null){
+            for(ITaskExecutor<MergingFutureTask<?>> executor : selectExecutors){
+                ((SimpleTaskExecutor<MergingFutureTask<?>>)executor).start();
+            }
         }
         // 增删改任务消费线程
-        for(int i = 0; i < nonSelectExecutors.length; i++){
-            nonSelectExecutors[i] = new SimpleTaskExecutor<>(PRE_NON_SELECT_THREAD_NAME + i, true, countDownLatch);
+        if(nonSelectWorkers != null){
+            nonSelectWorkers.start();
+        }else{
+            for(ITaskExecutor<MergingFutureTask<?>> executor : nonSelectExecutors){
+                ((SimpleTaskExecutor<MergingFutureTask<?>>)executor).start();
+            }
         }
         log.info("DB异步查询线程已启动");
     }
@@ -112,13 +181,25 @@ public class LocalCacheFacade {
             // 等待任务队列中的任务执行结束
             log.info(PRE_NON_SELECT_THREAD_NAME + "执行队列即将停止...");
             SingleTableAtomicLogic atomicLogic = tableAtomicLogics.values().iterator().next();
-            for(int i = 0; i < nonSelectExecutors.length; i++){
-                MergingFutureTask<?> endFlagTask = MergingTaskFactory.createEmptyTask(nonSelectExecutors[i], atomicLogic.tableDesc, new TaskContext());
-                nonSelectExecutors[i].stop(endFlagTask);
+            if(nonSelectWorkers != null){
+                nonSelectWorkers.stop();
+            }else{
+                for(int i = 0; i < nonSelectExecutors.length; i++){
+                    MergingFutureTask<?> endFlagTask = MergingTaskFactory.createEmptyTask(nonSelectExecutors[i], atomicLogic.tableDesc, new TaskContext());
+                    ((SimpleTaskExecutor<MergingFutureTask<?>>)nonSelectExecutors[i]).stop(endFlagTask);
+                }
             }
-            for(int i = 0; i < selectExecutors.length; i++){
-                MergingFutureTask<?> endFlagTask = MergingTaskFactory.createEmptyTask(selectExecutors[i], atomicLogic.tableDesc, new TaskContext());
-                selectExecutors[i].stop(endFlagTask);
+            if(selectWorkers != null){
+                selectWorkers.stop();
+            }else if(tableSelectExecutors != null){
+                for(ITaskExecutor<MergingFutureTask<?>> executor : selectExecutors){
+                    ((VirtualThreadTaskExecutor<MergingFutureTask<?>>)executor).stop();
+                }
+            }else{
+                for(int i = 0; i < selectExecutors.length; i++){
+                    MergingFutureTask<?> endFlagTask = MergingTaskFactory.createEmptyTask(selectExecutors[i], atomicLogic.tableDesc, new TaskContext());
+                    ((SimpleTaskExecutor<MergingFutureTask<?>>)selectExecutors[i]).stop(endFlagTask);
+                }
             }
             try{
                 countDownLatch.await();
@@ -126,9 +207,47 @@ public class LocalCacheFacade {
                 log.error(PRE_NON_SELECT_THREAD_NAME + "执行队列停止发生异常!", e);
             }
             log.info(PRE_NON_SELECT_THREAD_NAME + "执行队列已停止");
+            if(journal != null){
+                journal.close();
+            }
+            // 所有写操作已执行完毕，保存缓存快照
+            if(snapshot != null){
+                List<TableDescribe<Cacheable>> tables = new ArrayList<>();
+                for(SingleTableAtomicLogic tableAtomicLogic : tableAtomicLogics.values()){
+                    tables.add(tableAtomicLogic.tableDesc);
+                }
+                snapshot.save(tables);
+            }
         }
     }
 
+    /**
+     * 缓存预热, 通过各表的{@link TableDataSource#preload}批量加载数据，直接写入缓存; 各表并行加载，等待全部加载完毕后返回
+     * 不经过锁分段，需要在启动后开始处理请求之前调用
+     * @param entityClasses 要预热的表, 为空时预热所有表
+     * @return 加载的实体对象总数
+     */
+    public long warmUp(Class<?>... entityClasses){
+        if(tableAtomicLogics == null){
+            return 0;
+        }
+        List<TableDescribe<Cacheable>> tables = new ArrayList<>();
+        if(entityClasses == null || entityClasses.length == 0){
+            for(SingleTableAtomicLogic atomicLogic : tableAtomicLogics.values()){
+                tables.add(atomicLogic.tableDesc);
+            }
+        }else{
+            for(Class<?> entityClass : entityClasses){
+                SingleTableAtomicLogic atomicLogic = tableAtomicLogics.get(entityClass);
+                if(atomicLogic == null){
+                    throw new RuntimeException("非法的实体类class！检查参数：" + entityClass.getSimpleName());
+                }
+                tables.add(atomicLogic.tableDesc);
+            }
+        }
+        return cacheWarmUp.warmUp(tables);
+    }
+
     /**
      * 获取实体对象入口，1.如果缓存中有则从缓存中获取；2.缓存中没有就从数据库中查找
      * @param <T>
@@ -146,11 +265,29 @@ public class LocalCacheFacade {
         return (T)result;
     }
 
+    /**
+     * 根据多个主键批量获取实体对象，1.如果缓存中有则从缓存中获取；2.缓存中没有的主键合并为一次批量查询，从数据库中查找
+     * @param entityClass
+     * @param pks 主键集合
+     * @return 以主键为key实体对象为value的map, 按传入主键的顺序排列，不存在的主键不会包含在结果中
+     */
+    public <T extends Cacheable> Map<Object, T> getByPKs(Class<T> entityClass, Collection<?> pks){
+        SingleTableAtomicLogic atomicLogic = tableAtomicLogics.get(entityClass);
+        if( atomicLogic == null ){
+            log.error("非法的实体类class！检查参数table:" + entityClass.getSimpleName() + ", pks:" + pks);
+            return null;
+        }
+        if(pks == null || pks.isEmpty()){
+            return new LinkedHashMap<>();
+        }
+        return (Map<Object, T>)atomicLogic.getByPKs(pks);
+    }
+
     /**
      * 获取实体对象集合入口，1.如果缓存中有则从缓存中获取；2.缓存中没有就从数据库中查找；3.数据库中也没有就插入新的数据
      * @param entityClass
      * @param <T>
-     * @return 以主键为key实体对象为value的map
+     * @return 以主键为key实体对象为value的map; 表开启了条件查询结果物化时，命中缓存返回的map不可修改
      */
     public <T extends Cacheable> Map<Object, T> getByCondition(Class<T> entityClass, Object... cons){
         SingleTableAtomicLogic atomicLogic = tableAtomicLogics.get(entityClass);
@@ -161,6 +298,57 @@ public class LocalCacheFacade {
         return (Map<Object, T>)atomicLogic.getByCondition(new CacheKey(false, cons));
     }
 
+    /**
+     * 异步获取实体对象，与{@link #getByPK}相同，但缓存未命中时不阻塞调用线程
+     * 注意: 未命中缓存时，返回的CompletableFuture在查询执行器线程中完成，后续同步操作(thenApply等)也会在此线程中执行，
+     * 不要在其中执行阻塞操作，需要时使用thenApplyAsync等方法指定其他线程池
+     * @param entityClass
+     * @param pk 主键
+     * @return 完成时为实体对象, 不存在时为null
+     */
+    public <T extends Cacheable> CompletableFuture<T> getByPKAsync(Class<T> entityClass, Object pk){
+        SingleTableAtomicLogic atomicLogic = tableAtomicLogics.get(entityClass);
+        if( atomicLogic == null ){
+            log.error("非法的实体类class！检查参数table:" + entityClass.getSimpleName() + ", pk:" + pk);
+            return CompletableFuture.completedFuture(null);
+        }
+        return atomicLogic.getByPKAsync(pk).thenApply(result -> (T)result);
+    }
+
+    /**
+     * 异步根据多个主键批量获取实体对象，与{@link #getByPKs}相同，但缓存未命中时不阻塞调用线程
+     * 后续操作的执行线程同{@link #getByPKAsync}
+     * @param entityClass
+     * @param pks 主键集合
+     * @return 完成时为以主键为key实体对象为value的map, 按传入主键的顺序排列，不存在的主键不会包含在结果中
+     */
+    public <T extends Cacheable> CompletableFuture<Map<Object, T>> getByPKsAsync(Class<T> entityClass, Collection<?> pks){
+        SingleTableAtomicLogic atomicLogic = tableAtomicLogics.get(entityClass);
+        if( atomicLogic == null ){
+            log.error("非法的实体类class！检查参数table:" + entityClass.getSimpleName() + ", pks:" + pks);
+            return CompletableFuture.completedFuture(null);
+        }
+        if(pks == null || pks.isEmpty()){
+            return CompletableFuture.completedFuture(new LinkedHashMap<>());
+        }
+        return atomicLogic.getByPKsAsync(pks).thenApply(result -> (Map<Object, T>)(Map<Object, ?>)result);
+    }
+
+    /**
+     * 异步获取实体对象集合，与{@link #getByCondition}相同，但缓存未命中时不阻塞调用线程
+     * 后续操作的执行线程同{@link #getByPKAsync}
+     * @param entityClass
+     * @return 完成时为以主键为key实体对象为value的map
+     */
+    public <T extends Cacheable> CompletableFuture<Map<Object, T>> getByConditionAsync(Class<T> entityClass, Object... cons){
+        SingleTableAtomicLogic atomicLogic = tableAtomicLogics.get(entityClass);
+        if( atomicLogic == null ){
+            log.error("非法的实体类class！检查参数table:" + entityClass.getSimpleName() + ", cons:" + Arrays.toString(cons));
+            return CompletableFuture.completedFuture(null);
+        }
+        return atomicLogic.getByConditionAsync(new CacheKey(false, cons)).thenApply(result -> (Map<Object, T>)(Map<Object, ?>)result);
+    }
+
     /**
      * 插入新的对象，按主键插入，异步操作，仅先更新缓存和标记
      *
@@ -0,0 +1,66 @@
+package yushanmufeng.localcache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 单表的主键负缓存: 记录数据源中不存在的主键
+ * 有效期内对这些主键的查询直接返回null，不再访问数据源，避免大量查询不存在的主键时每次都穿透到数据源
+ * 所有记录的有效期相同，按加入顺序排列即按过期时间排列: 加入时先移除头部已过期的记录，达到数量上限后淘汰最早加入的记录
+ * 只在持有主键所在锁分段时读写; 不同锁分段会并发访问，因此方法需要同步
+ */
+public class NegativeCache {
+
+    /** 记录的有效期毫秒数 */
+    private final long expireMs;
+    /** 最多记录的主键数量 */
+    private final int maxKeys;
+    /** [主键, 过期时间] 按加入顺序排列 */
+    private final LinkedHashMap<CacheKey, Long> absentKeys = new LinkedHashMap<>();
+
+    public NegativeCache(long expireMs, int maxKeys){
+        this.expireMs = expireMs;
+        this.maxKeys = Math.max(1, maxKeys);
+    }
+
+    /**
+     * 主键是否已确认在数据源中不存在
+     * @return 未记录或记录已过期时返回false
+     */
+    public synchronized boolean contains(CacheKey key, long currentTime){
+        Long expireTime = absentKeys.get(key);
+        if(expireTime == null){
+            return false;
+        }else if(expireTime <= currentTime){
+            absentKeys.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /** 记录一个数据源中不存在的主键, 已记录时重新计算有效期 */
+    public synchronized void add(CacheKey key, long currentTime){
+        absentKeys.remove(key);
+        Iterator<Map.Entry<CacheKey, Long>> iterator = absentKeys.entrySet().iterator();
+        while(iterator.hasNext()){
+            Map.Entry<CacheKey, Long> eldest = iterator.next();
+            if(eldest.getValue() > currentTime && absentKeys.size() < maxKeys){
+                break;
+            }
+            iterator.remove();
+        }
+        absentKeys.put(key, currentTime + expireMs);
+    }
+
+    /** 主键对应的数据已存在(插入或加载到缓存)，移除记录 */
+    public synchronized void remove(CacheKey key){
+        absentKeys.remove(key);
+    }
+
+    /** 当前记录的主键数量, 包括还未移除的过期记录 */
+    public synchronized int size(){
+        return absentKeys.size();
+    }
+
+}
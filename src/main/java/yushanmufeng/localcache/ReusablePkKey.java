@@ -0,0 +1,35 @@
+package yushanmufeng.localcache;
+
+/**
+ * 线程绑定的可重用主键键值，用于主键查询命中缓存时不创建新的CacheKey对象
+ * 只能作为查询缓存时的临时键值使用，禁止保存到缓存或任务中; 用完后要调用{@link #release()}释放对主键的引用
+ */
+final class ReusablePkKey extends CacheKey {
+
+    private static final ThreadLocal<ReusablePkKey> reusableKeyLocal = ThreadLocal.withInitial(ReusablePkKey::new);
+
+    private int reusableHash;
+
+    private ReusablePkKey(){
+        super(true, new Object[1], 0);
+    }
+
+    /** 获取当前线程的可重用键值, 并设置为指定的主键 */
+    static ReusablePkKey of(Object pk){
+        ReusablePkKey key = reusableKeyLocal.get();
+        key.keys[0] = pk;
+        key.reusableHash = pkHash(pk);
+        return key;
+    }
+
+    /** 释放对主键的引用 */
+    void release(){
+        keys[0] = null;
+    }
+
+    @Override
+    public int hashCode() {
+        return reusableHash;
+    }
+
+}
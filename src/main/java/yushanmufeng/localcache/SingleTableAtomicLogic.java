@@ -2,7 +2,8 @@ package yushanmufeng.localcache;
 
 import yushanmufeng.localcache.atomic.*;
 import yushanmufeng.localcache.util.CLHLock;
-import yushanmufeng.localcache.util.SimpleTaskExecutor;
+import yushanmufeng.localcache.util.HashUtil;
+import yushanmufeng.localcache.util.ITaskExecutor;
 import yushanmufeng.localcache.config.LocalCacheConfig;
 import yushanmufeng.localcache.task.MergingFutureTask;
 import yushanmufeng.localcache.task.MergingTaskFactory;
@@ -11,6 +12,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -27,22 +30,32 @@ public class SingleTableAtomicLogic {
     private final EntityCacheManager cache;
 
     /** 所有要从DB中查询数据的任务队列(主键查询和条件查询)、增删改任务队列 */
-    private final SimpleTaskExecutor<MergingFutureTask<?>>[] selectExecutors, nonSelectExecutors;
+    private final ITaskExecutor<MergingFutureTask<?>>[] selectExecutors, nonSelectExecutors;
 
-    /** 自旋锁，因为主线程全部都是内存操作，查询操作会转换未异步回调任务执行，所以采用自旋锁用来保证较高的性能 */
-    private final CLHLock lock = new CLHLock();
+    /**
+     * 分段自旋锁，因为主线程全部都是内存操作，查询操作会转换未异步回调任务执行，所以采用自旋锁用来保证较高的性能
+     * 按CacheKey的hash划分锁段，针对单个key的操作只锁定其所在的段，不同段的操作可以并行执行; 涉及整表的操作会按下标顺序锁定所有段
+     */
+    private final CLHLock[] locks;
+    /** 锁定全部分段时的掩码 */
+    private final long allStripesMask;
+    /** 最大锁分段数量, 分段使用long类型的掩码记录 */
+    private static final int MAX_LOCK_STRIPES = 64;
+
+    /**
+     * 主键对应数据的当前正在执行的异步逻辑 pk-ConcurrentStatus;仅在exec0方法中检测和操作此状态
+     * 每个key的记录只会在持有其所在段的锁时被读写，不同段之间并发访问，所以使用ConcurrentHashMap; 无锁读时也会不加锁的检测主键是否有进行中的任务
+     */
+    private final Map<CacheKey, WorkingLogic> workingLogics = new ConcurrentHashMap<>(256);
+    /** 影响条件查询的插入和删除记录, 条件查询开始时只需要复制对应条件下的记录，不需要遍历所有主键的进行中逻辑 */
+    private final ConditionChanges conditionChanges = new ConditionChanges();
 
-    /** 主键对应数据的当前正在执行的异步逻辑 pk-ConcurrentStatus;仅在exec0方法中检测和操作此状态 */
-    private final Map<CacheKey, WorkingLogic> workingLogics = new HashMap<>(256);
+    /** 是否开启主键查询的无锁读 */
+    private final boolean optimisticRead;
 
     /** 所有原子操作集合 */
     private final Map<Integer, IAtomicLogic> logicsMap = new HashMap<>();
 
-    /** 上次计算汇总单表的内存占用的时间，单位毫秒 */
-    private final AtomicLong lastSumMemTime = new AtomicLong(System.currentTimeMillis());
-    /** 计算汇总单表的内存占用操作的: 最小时间间隔, 最大时间间隔 */
-    private final long MIN_SUM_MEM_MS, MAX_SUM_MEM_MS;
-
     /** 上次检测缓存过期时间，单位毫秒 */
     private final AtomicLong lastCheckExpireTime = new AtomicLong(System.currentTimeMillis());
     /** 检测缓存过期的时间间隔: 最小时间间隔，最大时间间隔 */
@@ -51,110 +64,356 @@ public class SingleTableAtomicLogic {
     /** 30秒的毫秒数常量 */
     private static final long SECOND_30 = 30 * 1000;
 
-    public SingleTableAtomicLogic(LocalCacheConfig config, TableDescribe<Cacheable> tableDesc, EntityCacheManager cache, SimpleTaskExecutor<MergingFutureTask<?>>[] selectExecutors, SimpleTaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors){
+    public SingleTableAtomicLogic(LocalCacheConfig config, TableDescribe<Cacheable> tableDesc, EntityCacheManager cache, ITaskExecutor<MergingFutureTask<?>>[] selectExecutors, ITaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors){
         this.tableDesc = tableDesc;
         this.cache = cache;
         this.selectExecutors = selectExecutors;
         this.nonSelectExecutors = nonSelectExecutors;
-        MIN_SUM_MEM_MS = config.sumOneTableMemMs;
-        MAX_SUM_MEM_MS = MIN_SUM_MEM_MS + (MIN_SUM_MEM_MS < SECOND_30 ? MIN_SUM_MEM_MS : SECOND_30);
         MIN_CHECK_EXPIRE_MS = config.checkExpireMs;
         MAX_CHECK_EXPIRE_MS = MIN_CHECK_EXPIRE_MS + (MIN_CHECK_EXPIRE_MS < SECOND_30 ? MIN_CHECK_EXPIRE_MS : SECOND_30);
+        locks = new CLHLock[stripesSizeFor(tableDesc.tableStrategy.lockStripes(config))];
+        for(int i = 0; i < locks.length; i++){
+            locks[i] = new CLHLock();
+        }
+        allStripesMask = locks.length == MAX_LOCK_STRIPES ? -1L : (1L << locks.length) - 1;
+        optimisticRead = tableDesc.tableStrategy.optimisticRead(config);
         initAtomicLogic();
     }
 
+    /** 锁分段数量向上取整为2的幂, 用于按hash取模 */
+    private static int stripesSizeFor(int stripes){
+        int n = 1;
+        while(n < stripes && n < MAX_LOCK_STRIPES){
+            n <<= 1;
+        }
+        return n;
+    }
+
     /** 初始化所有类型的原子操作逻辑 */
     private void initAtomicLogic(){
         // 根据主键查询
         logicsMap.put(IAtomicLogic.SELECT_BY_PK, new AtomicSelectByPk(tableDesc, cache, selectExecutors, nonSelectExecutors, workingLogics));
         // 根据主键查询-完成
-        logicsMap.put(IAtomicLogic.SELECT_BY_PK_FINISH, new AtomicSelectByPkFinish(tableDesc, cache, workingLogics));
+        AtomicSelectByPkFinish selectByPkFinish = new AtomicSelectByPkFinish(tableDesc, cache, workingLogics);
+        logicsMap.put(IAtomicLogic.SELECT_BY_PK_FINISH, selectByPkFinish);
+        // 根据多个主键查询
+        logicsMap.put(IAtomicLogic.SELECT_BY_PKS, new AtomicSelectByPks(tableDesc, cache, selectExecutors, workingLogics));
+        // 根据多个主键查询-完成
+        logicsMap.put(IAtomicLogic.SELECT_BY_PKS_FINISH, new AtomicSelectByPksFinish(selectByPkFinish));
         // 根据主键更新
         logicsMap.put(IAtomicLogic.UPDATE_BY_PK, new AtomicUpdateByPk(this, tableDesc, cache, nonSelectExecutors, workingLogics));
         // 根据主键更新-完成
         logicsMap.put(IAtomicLogic.UPDATE_BY_PK_FINISH, new AtomicUpdateByPkFinish( workingLogics));
         // 根据主键插入
-        logicsMap.put(IAtomicLogic.INSERT_BY_PK, new AtomicInsertByPk(this, tableDesc, cache, nonSelectExecutors, workingLogics));
+        logicsMap.put(IAtomicLogic.INSERT_BY_PK, new AtomicInsertByPk(this, tableDesc, cache, nonSelectExecutors, workingLogics, conditionChanges));
         // 根据主键插入-完成
-        logicsMap.put(IAtomicLogic.INSERT_BY_PK_FINISH, new AtomicInsertByPkFinish(workingLogics));
+        logicsMap.put(IAtomicLogic.INSERT_BY_PK_FINISH, new AtomicInsertByPkFinish(workingLogics, conditionChanges));
         // 根据主键删除
-        logicsMap.put(IAtomicLogic.DELETE_BY_PK, new AtomicDeleteByPk(this, tableDesc, cache, nonSelectExecutors, workingLogics));
+        logicsMap.put(IAtomicLogic.DELETE_BY_PK, new AtomicDeleteByPk(this, tableDesc, cache, nonSelectExecutors, workingLogics, conditionChanges));
         // 根据主键删除-完成
-        logicsMap.put(IAtomicLogic.DELETE_BY_PK_FINISH, new AtomicDeleteByPkFinish(workingLogics));
+        logicsMap.put(IAtomicLogic.DELETE_BY_PK_FINISH, new AtomicDeleteByPkFinish(workingLogics, conditionChanges));
         // 根据多个主键查询缓存
         logicsMap.put(IAtomicLogic.SELECT_BY_PKS_FROM_CACHE, new AtomicSelectByPksFromCache(tableDesc, cache));
         // 根据条件查询
-        logicsMap.put(IAtomicLogic.SELECT_BY_CONDITION, new AtomicSelectByCondition(tableDesc, cache, selectExecutors, nonSelectExecutors, workingLogics));
+        logicsMap.put(IAtomicLogic.SELECT_BY_CONDITION, new AtomicSelectByCondition(tableDesc, cache, selectExecutors, nonSelectExecutors, workingLogics, conditionChanges));
         // 根据条件查询-完成
-        logicsMap.put(IAtomicLogic.SELECT_BY_CONDITION_FINISH, new AtomicSelectByConditionFinish(tableDesc, cache, workingLogics));
+        logicsMap.put(IAtomicLogic.SELECT_BY_CONDITION_FINISH, new AtomicSelectByConditionFinish(tableDesc, cache, workingLogics, conditionChanges));
         // 卸载关联缓存
         logicsMap.put(IAtomicLogic.UNLOAD_REFER_CACHE, new AtomicUnloadReferCache(tableDesc, cache));
-        // 计算汇总缓存使用的内存大小
-        logicsMap.put(IAtomicLogic.SUM_MEM_BYTES, new AtomicSumMemBytes(tableDesc, cache));
         // 检测缓存过期
-        logicsMap.put(IAtomicLogic.CHECK_CACHE_EXPIRE, new AtomicSumMemBytes(tableDesc, cache));
+        logicsMap.put(IAtomicLogic.CHECK_CACHE_EXPIRE, new AtomicCheckCacheExpire(tableDesc, cache));
+    }
+
+    /**
+     * 无锁读: 该主键没有进行中的任务时，缓存中的数据一定是最新的，可以直接返回; 有进行中的任务或未命中缓存时需要再走加锁的查询逻辑
+     * 使用可重用的键值查询，命中缓存时不创建任何对象
+     *
+     * @return 未开启无锁读或无法直接返回时返回null
+     */
+    private Cacheable getByPKWithoutLock(Object pk){
+        if(!optimisticRead){
+            return null;
+        }
+        ReusablePkKey reusableKey = ReusablePkKey.of(pk);
+        try{
+            if(!workingLogics.containsKey(reusableKey)){
+                return cache.getByPKWithoutLock(tableDesc, reusableKey);
+            }
+            return null;
+        }finally {
+            reusableKey.release();
+        }
     }
 
     /** 根据主键查询入口 */
     public Cacheable getByPK(Object pk){
+        Cacheable entityWithoutLock = getByPKWithoutLock(pk);
+        if(entityWithoutLock != null){
+            checkScheduleTasks(false, false);
+            return entityWithoutLock;
+        }
+        CacheKey cacheKey = new CacheKey(true, pk);
+        exec(IAtomicLogic.SELECT_BY_PK, cacheKey, null, null, null);
+        Cacheable entity = IAtomicLogic.entityLocal.get();
+        MergingFutureTask<?> futureTask = IAtomicLogic.futureTaskLocal.get();
+        IAtomicLogic.clearLocal();
+        if(entity == null && futureTask != null){
+            // 未命中缓存，等待异步执行查询db任务返回结果
+            Cacheable entityFromDb = null;
+            Throwable selectError = null;
+            try {
+                entityFromDb = (Cacheable) futureTask.get();
+            } catch (Exception e) {
+                selectError = e;
+            }
+            entity = finishGetByPK(cacheKey, entityFromDb, selectError);
+        }else if(futureTask != null){
+            refreshAhead(cacheKey, (MergingFutureTask<Cacheable>) futureTask);
+        }
+        return entity;
+    }
+
+    /**
+     * 根据主键异步查询入口
+     * 未命中缓存时不会阻塞调用线程，查询db任务完成后在执行器线程中处理查询结果并完成返回的CompletableFuture
+     */
+    public CompletableFuture<Cacheable> getByPKAsync(Object pk){
+        Cacheable entityWithoutLock = getByPKWithoutLock(pk);
+        if(entityWithoutLock != null){
+            checkScheduleTasks(false, false);
+            return CompletableFuture.completedFuture(entityWithoutLock);
+        }
         CacheKey cacheKey = new CacheKey(true, pk);
         exec(IAtomicLogic.SELECT_BY_PK, cacheKey, null, null, null);
         Cacheable entity = IAtomicLogic.entityLocal.get();
-        if(entity == null){
-            MergingFutureTask<?> futureTask = IAtomicLogic.futureTaskLocal.get();
-            if(futureTask != null) {
+        MergingFutureTask<Cacheable> futureTask = (MergingFutureTask<Cacheable>)IAtomicLogic.futureTaskLocal.get();
+        IAtomicLogic.clearLocal();
+        if(entity != null || futureTask == null){
+            if(futureTask != null){
+                refreshAhead(cacheKey, futureTask);
+            }
+            return CompletableFuture.completedFuture(entity);
+        }
+        return futureTask.toCompletableFuture().handle((entityFromDb, selectError) -> finishGetByPK(cacheKey, entityFromDb, selectError));
+    }
+
+    /**
+     * 命中缓存并提交了提前刷新任务时，刷新完成后在执行器线程中处理查询结果，不阻塞调用线程
+     */
+    private void refreshAhead(CacheKey cacheKey, MergingFutureTask<Cacheable> refreshTask){
+        refreshTask.toCompletableFuture().handle((entityFromDb, selectError) -> finishGetByPK(cacheKey, entityFromDb, selectError));
+    }
+
+    /**
+     * 处理主键查询db的结果
+     * 查询失败时也要处理，用于清理查询状态并通知合并到此查询的其他查询，然后再抛出异常
+     */
+    private Cacheable finishGetByPK(CacheKey cacheKey, Cacheable entityFromDb, Throwable selectError){
+        exec(IAtomicLogic.SELECT_BY_PK_FINISH, cacheKey, null, selectError == null ? entityFromDb : AtomicSelectByPkFinish.SELECT_FAILED, null);
+        Cacheable entity = IAtomicLogic.entityLocal.get();
+        IAtomicLogic.clearLocal();
+        if(selectError != null){
+            log.error("Select " + tableDesc.tableStrategy.getEntityClass().getSimpleName() + " By Pk Is Error,pk: " + cacheKey.keys[0], selectError);
+            throw new RuntimeException(selectError);
+        }
+        return entity;
+    }
+
+    /**
+     * 根据多个主键查询入口
+     * 所有主键只加锁处理一次，未命中缓存的主键合并为一次批量查询，已经在查询中的主键会合并到进行中的查询
+     *
+     * @return 按传入顺序排列的[主键, 实体对象], 不存在的主键不会包含在结果中
+     */
+    public Map<Object, Cacheable> getByPKs(Collection<?> pks){
+        Map<Object, Cacheable> entitiesMap = new LinkedHashMap<>();
+        Map<CacheKey, MergingFutureTask<?>> futureTasks = startGetByPKs(pks, entitiesMap);
+        return finishGetByPKs(pks, entitiesMap, futureTasks);
+    }
+
+    /**
+     * 根据多个主键异步查询入口
+     * 未命中缓存时不会阻塞调用线程，所有查询db任务完成后在执行器线程中处理查询结果并完成返回的CompletableFuture
+     */
+    public CompletableFuture<Map<Object, Cacheable>> getByPKsAsync(Collection<?> pks){
+        Map<Object, Cacheable> entitiesMap = new LinkedHashMap<>();
+        Map<CacheKey, MergingFutureTask<?>> futureTasks = startGetByPKs(pks, entitiesMap);
+        if(futureTasks.isEmpty()){
+            return CompletableFuture.completedFuture(finishGetByPKs(pks, entitiesMap, futureTasks));
+        }
+        CompletableFuture<?>[] futures = new CompletableFuture[futureTasks.size()];
+        int i = 0;
+        for(MergingFutureTask<?> futureTask : futureTasks.values()){
+            futures[i++] = futureTask.toCompletableFuture();
+        }
+        return CompletableFuture.allOf(futures).handle((v, e) -> finishGetByPKs(pks, entitiesMap, futureTasks));
+    }
+
+    /**
+     * 开始根据多个主键查询: 先无锁读取缓存，剩余的主键再加锁处理一次
+     *
+     * @param entitiesMap 按传入顺序保存已经获取到的实体对象
+     * @return 需要等待查询结果的主键和任务
+     */
+    private Map<CacheKey, MergingFutureTask<?>> startGetByPKs(Collection<?> pks, Map<Object, Cacheable> entitiesMap){
+        List<CacheKey> keyList = new ArrayList<>();
+        for(Object pk : pks){
+            if(pk == null || entitiesMap.containsKey(pk)){
+                continue;
+            }
+            Cacheable entity = getByPKWithoutLock(pk);
+            entitiesMap.put(pk, entity);    // 先按传入顺序占位
+            if(entity == null){
+                keyList.add(new CacheKey(true, pk));
+            }
+        }
+        if(keyList.isEmpty()){
+            checkScheduleTasks(false, false);
+            return Collections.emptyMap();
+        }
+        exec(IAtomicLogic.SELECT_BY_PKS, null, keyList, null, null);
+        entitiesMap.putAll(IAtomicLogic.entitiesLocal.get());
+        Map<CacheKey, MergingFutureTask<?>> futureTasks = IAtomicLogic.futureTasksLocal.get();
+        IAtomicLogic.clearLocal();
+        return futureTasks;
+    }
+
+    /**
+     * 等待所有查询db任务完成后，统一加锁处理一次查询结果; 查询失败的主键也要处理，用于清理查询状态
+     * 合并的查询直接等待实际执行的查询任务，不等待其完成回调
+     */
+    private Map<Object, Cacheable> finishGetByPKs(Collection<?> pks, Map<Object, Cacheable> entitiesMap, Map<CacheKey, MergingFutureTask<?>> futureTasks){
+        if(futureTasks.size() > 0){
+            List<CacheKey> selectKeys = new ArrayList<>(futureTasks.size());
+            List<Cacheable> entitiesFromDb = new ArrayList<>(futureTasks.size());
+            Exception selectError = null;
+            for(Map.Entry<CacheKey, MergingFutureTask<?>> entry : futureTasks.entrySet()){
+                Cacheable entityFromDb = null;
                 try {
-                    exec(IAtomicLogic.SELECT_BY_PK_FINISH, cacheKey, null, (Cacheable) futureTask.get(), null);
+                    entityFromDb = (Cacheable) entry.getValue().toCompletableFuture().get();
                 } catch (Exception e) {
-                    log.error("Select " + tableDesc.tableStrategy.getEntityClass().getSimpleName() + " By Pk Is Error,pk: " + pk, e);
-                    throw new RuntimeException(e);
+                    selectError = selectError == null ? e : selectError;
+                    entityFromDb = AtomicSelectByPkFinish.SELECT_FAILED;
                 }
-                entity = IAtomicLogic.entityLocal.get();
+                selectKeys.add(entry.getKey());
+                entitiesFromDb.add(entityFromDb);
+            }
+            exec(IAtomicLogic.SELECT_BY_PKS_FINISH, null, selectKeys, null, entitiesFromDb);
+            entitiesMap.putAll(IAtomicLogic.entitiesLocal.get());
+            IAtomicLogic.clearLocal();
+            if(selectError != null){
+                log.error("Select " + tableDesc.tableStrategy.getEntityClass().getSimpleName() + " By Pks Is Error,pks: " + pks, selectError);
+                throw new RuntimeException(selectError);
             }
         }
-        IAtomicLogic.clearLocal();
-        return entity;
+        entitiesMap.values().removeIf(Objects::isNull);
+        return entitiesMap;
     }
 
-    /** 根据条件查寻入口 */
+    /**
+     * 根据条件查寻入口
+     * 开启条件查询结果物化且所有实体对象都已缓存时，直接返回不可修改的物化结果
+     */
     public Map<Object, Cacheable> getByCondition(CacheKey cacheKey){
         exec(IAtomicLogic.SELECT_BY_CONDITION, cacheKey, null, null, null);
         List<Object> pks = IAtomicLogic.pksLocal.get(); // 命中缓存
+        Map<Object, Cacheable> materializedEntities = IAtomicLogic.entitiesLocal.get();
+        MergingFutureTask<List<Cacheable>> futureTask = (MergingFutureTask<List<Cacheable>>)IAtomicLogic.futureTaskLocal.get();
+        IAtomicLogic.clearLocal();
+        if(materializedEntities != null){
+            return materializedEntities;
+        }
         if(pks == null){
             // 未命中缓存，等待异步执行查询db任务返回结果
-            MergingFutureTask<List<Cacheable>> futureTask = (MergingFutureTask<List<Cacheable>>)IAtomicLogic.futureTaskLocal.get();
+            List<Cacheable> entitiesFromDb = null;
+            Throwable selectError = null;
             try {
-                List<Cacheable> entitiesFromDb = futureTask.get();
-                exec(IAtomicLogic.SELECT_BY_CONDITION_FINISH, cacheKey, null, null, entitiesFromDb);
+                entitiesFromDb = futureTask.get();
             }catch (Exception e){
-                log.error( "Select "+ tableDesc.tableStrategy.getEntityClass().getSimpleName() +" By Condition Is Error,condition: " + cacheKey.toString(), e);
-                throw new RuntimeException(e);
+                selectError = e;
             }
-            pks = IAtomicLogic.pksLocal.get();
+            pks = finishGetByCondition(cacheKey, entitiesFromDb, selectError);
         }
         Map<Object, Cacheable> entitiesMap = new LinkedHashMap<>();
         if(pks != null && pks.size() > 0){
-            // 先统一从缓存尝试获取一次，缓存中没有的再去单独读取，来减少加锁次数
+            // 先统一从缓存尝试获取一次，缓存中没有的再合并为一次批量查询，来减少加锁和查询db的次数
             List<CacheKey> keyList = new ArrayList<>();
             for(Object pk : pks){
                 keyList.add(new CacheKey(true, pk));
             }
             exec(IAtomicLogic.SELECT_BY_PKS_FROM_CACHE, null, keyList, null, null);
             Map<Object, Cacheable> entitiesFromCache = IAtomicLogic.entitiesLocal.get();
+            IAtomicLogic.clearLocal();
+            List<Object> missingPks = null;
             for(Object pk : pks){
                 Cacheable entity = entitiesFromCache.get(pk);
-                entitiesMap.put(pk, entity != null ? entity : getByPK(pk));
+                entitiesMap.put(pk, entity);
+                if(entity == null){
+                    if(missingPks == null){
+                        missingPks = new ArrayList<>();
+                    }
+                    missingPks.add(pk);
+                }
+            }
+            if(missingPks != null){
+                entitiesMap.putAll(getByPKs(missingPks));
             }
         }
-        IAtomicLogic.clearLocal();
         return entitiesMap;
     }
 
+    /**
+     * 根据条件异步查询入口
+     * 未命中缓存时不会阻塞调用线程，条件查询的结果处理和实体对象的批量读取都在查询db任务完成后的执行器线程中进行
+     */
+    public CompletableFuture<Map<Object, Cacheable>> getByConditionAsync(CacheKey cacheKey){
+        exec(IAtomicLogic.SELECT_BY_CONDITION, cacheKey, null, null, null);
+        List<Object> pks = IAtomicLogic.pksLocal.get(); // 命中缓存
+        Map<Object, Cacheable> materializedEntities = IAtomicLogic.entitiesLocal.get();
+        MergingFutureTask<List<Cacheable>> futureTask = (MergingFutureTask<List<Cacheable>>)IAtomicLogic.futureTaskLocal.get();
+        IAtomicLogic.clearLocal();
+        if(materializedEntities != null){
+            return CompletableFuture.completedFuture(materializedEntities);
+        }
+        CompletableFuture<List<Object>> pksFuture = pks != null ? CompletableFuture.completedFuture(pks)
+                : futureTask.toCompletableFuture().handle((entitiesFromDb, selectError) -> finishGetByCondition(cacheKey, entitiesFromDb, selectError));
+        return pksFuture.thenCompose(conditionPks -> {
+            if(conditionPks == null || conditionPks.isEmpty()){
+                return CompletableFuture.completedFuture(new LinkedHashMap<>());
+            }
+            return getByPKsAsync(conditionPks).thenApply(entitiesFromPks -> {
+                Map<Object, Cacheable> entitiesMap = new LinkedHashMap<>();
+                for(Object pk : conditionPks){
+                    entitiesMap.put(pk, entitiesFromPks.get(pk));
+                }
+                return entitiesMap;
+            });
+        });
+    }
+
+    /**
+     * 处理条件查询db的结果
+     * 查询失败时也要处理，用于清理查询状态并通知合并到此查询的其他查询，然后再抛出异常
+     *
+     * @return 条件查询结果的主键列表
+     */
+    private List<Object> finishGetByCondition(CacheKey cacheKey, List<Cacheable> entitiesFromDb, Throwable selectError){
+        exec(IAtomicLogic.SELECT_BY_CONDITION_FINISH, cacheKey, null, null, selectError == null ? entitiesFromDb : AtomicSelectByConditionFinish.SELECT_FAILED);
+        List<Object> pks = IAtomicLogic.pksLocal.get();
+        IAtomicLogic.clearLocal();
+        if(selectError != null){
+            log.error( "Select "+ tableDesc.tableStrategy.getEntityClass().getSimpleName() +" By Condition Is Error,condition: " + cacheKey.toString(), selectError);
+            throw new RuntimeException(selectError);
+        }
+        return pks;
+    }
+
     /** 插入实体对象入口 */
     public Cacheable insertEntity(Cacheable entity){
         exec(IAtomicLogic.INSERT_BY_PK, new CacheKey(true, tableDesc.tableStrategy.getPrimaryKey(entity)), null, entity, null);
         Cacheable result = IAtomicLogic.entityLocal.get();
         IAtomicLogic.clearLocal();
+        syncJournal();
         return result;
     }
 
@@ -162,12 +421,21 @@ public class SingleTableAtomicLogic {
     public void updateEntity(Cacheable entity){
         exec(IAtomicLogic.UPDATE_BY_PK, new CacheKey(true, tableDesc.tableStrategy.getPrimaryKey(entity)), null, entity, null);
         IAtomicLogic.clearLocal();
+        syncJournal();
     }
 
     /** 删除实体对象入口 */
     public void deleteEntity(Cacheable entity){
         exec(IAtomicLogic.DELETE_BY_PK, new CacheKey(true, tableDesc.tableStrategy.getPrimaryKey(entity)), null, entity, null);
         IAtomicLogic.clearLocal();
+        syncJournal();
+    }
+
+    /** 开启写日志时，等待本次操作的记录刷盘后再返回; 在分段锁外执行，多个线程的记录合并为一次刷盘 */
+    private void syncJournal(){
+        if(tableDesc.journal != null){
+            tableDesc.journal.sync();
+        }
     }
 
     /** 卸载缓存 */
@@ -175,10 +443,69 @@ public class SingleTableAtomicLogic {
         exec(IAtomicLogic.UNLOAD_REFER_CACHE, null, null, entity, null);
     }
 
+    /**
+     * 计算操作需要锁定的分段
+     * 单个key的操作只锁定key所在的段; 多个key的操作锁定所有涉及的段; 涉及整表或跨段修改缓存的操作锁定全部分段，保证看到一致的数据
+     *
+     * @return 需要锁定的分段掩码
+     */
+    private long stripeMask(int execType, CacheKey key, List<CacheKey> keyList){
+        if(locks.length == 1){
+            return allStripesMask;
+        }
+        switch (execType){
+            case IAtomicLogic.SELECT_BY_CONDITION_FINISH:   // 会同时缓存多个主键的实体对象
+            case IAtomicLogic.UNLOAD_REFER_CACHE:
+            case IAtomicLogic.CHECK_CACHE_EXPIRE:
+                return allStripesMask;
+            default:
+        }
+        if(key != null){
+            return 1L << HashUtil.hash(key, locks.length);
+        }
+        long mask = 0L;
+        if(keyList != null){
+            for(CacheKey k : keyList){
+                mask |= 1L << HashUtil.hash(k, locks.length);
+                if(mask == allStripesMask) break;
+            }
+        }
+        return mask == 0L ? allStripesMask : mask;
+    }
+
+    /**
+     * 按下标顺序锁定分段，防止多段加锁时发生死锁
+     * @return 是否有锁竞争
+     */
+    private boolean lock(long mask){
+        boolean isBusy = false;
+        for(int i = 0; i < locks.length; i++){
+            if((mask & (1L << i)) != 0){
+                isBusy |= locks[i].lock();
+            }
+        }
+        return isBusy;
+    }
+
+    /**
+     * 按下标逆序解锁分段
+     * @return 是否有锁竞争
+     */
+    private boolean unlock(long mask){
+        boolean isBusy = false;
+        for(int i = locks.length - 1; i >= 0; i--){
+            if((mask & (1L << i)) != 0){
+                isBusy |= locks[i].unlock();
+            }
+        }
+        return isBusy;
+    }
+
     /**
      * 执行任务的核心方法
      * 该方法为同步方法，所以涉及db的耗时操作会放到异步队列中执行
      * 每张表的核心执行任务方法全部为内存操作，为了处理逻辑清晰和性能高效，采用自旋锁的方式保证该方法的核心逻辑代码执行环境不会并发
+     * 锁按CacheKey划分为多个分段，相同key的操作不会并发，不同分段的key的操作可以并行
      * 因为使用的自旋锁，此方法禁止重入，否则会死循环
      *
      * @param  execType 操作类型
@@ -191,7 +518,8 @@ public class SingleTableAtomicLogic {
     public void exec(int execType, CacheKey key, List<CacheKey> keyList, Cacheable entity, List<Cacheable> entities){
         // ======== 原子操作start ========
         boolean isBusyEnd;
-        boolean isBusyStart = lock.lock();
+        long mask = stripeMask(execType, key, keyList);
+        boolean isBusyStart = lock(mask);
         try{
             logicsMap.get(execType).handle(key, keyList, entity, entities);
         }catch(Exception e) {
@@ -200,35 +528,32 @@ public class SingleTableAtomicLogic {
             IAtomicLogic.clearLocal();
             throw new RuntimeException(message, e);
         }finally {
-            isBusyEnd = lock.unlock();
+            isBusyEnd = unlock(mask);
         }
         // ======== 原子操作end ========
+        checkScheduleTasks(isBusyStart, isBusyEnd);
+    }
+
+    /**
+     * 检测是否需要提交定时的检查缓存过期任务
+     *
+     * @param isBusyStart 开始执行操作时是否有锁竞争
+     * @param isBusyEnd 结束执行操作时是否有锁竞争
+     */
+    private void checkScheduleTasks(boolean isBusyStart, boolean isBusyEnd){
         long currentMs = System.currentTimeMillis();
-        long lastSumMs = lastSumMemTime.get();
-        boolean isTimeoutMin = currentMs - lastSumMs >= MIN_SUM_MEM_MS;
-        boolean isTimeoutMax = currentMs - lastSumMs >= MAX_SUM_MEM_MS;
         long lastCheckMs = lastCheckExpireTime.get();
         boolean isCheckMin = currentMs - lastCheckMs >= MIN_CHECK_EXPIRE_MS;
         boolean isCheckMax = currentMs - lastCheckMs >= MAX_CHECK_EXPIRE_MS;
-        // 计算缓存内存占用情况
-        if( (!isBusyStart && !isBusyEnd && isTimeoutMin) || isTimeoutMax ){   // 开始结束时都没有锁竞争，则可以暂时认为任务队列不是很繁忙
-            if(lastSumMemTime.compareAndSet(lastSumMs, currentMs)){ // 添加一个汇总计算,更新最新的汇总计算时间(并发时只有一个线程可以成功, 不会重发添加内存检测任务)
-                SingleTableAtomicLogic atomicLogic = this;
-                SimpleTaskExecutor executor = SimpleTaskExecutor.getLoadLowestExecutor(nonSelectExecutors);
-                MergingFutureTask<?> sumMemBytesTask = MergingTaskFactory.createSumMemBytesTask(atomicLogic, executor, tableDesc, new TaskContext());
-                executor.put(sumMemBytesTask);
-            }
-        }
         // 检查缓存过期
-        else if( (!isBusyStart && !isBusyEnd && isCheckMin) || isCheckMax ){
-            if(lastCheckExpireTime.compareAndSet(lastCheckMs, currentMs)){
+        if( (!isBusyStart && !isBusyEnd && isCheckMin) || isCheckMax ){   // 开始结束时都没有锁竞争，则可以暂时认为任务队列不是很繁忙
+            if(lastCheckExpireTime.compareAndSet(lastCheckMs, currentMs)){ // 并发时只有一个线程可以成功, 不会重复添加检查任务
                 SingleTableAtomicLogic atomicLogic = this;
-                SimpleTaskExecutor executor = SimpleTaskExecutor.getLoadLowestExecutor(nonSelectExecutors);
-                MergingFutureTask<?> checkExpireTask = MergingTaskFactory.createSumMemBytesTask(atomicLogic, executor, tableDesc, new TaskContext());
+                ITaskExecutor executor = ITaskExecutor.getLoadLowestExecutor(nonSelectExecutors);
+                MergingFutureTask<?> checkExpireTask = MergingTaskFactory.createCheckCacheExpireTask(atomicLogic, executor, tableDesc, new TaskContext());
                 executor.put(checkExpireTask);
             }
         }
-
     }
 
 }
@@ -1,19 +1,15 @@
 package yushanmufeng.localcache;
 
 import yushanmufeng.localcache.config.LocalCacheConfig;
-import org.apache.lucene.util.RamUsageEstimator;
 import yushanmufeng.localcache.datasource.TableDataSource;
+import yushanmufeng.localcache.metrics.ICacheMetrics;
+import yushanmufeng.localcache.store.ICacheStore;
+import yushanmufeng.localcache.util.EntitySizeEstimator;
+import yushanmufeng.localcache.util.WindowStats;
 
-import java.lang.reflect.Field;
-import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 单表所包含的信息与可配置的策略
@@ -26,17 +22,35 @@ public class TableDescribe<T extends Cacheable> {
     /** 实体类的classname */
     public final String entityName;
 
-    // 字符串类型属性个数。因为字符串类型的内存占用需要单独计算
-    private int stringFieldCount = -1;
-    private Field[] stringFields;
+    /** 实体对象的内存占用估算 */
+    private final EntitySizeEstimator sizeEstimator;
 
     /** 表过期时间权重系数,自动动态调整,范围：大于等于0 */
     public volatile int expireRate = 0;
     /** 表续期权重系数,自动动态调整,范围：大于0 */
     public final double renewalRate;
+    /** 是否合并同一主键还未执行的写操作 */
+    public final boolean coalesceWrites;
+    /** 是否物化条件查询结果 */
+    public final boolean materializeConditions;
+    /** 提前刷新系数, 为0时不提前刷新 */
+    public final double refreshAheadRate;
+    /** 主键负缓存的有效期毫秒数, 为0时不开启 */
+    public final long negativeCacheMs;
+    /** 主键负缓存最多记录的主键数量 */
+    public final int negativeCacheMaxKeys;
+    /** 批量增删改操作的最大条目数 */
+    public final int maxBatchSize;
+    /** 批量增删改操作未满时等待后续任务的时间窗口毫秒数, 为0时不等待 */
+    public final long batchWindowMs;
     /** 自适应系数步长 */
     private final int UP_ADAPT_STEP, DOWN_ADAPT_STEP;
 
+    /** 缓存运行指标的采集实现 */
+    public final ICacheMetrics metrics;
+    /** 增删改操作的写日志, 未开启时为null; 由{@link LocalCacheFacade}在启动时设置 */
+    public WriteJournal journal;
+
     /** 用于调整权重系数的状态机 */
     public TableStateMachine stateMachine;
 
@@ -50,40 +64,20 @@ public class TableDescribe<T extends Cacheable> {
 //    /** 缓存查询计数器，用于统计每查询n次执行一次过期移除 */
 //    public AtomicInteger queryCount = new AtomicInteger();
 
-    /** 此表所有的缓存占用内存大小的字节数 */
-    public long totalMemBytes = 0L;
+    /** 此表的所有缓存数据，包括主键缓存和条件查询缓存; 由{@link EntityCacheManager#initTableCache}初始化 */
+    ICacheStore cacheStore;
+    /** 此表缓存数据的过期索引; 由{@link EntityCacheManager#initTableCache}初始化 */
+    ExpiryIndex expiryIndex;
+    /** 此表的主键负缓存, 未开启时为null; 由{@link EntityCacheManager#initTableCache}初始化 */
+    NegativeCache negativeCache;
+
+    /** 此表所有的缓存占用内存大小的字节数, 每次保存和移除缓存时增量更新 */
+    public final LongAdder memBytes = new LongAdder();
 
-    /** 入栈操作标记位,当滚动到下一个时间段时，单线程入栈，允许此时忽略统计其他线程的访问统计数据 */
-    private AtomicBoolean isPushingHourStats = new AtomicBoolean(), isPushing10MinStats = new AtomicBoolean();
     /** 最近24小时每个小时的访问统计 */
-    private LinkedList<Stats> everyHourStats = new LinkedList<>();
+    private final WindowStats everyHourStats = new WindowStats(TIME_60_MIN_MS, MAX_60_MIN_SIZE);
     /** 最近120分钟每10分钟的访问统计 */
-    private LinkedList<Stats> every10MinStats = new LinkedList<>();
-
-    /** 一段时间的统计信息 */
-    public class Stats{
-        /** 开始统计时间 */
-        public final long recordTime;
-        /** 结束统计时间 */
-        public final long endTime;
-        /** 缓存命中次数 */
-        public AtomicLong hitCount = new AtomicLong();
-        /** 数据访问次数 */
-        public AtomicLong visitCount = new AtomicLong();
-        public Stats(long currentTime, int interval){
-            this.recordTime = currentTime;
-            this.endTime = recordTime + interval;
-        }
-        /** 命中率 */
-        public double getHitRate(){
-            return 100.0*hitCount.get()/visitCount.get();
-        }
-
-        @Override
-        public String toString() {
-            return "{" + hitCount + "/" + visitCount + "=" + (new DecimalFormat("#.00").format(getHitRate())) + "%}";
-        }
-    }
+    private final WindowStats every10MinStats = new WindowStats(TIME_10_MIN_MS, MAX_10_MIN_SIZE);
 
     /** 每张表的定制信息 */
     public final TableDataSource<T> tableStrategy;
@@ -99,88 +93,95 @@ public class TableDescribe<T extends Cacheable> {
         this.cache = cache;
         this.tableStrategy = tableStrategy;
         this.entityName = tableStrategy.getEntityClass().getSimpleName();
+        this.coalesceWrites = tableStrategy.coalesceWrites(config);
+        this.materializeConditions = tableStrategy.materializeConditions(config);
+        this.refreshAheadRate = tableStrategy.refreshAheadRate(config);
+        this.negativeCacheMs = tableStrategy.negativeCacheSeconds(config) * 1000;
+        this.negativeCacheMaxKeys = tableStrategy.negativeCacheMaxKeys(config);
+        this.maxBatchSize = config.maxBatchSize;
+        this.batchWindowMs = config.batchWindowMs;
+        this.metrics = config.metrics;
         this.stateMachine = new TableStateMachine(this);
-        initStringFields(tableStrategy.getEntityClass());
-        // 初始化历史访问记录
-        long curTime = System.currentTimeMillis();
-        for(long i = curTime - (MAX_10_MIN_SIZE-1)*TIME_10_MIN_MS; i <= curTime ; i += TIME_10_MIN_MS){
-            every10MinStats.addFirst(new Stats(i, TIME_10_MIN_MS));
-        }
-
-        for(long i = curTime - (MAX_60_MIN_SIZE-1)*TIME_60_MIN_MS; i <= curTime ; i += TIME_60_MIN_MS){
-            everyHourStats.addFirst(new Stats(i, TIME_60_MIN_MS));
-        }
-
-    }
-
-    private void initStringFields(Class<?> entityClass){
-        List<Field> fieldList = new ArrayList<>();
-        List<Field> stringFieldList = new ArrayList<>();
-        while(entityClass != null){
-            fieldList.addAll( Arrays.asList(entityClass.getDeclaredFields()) );
-            entityClass = entityClass.getSuperclass();
-        }
-        for(Field field : fieldList){
-            if(field.getType() == String.class){
-                field.setAccessible(true);
-                stringFieldList.add(field);
-            }
-        }
-        if(stringFieldList.size() > 0){
-            stringFields = new Field[stringFieldList.size()];
-            stringFields = stringFieldList.toArray(stringFields);
-            stringFieldCount = stringFieldList.size();
-        }else{
-            stringFieldCount = 0;
-        }
+        this.sizeEstimator = new EntitySizeEstimator(tableStrategy.getEntityClass());
     }
 
     /**
      * 计算单个实体类的内存占用, 单位字节
      */
     public long calcMemCache(T entity){
-        long totalMem = RamUsageEstimator.sizeOfObject(entity);
-        try {
-            for(int i = 0; i < stringFieldCount; i++){
-                String s = (String)stringFields[i].get(entity);
-                long stringMem = s != null ? RamUsageEstimator.sizeOfObject(s) : 0;
-                totalMem += s != null ? stringMem : 0;
+        return sizeEstimator.estimate(entity);
+    }
 
-            }
-        }catch (Exception e){
-            e.printStackTrace();
-        }
-        return totalMem;
+    /**
+     * 追加一条增删改操作的写日志记录, 需要在更新缓存的原子操作中调用
+     * @param op 操作类型
+     * @return 未开启写日志时返回null
+     */
+    public WriteJournal.Record journal(int op, T entity){
+        return journal == null ? null : journal.append(this, op, entity);
     }
 
     /**
      * 统计请求缓存(不管是否命中)
      */
     public void visit(long curTime){
-        scrollRecordStats(curTime, every10MinStats, MAX_10_MIN_SIZE, isPushing10MinStats, TIME_10_MIN_MS, false);
-        scrollRecordStats(curTime, everyHourStats, MAX_60_MIN_SIZE, isPushingHourStats, TIME_60_MIN_MS, false);
+        every10MinStats.increment(WindowStats.VISIT, curTime);
+        everyHourStats.increment(WindowStats.VISIT, curTime);
     }
 
     /**
      * 统计命中缓存
      */
     public void hit(long curTime){
-        scrollRecordStats(curTime, every10MinStats, MAX_10_MIN_SIZE, isPushing10MinStats, TIME_10_MIN_MS, true);
-        scrollRecordStats(curTime, everyHourStats, MAX_60_MIN_SIZE, isPushingHourStats, TIME_60_MIN_MS, true);
+        every10MinStats.increment(WindowStats.HIT, curTime);
+        everyHourStats.increment(WindowStats.HIT, curTime);
+    }
+
+    /**
+     * 统计未命中缓存时从数据源加载数据
+     * @param method 数据源方法名
+     * @param startNanos 开始加载时的{@link System#nanoTime()}
+     */
+    public void load(String method, long startNanos){
+        long costNanos = System.nanoTime() - startNanos;
+        metrics.recordLoad(entityName, method, costNanos);
+        long curTime = System.currentTimeMillis();
+        every10MinStats.increment(WindowStats.LOAD, curTime);
+        every10MinStats.add(WindowStats.LOAD_NANOS, costNanos, curTime);
+        everyHourStats.increment(WindowStats.LOAD, curTime);
+        everyHourStats.add(WindowStats.LOAD_NANOS, costNanos, curTime);
+    }
+
+    /** 此表当前的缓存条目数, 包括主键缓存和条件查询缓存 */
+    public int entryCount(){
+        return cacheStore.size();
+    }
+
+    /**
+     * 最近两小时的命中率百分比
+     * @return 没有访问记录时返回NaN
+     */
+    public double recentHitRate(){
+        long visitCount = 0, hitCount = 0;
+        for(WindowStats.Window window : every10MinStats.snapshot(System.currentTimeMillis())){
+            visitCount += window.get(WindowStats.VISIT);
+            hitCount += window.get(WindowStats.HIT);
+        }
+        return visitCount == 0 ? Double.NaN : 100.0 * hitCount / visitCount;
     }
 
     /**
      * 拼接全部每10分钟滚动的日志字符串
      */
     public String toStringEvery10MinStats(){
-        return copyScrollStats(every10MinStats, isPushing10MinStats).toString();
+        return every10MinStats.snapshot(System.currentTimeMillis()).toString();
     }
 
     /**
      * 拼接全部每小时滚动的日志字符串
      */
     public String toStringEveryHourStats(){
-        return copyScrollStats(everyHourStats, isPushingHourStats).toString();
+        return everyHourStats.snapshot(System.currentTimeMillis()).toString();
     }
 
     /**
@@ -192,76 +193,25 @@ public class TableDescribe<T extends Cacheable> {
     public int getVisitScore(long maxTime){
         // 累加最近的访问记录计算命中率作为得分
         long visitCount = 0, hitCount = 0;
-        LinkedList<Stats> minLogs = copyScrollStats(everyHourStats, isPushingHourStats);
-        Iterator<Stats> minLogIterator = minLogs.iterator();
-        Stats log1 = minLogIterator.next();
-        Stats log2 = minLogIterator.next();
-        Stats log3 = minLogIterator.next();
-        Stats log4 = minLogIterator.next();
-        Stats log5 = minLogIterator.next();
-        Stats log6 = minLogIterator.next();
+        List<WindowStats.Window> hourStats = everyHourStats.snapshot(System.currentTimeMillis());
+        WindowStats.Window log1 = hourStats.get(0), log2 = hourStats.get(1), log3 = hourStats.get(2);
+        WindowStats.Window log4 = hourStats.get(3), log5 = hourStats.get(4), log6 = hourStats.get(5);
+        int count;
         // 繁忙模式
-        if(log1.visitCount.get() > 0 || (log2.visitCount.get() > 0 && log3.visitCount.get() > 0) ){
-            visitCount = log1.visitCount.get() + log2.visitCount.get() + log3.visitCount.get();
-            hitCount = log1.hitCount.get() + log2.hitCount.get() + log3.hitCount.get();
+        if(log1.get(WindowStats.VISIT) > 0 || (log2.get(WindowStats.VISIT) > 0 && log3.get(WindowStats.VISIT) > 0) ){
+            count = 3;
         }
         // 较少访问
-        else if( (log4.visitCount.get() > 0 || log5.visitCount.get() > 0 || log6.visitCount.get() > 0) && (log4.recordTime >= maxTime || log5.recordTime >= maxTime || log6.recordTime >= maxTime) ){
-            visitCount = log1.visitCount.get() + log2.visitCount.get() + log3.visitCount.get() + log4.visitCount.get()+ log5.visitCount.get()+ log6.visitCount.get();
-            hitCount = log1.hitCount.get() + log2.hitCount.get() + log3.hitCount.get() + log4.hitCount.get()+ log5.hitCount.get()+ log6.hitCount.get();
+        else if( (log4.get(WindowStats.VISIT) > 0 || log5.get(WindowStats.VISIT) > 0 || log6.get(WindowStats.VISIT) > 0) && (log4.recordTime >= maxTime || log5.recordTime >= maxTime || log6.recordTime >= maxTime) ){
+            count = 6;
         }else{
             return -1;
         }
-        return (int)(10000.0 * hitCount / visitCount);
-    }
-
-    /**
-     * 获取全部滚动的日志的拷贝镜像
-     * @param scrollList 统计信息记录栈
-     * @param isPushing 乐观锁，统计日志滚动入栈时保证只有一个线程成功,防止重复入栈
-     * @return
-     */
-    private LinkedList<Stats> copyScrollStats(LinkedList<Stats> scrollList, AtomicBoolean isPushing){
-        LinkedList<Stats> copyList;
-        while(isPushing.compareAndSet(false, true)){}
-        try{
-            copyList = new LinkedList<>(scrollList);
-        }finally {
-            isPushing.set(false);
-        }
-        return copyList;
-    }
-
-    /**
-     * 滚动记录访问日志
-     * @param curTime   当前时间
-     * @param scrollList 统计信息记录栈
-     * @param maxSize   栈的最大长度
-     * @param isPushing 乐观锁，统计日志滚动入栈时保证只有一个线程成功,防止重复入栈
-     * @param interval  时间间隔
-     * @param isHit true为统计命中，false为统计访问
-     */
-    private void scrollRecordStats(long curTime, LinkedList<Stats> scrollList, int maxSize, AtomicBoolean isPushing, int interval, boolean isHit){
-        Stats curStats = scrollList.getFirst();
-        // 滚动记录
-        if(curTime >= curStats.endTime){
-            if(isPushing.compareAndSet(false, true)){
-                try {
-                    while (curTime >= curStats.endTime) {
-                        Stats newStats = new Stats(curStats.endTime, interval);
-                        curStats = newStats;
-                        scrollList.addFirst(newStats);
-                        if (scrollList.size() > maxSize) {
-                            scrollList.removeLast();
-                        }
-                    }
-                }finally {
-                    isPushing.set(false);
-                }
-            }else return; // 滚动记录时发生冲突，舍弃个别的访问统计
+        for(int i = 0; i < count; i++){
+            visitCount += hourStats.get(i).get(WindowStats.VISIT);
+            hitCount += hourStats.get(i).get(WindowStats.HIT);
         }
-        if(isHit) curStats.hitCount.getAndIncrement();
-        else curStats.visitCount.getAndIncrement();
+        return (int)(10000.0 * hitCount / visitCount);
     }
 
     /**
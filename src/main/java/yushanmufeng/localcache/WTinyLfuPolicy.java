@@ -0,0 +1,327 @@
+package yushanmufeng.localcache;
+
+import yushanmufeng.localcache.metrics.RemovalCause;
+import yushanmufeng.localcache.util.FrequencySketch;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * 按字节数限制所有表缓存总大小的淘汰策略(W-TinyLFU)
+ * 缓存空间分为窗口区(1%)和主区，主区又分为试用区和保护区(主区的80%)，每个区都按访问顺序排列(LRU)
+ * 新缓存的数据先进入窗口区，窗口区超出容量时最早的数据作为候选者，与试用区最早的数据比较访问频率，频率更高的保留，另一个被淘汰
+ * 试用区的数据再次被访问时进入保护区，保护区超出容量时最早的数据降级回试用区
+ * 只访问一次的数据(如遍历扫描)很难挤掉访问频繁的数据，因此可以在扫描较多的场景下保持较高的命中率
+ * 所有表共用一个实例，所有操作互斥执行; 读数据时如果锁被占用则放弃记录本次访问，不阻塞读操作
+ * 保存和移除缓存数据时先放入有界的写缓冲区，由获取到锁的线程批量处理，不阻塞各锁分段的写操作; 缓冲区已满时才等待锁并处理
+ * 开启后每张表的内存占用{@link TableDescribe#memBytes}由此类统计，淘汰和更新占用在同一把锁内完成，比缓存数据的实际变化稍有延迟
+ */
+public class WTinyLfuPolicy {
+
+    /** 窗口区占总容量的百分比 */
+    private static final int WINDOW_PERCENT = 1;
+    /** 保护区占主区容量的百分比 */
+    private static final int PROTECTED_PERCENT = 80;
+    /** 写缓冲区最多保存的记录数, 也是每次处理的最大记录数 */
+    private static final int WRITE_BUFFER_SIZE = 1024;
+    /** 写缓冲区的记录类型: 新加入、更新占用、移除 */
+    private static final byte WRITE_ADD = 1, WRITE_UPDATE = 2, WRITE_REMOVE = 3;
+
+    /** 所有缓存数据可用的总字节数 */
+    private final long maxWeight;
+    /** 窗口区、保护区可用的字节数 */
+    private final long windowMaxWeight, protectedMaxWeight;
+    /** 窗口区、试用区、保护区已使用的字节数 */
+    private long windowWeight, probationWeight, protectedWeight;
+
+    private final LinkedHashMap<CacheEntry, Node> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<CacheEntry, Node> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<CacheEntry, Node> protectedSpace = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** 访问频率统计 */
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final ReentrantLock lock = new ReentrantLock();
+    /** 还未处理的保存和移除记录, 按提交顺序处理 */
+    private final ConcurrentLinkedQueue<WriteEvent> writeBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger writeBufferSize = new AtomicInteger();
+    /** 被淘汰的数据从缓存中移除后释放其引用的实体对象 */
+    private final BiConsumer<TableDescribe<Cacheable>, CacheEntry> releaser;
+
+    /** 缓存数据在淘汰策略中的记录 */
+    private static final class Node {
+        final TableDescribe<Cacheable> tableDesc;
+        /** 用于统计访问频率的hash值, 同一张表的同一个键值保持不变 */
+        final int hash;
+        /** 加入或最后一次更新时的占用字节数 */
+        long weight;
+
+        Node(TableDescribe<Cacheable> tableDesc, int hash, long weight){
+            this.tableDesc = tableDesc;
+            this.hash = hash;
+            this.weight = weight;
+        }
+    }
+
+    /** 写缓冲区中的一条保存或移除记录 */
+    private static final class WriteEvent {
+        final byte type;
+        /** 移除时为null */
+        final TableDescribe<Cacheable> tableDesc;
+        final CacheEntry entry;
+
+        WriteEvent(byte type, TableDescribe<Cacheable> tableDesc, CacheEntry entry){
+            this.type = type;
+            this.tableDesc = tableDesc;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * @param maxWeight 所有缓存数据可用的总字节数
+     * @param releaser 被淘汰的数据从所属表的缓存中移除后调用, 释放其引用的实体对象
+     */
+    public WTinyLfuPolicy(long maxWeight, BiConsumer<TableDescribe<Cacheable>, CacheEntry> releaser){
+        this.maxWeight = maxWeight;
+        this.releaser = releaser;
+        this.windowMaxWeight = Math.max(1, maxWeight * WINDOW_PERCENT / 100);
+        this.protectedMaxWeight = (maxWeight - windowMaxWeight) * PROTECTED_PERCENT / 100;
+    }
+
+    /** 命中缓存时记录访问; 锁被占用时直接放弃记录 */
+    public void onAccess(CacheEntry entry){
+        if(!lock.tryLock()){
+            return;
+        }
+        try{
+            Node node;
+            if((node = window.get(entry)) != null || (node = protectedSpace.get(entry)) != null){
+                sketch.increment(node.hash);
+            }else if((node = probation.remove(entry)) != null){
+                // 试用区的数据再次被访问，进入保护区
+                sketch.increment(node.hash);
+                probationWeight -= node.weight;
+                protectedSpace.put(entry, node);
+                protectedWeight += node.weight;
+                demoteProtected();
+            }
+            drainWriteBuffer();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 缓存数据保存后调用, 处理时超出总容量则淘汰数据, 被淘汰的可能是刚刚保存的数据
+     * @param isNew 是否为新加入的缓存数据; 不是新数据时只更新占用的字节数
+     */
+    public void onWrite(TableDescribe<Cacheable> tableDesc, CacheEntry entry, boolean isNew){
+        submit(new WriteEvent(isNew ? WRITE_ADD : WRITE_UPDATE, tableDesc, entry));
+    }
+
+    /** 缓存数据被过期或卸载移除后调用 */
+    public void onRemove(CacheEntry entry){
+        submit(new WriteEvent(WRITE_REMOVE, null, entry));
+    }
+
+    /** 立即处理写缓冲区中的所有记录, 用于定时检测时保证内存占用的统计不会长时间滞后 */
+    public void cleanUp(){
+        lock.lock();
+        try{
+            drainWriteBuffer();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 放入写缓冲区, 锁空闲时顺便处理缓冲区，锁被占用时由持有锁的线程或之后的操作处理
+     * 缓冲区已满时等待锁并处理，限制未处理的记录数量和内存统计的滞后
+     */
+    private void submit(WriteEvent event){
+        if(writeBufferSize.incrementAndGet() <= WRITE_BUFFER_SIZE){
+            writeBuffer.add(event);
+            if(lock.tryLock()){
+                try{
+                    drainWriteBuffer();
+                }finally {
+                    lock.unlock();
+                }
+            }
+            return;
+        }
+        writeBufferSize.decrementAndGet();
+        lock.lock();
+        try{
+            drainWriteBuffer();
+            apply(event);
+            evict();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /** 按提交顺序处理写缓冲区中的记录, 每次最多处理缓冲区容量的记录数，然后淘汰超出容量的数据; 需要持有锁 */
+    private void drainWriteBuffer(){
+        WriteEvent event;
+        int count = 0;
+        while(count < WRITE_BUFFER_SIZE && (event = writeBuffer.poll()) != null){
+            writeBufferSize.decrementAndGet();
+            apply(event);
+            count ++;
+        }
+        if(count > 0){
+            evict();
+        }
+    }
+
+    /** 处理一条保存或移除记录, 需要持有锁 */
+    private void apply(WriteEvent event){
+        CacheEntry entry = event.entry;
+        if(event.type == WRITE_REMOVE){
+            Node node = unlink(entry);
+            if(node != null){
+                node.tableDesc.memBytes.add(-node.weight);
+            }
+        }else if(event.type == WRITE_ADD){
+            TableDescribe<Cacheable> tableDesc = event.tableDesc;
+            if(!tableDesc.cacheStore.contains(entry)){  // 处理之前已被移除，移除记录可能先于此记录提交
+                return;
+            }
+            Node node = new Node(tableDesc, hash(tableDesc, entry), entry.bytes);
+            sketch.increment(node.hash);
+            window.put(entry, node);
+            windowWeight += node.weight;
+            tableDesc.memBytes.add(node.weight);
+            int count = window.size() + probation.size() + protectedSpace.size();
+            if(count > sketch.capacity()){
+                sketch.ensureCapacity(count * 2L);
+            }
+        }else{
+            Node node;
+            long delta;
+            if((node = window.get(entry)) != null){
+                windowWeight += delta = entry.bytes - node.weight;
+            }else if((node = probation.get(entry)) != null){
+                probationWeight += delta = entry.bytes - node.weight;
+            }else if((node = protectedSpace.get(entry)) != null){
+                protectedWeight += delta = entry.bytes - node.weight;
+            }else{
+                return; // 已经被淘汰
+            }
+            node.weight += delta;
+            event.tableDesc.memBytes.add(delta);
+            sketch.increment(node.hash);
+        }
+    }
+
+    /** 从所在的区中移除记录, 不修改表的内存占用 */
+    private Node unlink(CacheEntry entry){
+        Node node;
+        if((node = window.remove(entry)) != null){
+            windowWeight -= node.weight;
+        }else if((node = probation.remove(entry)) != null){
+            probationWeight -= node.weight;
+        }else if((node = protectedSpace.remove(entry)) != null){
+            protectedWeight -= node.weight;
+        }
+        return node;
+    }
+
+    /** 当前记录的所有缓存数据占用的字节数 */
+    public long weightedSize(){
+        lock.lock();
+        try{
+            drainWriteBuffer();
+            return windowWeight + probationWeight + protectedWeight;
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /** 保护区超出容量时，最早的数据降级回试用区 */
+    private void demoteProtected(){
+        while(protectedWeight > protectedMaxWeight && !protectedSpace.isEmpty()){
+            Map.Entry<CacheEntry, Node> first = pollFirst(protectedSpace);
+            protectedWeight -= first.getValue().weight;
+            probation.put(first.getKey(), first.getValue());
+            probationWeight += first.getValue().weight;
+        }
+    }
+
+    /** 淘汰数据直到不超出总容量 */
+    private void evict(){
+        // 窗口区超出容量时，最早的数据成为进入主区的候选者
+        ArrayDeque<Map.Entry<CacheEntry, Node>> candidates = null;
+        long candidatesWeight = 0;
+        while(windowWeight > windowMaxWeight && !window.isEmpty()){
+            Map.Entry<CacheEntry, Node> first = pollFirst(window);
+            windowWeight -= first.getValue().weight;
+            if(candidates == null){
+                candidates = new ArrayDeque<>();
+            }
+            candidates.add(first);
+            candidatesWeight += first.getValue().weight;
+        }
+        // 候选者与主区最早的数据比较访问频率，淘汰频率低的一方
+        while(candidates != null && !candidates.isEmpty() && windowWeight + probationWeight + protectedWeight + candidatesWeight > maxWeight){
+            Map.Entry<CacheEntry, Node> candidate = candidates.poll();
+            candidatesWeight -= candidate.getValue().weight;
+            Map.Entry<CacheEntry, Node> victim = !probation.isEmpty() ? firstOf(probation) : !protectedSpace.isEmpty() ? firstOf(protectedSpace) : null;
+            if(victim != null && sketch.frequency(candidate.getValue().hash) > sketch.frequency(victim.getValue().hash)){
+                unlink(victim.getKey());
+                evictEntry(victim.getKey(), victim.getValue());
+                probation.put(candidate.getKey(), candidate.getValue());
+                probationWeight += candidate.getValue().weight;
+            }else{
+                evictEntry(candidate.getKey(), candidate.getValue());
+            }
+        }
+        if(candidates != null){
+            for(Map.Entry<CacheEntry, Node> candidate : candidates){
+                probation.put(candidate.getKey(), candidate.getValue());
+                probationWeight += candidate.getValue().weight;
+            }
+        }
+        // 仍超出容量时(如单条数据过大)，依次从试用区、保护区、窗口区淘汰最早的数据
+        while(windowWeight + probationWeight + protectedWeight > maxWeight){
+            LinkedHashMap<CacheEntry, Node> space = !probation.isEmpty() ? probation : !protectedSpace.isEmpty() ? protectedSpace : !window.isEmpty() ? window : null;
+            if(space == null){
+                break;
+            }
+            Map.Entry<CacheEntry, Node> victim = firstOf(space);
+            unlink(victim.getKey());
+            evictEntry(victim.getKey(), victim.getValue());
+        }
+    }
+
+    /** 从所属表的缓存中移除被淘汰的数据, 记录需要已经从所在的区中移除 */
+    private void evictEntry(CacheEntry entry, Node node){
+        if(node.tableDesc.cacheStore.remove(entry)){ // 只移除这一条缓存，不会误删同一个key已重新缓存的数据
+            node.tableDesc.metrics.recordRemoval(node.tableDesc.entityName, RemovalCause.SIZE, 1);
+            releaser.accept(node.tableDesc, entry);
+        }
+        node.tableDesc.memBytes.add(-node.weight);
+    }
+
+    private static int hash(TableDescribe<Cacheable> tableDesc, CacheEntry entry){
+        return 31 * System.identityHashCode(tableDesc) + entry.keyHash();
+    }
+
+    private static Map.Entry<CacheEntry, Node> firstOf(LinkedHashMap<CacheEntry, Node> space){
+        return space.entrySet().iterator().next();
+    }
+
+    private static Map.Entry<CacheEntry, Node> pollFirst(LinkedHashMap<CacheEntry, Node> space){
+        Iterator<Map.Entry<CacheEntry, Node>> iterator = space.entrySet().iterator();
+        Map.Entry<CacheEntry, Node> first = iterator.next();
+        iterator.remove();
+        return first;
+    }
+
+}
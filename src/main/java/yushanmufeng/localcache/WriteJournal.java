@@ -0,0 +1,409 @@
+package yushanmufeng.localcache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import yushanmufeng.localcache.atomic.IAtomicLogic;
+import yushanmufeng.localcache.task.TaskContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * 增删改操作的本地写日志(write-behind journal)
+ * 增删改操作更新缓存时先追加一条日志记录到内存缓冲区，操作返回前由调用线程将缓冲区写入文件并刷盘; 多个线程同时等待时只有一个线程执行刷盘，其他线程的记录一并写入(组提交)
+ * 异步任务写入数据源后追加一条完成标记，不单独刷盘; 一个日志文件中的记录全部完成且文件已经写满滚动后，删除此文件
+ * 进程异常退出时，重启后会将所有未完成的记录按原顺序重新写入数据源; 完成标记可能未刷盘，所以重放保证至少写入一次，数据源的增删改需要允许重复执行
+ *
+ * 记录格式: [int 长度][int crc32][byte 类型][long 序号][类型为数据时: int 类名长度, UTF-8编码的实体类名, byte 操作类型, int 长度, 实体对象序列化数据]
+ */
+public class WriteJournal {
+
+    public static final Logger log = LoggerFactory.getLogger(WriteJournal.class);
+
+    /** 记录类型: 增删改数据、完成标记 */
+    private static final byte TYPE_DATA = 1, TYPE_COMMIT = 2;
+    /** 单个日志文件超过此大小后滚动到新的文件 */
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final String FILE_PREFIX = "journal-", FILE_SUFFIX = ".log";
+
+    /** 日志文件所在目录 */
+    private final File dir;
+    /** 当前写入的日志文件 */
+    private Segment current;
+    /** 下一条记录的序号 */
+    private long nextSeq = 1;
+    /** 还未写入文件的记录 */
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    /** 已追加到缓冲区的最大序号、已刷盘的最大序号 */
+    private long appendedSeq, durableSeq;
+    /** 同一时刻只有一个线程写文件 */
+    private final Object flushLock = new Object();
+    /** 上次写入失败还未写入文件的记录、所属的日志文件和最大序号, 下次写入时先重试; 需要持有flushLock */
+    private ByteBuffer unwritten;
+    private Segment unwrittenSegment;
+    private long unwrittenSeq;
+
+    /** 一个日志文件 */
+    private static class Segment {
+        final long id;
+        final File file;
+        final FileChannel channel;
+        /** 未完成的记录数 */
+        final AtomicInteger pending = new AtomicInteger();
+        /** 已分配写入此文件的字节数, 需要持有flushLock */
+        long assignedBytes;
+        /** 是否已滚动，滚动后不会再写入新的记录 */
+        volatile boolean rolled;
+
+        Segment(long id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /** 一条增删改记录, 保存在任务上下文中，异步任务写入数据源后完成 */
+    public final class Record {
+        private final long seq;
+        private final Segment segment;
+
+        private Record(long seq, Segment segment){
+            this.seq = seq;
+            this.segment = segment;
+        }
+
+        /** 数据已写入数据源(或已被合并、取消)，追加完成标记 */
+        public void complete(){
+            appendCommit(this);
+        }
+    }
+
+    /**
+     * @param dir 日志文件所在目录，不存在时自动创建
+     */
+    public WriteJournal(String dir){
+        this.dir = new File(dir);
+        if(!this.dir.isDirectory() && !this.dir.mkdirs()){
+            throw new IllegalStateException("创建写日志目录失败! " + dir);
+        }
+    }
+
+    /**
+     * 重放上次运行未完成的记录，然后开始写入新的日志文件; 需要在开始执行异步任务之前调用
+     * @param tables 以实体类名为key的所有表
+     */
+    public void open(Map<String, TableDescribe<Cacheable>> tables){
+        List<File> files = listSegmentFiles();
+        if(!files.isEmpty()){
+            replay(files, tables);
+            for(File file : files){
+                if(!file.delete()){
+                    log.warn("删除已重放的写日志文件失败! " + file);
+                }
+            }
+        }
+        long lastId = files.isEmpty() ? 0 : segmentId(files.get(files.size() - 1));
+        try{
+            current = new Segment(lastId + 1, new File(dir, FILE_PREFIX + (lastId + 1) + FILE_SUFFIX));
+        }catch (IOException e){
+            throw new IllegalStateException("打开写日志文件失败! " + dir, e);
+        }
+    }
+
+    /**
+     * 追加一条增删改记录到缓冲区, 需要在更新缓存的原子操作中调用，保证同一主键的记录顺序与操作顺序一致
+     * 记录计入当前日志文件的未完成数，缓冲区只在取出时滚动日志文件，因此记录一定写入计数所在的文件
+     * @param op 操作类型, {@link IAtomicLogic#INSERT_BY_PK}、{@link IAtomicLogic#UPDATE_BY_PK}、{@link IAtomicLogic#DELETE_BY_PK}
+     */
+    public <T extends Cacheable> Record append(TableDescribe<T> tableDesc, int op, T entity){
+        byte[] payload = tableDesc.tableStrategy.encodeEntity(entity);
+        synchronized (this){
+            long seq = nextSeq++;
+            try{
+                ByteArrayOutputStream body = new ByteArrayOutputStream(payload.length + 64);
+                DataOutputStream out = new DataOutputStream(body);
+                out.writeByte(TYPE_DATA);
+                out.writeLong(seq);
+                byte[] table = tableDesc.tableStrategy.getEntityClass().getName().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(table.length);
+                out.write(table);
+                out.writeByte(op);
+                out.writeInt(payload.length);
+                out.write(payload);
+                writeRecord(body.toByteArray());
+            }catch (IOException e){
+                throw new IllegalStateException(e);  // 只写入内存，不会发生
+            }
+            appendedSeq = seq;
+            current.pending.incrementAndGet();
+            return new Record(seq, current);
+        }
+    }
+
+    /** 追加完成标记, 不刷盘; 日志文件的记录全部完成并且已滚动时删除文件 */
+    private void appendCommit(Record record){
+        synchronized (this){
+            ByteBuffer body = ByteBuffer.allocate(9);
+            body.put(TYPE_COMMIT).putLong(record.seq);
+            writeRecord(body.array());
+        }
+        if(record.segment.pending.decrementAndGet() == 0 && record.segment.rolled){
+            deleteSegment(record.segment);
+        }
+    }
+
+    private void writeRecord(byte[] body){
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(body.length).putInt((int) crc.getValue());
+        buffer.write(header.array(), 0, 8);
+        buffer.write(body, 0, body.length);
+    }
+
+    /**
+     * 将已追加的记录写入文件并刷盘，返回时调用此方法之前追加的记录都已持久化
+     * 多个线程同时调用时只有一个线程写文件，其他线程等待后如果自己的记录已被写入则直接返回
+     * @throws IllegalStateException 写入文件失败，记录未持久化; 未写入的记录保留到下次写入时重试
+     */
+    public void sync(){
+        long target;
+        synchronized (this){
+            target = appendedSeq;
+        }
+        synchronized (flushLock){
+            if(durableSeq >= target){
+                return;
+            }
+            flush(true);
+        }
+    }
+
+    /**
+     * 写入缓冲区中的所有记录, 需要持有flushLock
+     * 取出缓冲区的同时决定是否滚动: 取出的记录都计入了当前文件，写入当前文件; 之后追加的记录计入并写入新的文件
+     */
+    private void flush(boolean force){
+        if(unwritten != null){  // 先按原顺序写入上次失败的记录，成功之前不写入之后的记录
+            writeTo(unwrittenSegment, unwritten, unwrittenSeq, force);
+            unwritten = null;
+            unwrittenSegment = null;
+        }
+        byte[] bytes;
+        long seq;
+        Segment segment;
+        synchronized (this){
+            bytes = buffer.toByteArray();
+            buffer = new ByteArrayOutputStream(Math.max(bytes.length, 256));
+            seq = appendedSeq;
+            segment = current;
+            segment.assignedBytes += bytes.length;
+            if(segment.assignedBytes >= SEGMENT_BYTES){
+                try{
+                    current = new Segment(segment.id + 1, new File(dir, FILE_PREFIX + (segment.id + 1) + FILE_SUFFIX));
+                }catch (IOException e){
+                    log.error("创建新的写日志文件失败，继续写入当前文件! " + segment.file, e);
+                }
+            }
+        }
+        writeTo(segment, ByteBuffer.wrap(bytes), seq, force);
+    }
+
+    /** 写入一批记录, 失败时保留未写入的部分并抛出异常; 需要持有flushLock */
+    private void writeTo(Segment segment, ByteBuffer byteBuffer, long seq, boolean force){
+        try{
+            while(byteBuffer.hasRemaining()){
+                segment.channel.write(byteBuffer);
+            }
+            if(force){
+                segment.channel.force(false);
+            }
+        }catch (IOException e){
+            // 已写入的部分不再重复写入，避免文件中出现不完整的记录后又重复写入同一条记录
+            unwritten = byteBuffer;
+            unwrittenSegment = segment;
+            unwrittenSeq = seq;
+            throw new IllegalStateException("写入写日志文件失败! " + segment.file, e);
+        }
+        durableSeq = seq;
+        if(segment != current){ // 已滚动，不会再写入此文件
+            roll(segment);
+        }
+    }
+
+    /** 关闭已滚动的日志文件, 记录全部完成时删除; 需要持有flushLock */
+    private void roll(Segment segment){
+        try{
+            segment.channel.close();
+        }catch (IOException e){
+            log.error("关闭写日志文件失败! " + segment.file, e);
+        }
+        segment.rolled = true;
+        if(segment.pending.get() == 0){
+            deleteSegment(segment);
+        }
+    }
+
+    private void deleteSegment(Segment segment){
+        synchronized (segment){
+            if(segment.file.exists() && !segment.file.delete()){
+                log.warn("删除已完成的写日志文件失败! " + segment.file);
+            }
+        }
+    }
+
+    /**
+     * 关闭写日志, 需要在所有异步任务执行完毕后调用; 所有记录都已完成时删除日志文件
+     */
+    public void close(){
+        synchronized (flushLock){
+            try{
+                flush(true);
+            }catch (IllegalStateException e){
+                log.error("关闭写日志前写入文件失败! " + current.file, e);
+            }
+            try{
+                current.channel.close();
+            }catch (IOException e){
+                log.error("关闭写日志文件失败! " + current.file, e);
+            }
+            if(current.pending.get() == 0){
+                deleteSegment(current);
+            }else{
+                log.warn("写日志中仍有" + current.pending.get() + "条未完成的记录，下次启动时重放: " + current.file);
+            }
+        }
+    }
+
+    /** 按顺序重放所有未完成的记录, 连续的同表同操作记录合并为一次批量操作 */
+    private void replay(List<File> files, Map<String, TableDescribe<Cacheable>> tables){
+        List<ReplayRecord> records = new ArrayList<>();
+        Set<Long> committed = new HashSet<>();
+        for(File file : files){
+            readSegment(file, records, committed);
+        }
+        int replayCount = 0;
+        List<TaskContext> contexts = new ArrayList<>();
+        List<Cacheable> entities = new ArrayList<>();
+        ReplayRecord batchHead = null;
+        for(ReplayRecord record : records){
+            if(committed.contains(record.seq)){
+                continue;
+            }
+            TableDescribe<Cacheable> tableDesc = tables.get(record.table);
+            if(tableDesc == null){
+                log.error("重放写日志时找不到表, 忽略此记录: " + record.table + ", seq:" + record.seq);
+                continue;
+            }
+            if(batchHead != null && (!batchHead.table.equals(record.table) || batchHead.op != record.op || contexts.size() >= tableDesc.maxBatchSize)){
+                replayBatch(tables.get(batchHead.table), batchHead.op, contexts, entities);
+                contexts = new ArrayList<>();
+                entities = new ArrayList<>();
+            }
+            batchHead = contexts.isEmpty() ? record : batchHead;
+            contexts.add(new TaskContext());
+            entities.add(tableDesc.tableStrategy.decodeEntity(record.payload));
+            replayCount ++;
+        }
+        if(batchHead != null && !contexts.isEmpty()){
+            replayBatch(tables.get(batchHead.table), batchHead.op, contexts, entities);
+        }
+        log.info("重放写日志完成, 文件数: " + files.size() + ", 重放记录数: " + replayCount);
+    }
+
+    private void replayBatch(TableDescribe<Cacheable> tableDesc, int op, List<TaskContext> contexts, List<Cacheable> entities){
+        if(op == IAtomicLogic.INSERT_BY_PK){
+            tableDesc.tableStrategy.insert(contexts, entities);
+        }else if(op == IAtomicLogic.UPDATE_BY_PK){
+            tableDesc.tableStrategy.update(contexts, entities);
+        }else if(op == IAtomicLogic.DELETE_BY_PK){
+            tableDesc.tableStrategy.delete(contexts, entities);
+        }
+    }
+
+    /** 读取一个日志文件中的记录, 遇到不完整或校验失败的记录(写入时进程退出)时停止 */
+    private void readSegment(File file, List<ReplayRecord> records, Set<Long> committed){
+        ByteBuffer bytes;
+        try{
+            bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        }catch (IOException e){
+            throw new IllegalStateException("读取写日志文件失败! " + file, e);
+        }
+        while(bytes.remaining() >= 8){
+            int length = bytes.getInt();
+            int crcValue = bytes.getInt();
+            if(length <= 0 || length > bytes.remaining()){
+                log.warn("写日志文件末尾记录不完整，已忽略: " + file);
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.array(), bytes.position(), length);
+            if((int) crc.getValue() != crcValue){
+                log.warn("写日志文件记录校验失败，已忽略之后的记录: " + file);
+                break;
+            }
+            ByteBuffer body = ByteBuffer.wrap(bytes.array(), bytes.position(), length).slice();
+            bytes.position(bytes.position() + length);
+            byte type = body.get();
+            long seq = body.getLong();
+            if(type == TYPE_COMMIT){
+                committed.add(seq);
+            }else if(type == TYPE_DATA){
+                int tableLength = body.getInt();
+                String table = new String(body.array(), body.arrayOffset() + body.position(), tableLength, StandardCharsets.UTF_8);
+                body.position(body.position() + tableLength);
+                int op = body.get();
+                byte[] payload = new byte[body.getInt()];
+                body.get(payload);
+                records.add(new ReplayRecord(seq, table, op, payload));
+            }
+        }
+    }
+
+    /** 按序号排列的所有日志文件 */
+    private List<File> listSegmentFiles(){
+        File[] files = dir.listFiles((d, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if(files == null){
+            return new ArrayList<>();
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(segmentId(a), segmentId(b)));
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    private static long segmentId(File file){
+        String name = file.getName();
+        return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+    }
+
+    /** 重放时读取的增删改记录 */
+    private static class ReplayRecord {
+        final long seq;
+        final String table;
+        final int op;
+        final byte[] payload;
+
+        ReplayRecord(long seq, String table, int op, byte[] payload){
+            this.seq = seq;
+            this.table = table;
+            this.op = op;
+            this.payload = payload;
+        }
+    }
+
+}
@@ -5,10 +5,11 @@ import yushanmufeng.localcache.Cacheable;
 import yushanmufeng.localcache.EntityCacheManager;
 import yushanmufeng.localcache.SingleTableAtomicLogic;
 import yushanmufeng.localcache.TableDescribe;
+import yushanmufeng.localcache.WriteJournal;
 import yushanmufeng.localcache.task.TaskContext;
 import yushanmufeng.localcache.task.MergingFutureTask;
 import yushanmufeng.localcache.task.MergingTaskFactory;
-import yushanmufeng.localcache.util.SimpleTaskExecutor;
+import yushanmufeng.localcache.util.ITaskExecutor;
 
 import java.util.List;
 import java.util.Map;
@@ -22,16 +23,19 @@ public class AtomicDeleteByPk implements IAtomicLogic{
     private final TableDescribe<Cacheable> tableDesc;
     private final EntityCacheManager cache;
     /** 所有要从DB中查询数据的任务队列(主键查询和条件查询)、增删改任务队列 */
-    private final SimpleTaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors;
+    private final ITaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors;
     /** 主键对应数据的当前状态 pk-ConcurrentStatus;仅在exec0方法中检测和操作此状态 */
     private final Map<CacheKey, WorkingLogic> workingLogics;
+    /** 影响条件查询的插入和删除记录 */
+    private final ConditionChanges conditionChanges;
 
-    public AtomicDeleteByPk(SingleTableAtomicLogic atomicLogic, TableDescribe<Cacheable> tableDesc, EntityCacheManager cache, SimpleTaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors, Map<CacheKey, WorkingLogic> workingLogics){
+    public AtomicDeleteByPk(SingleTableAtomicLogic atomicLogic, TableDescribe<Cacheable> tableDesc, EntityCacheManager cache, ITaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors, Map<CacheKey, WorkingLogic> workingLogics, ConditionChanges conditionChanges){
         this.atomicLogic = atomicLogic;
         this.tableDesc = tableDesc;
         this.cache = cache;
         this.nonSelectExecutors = nonSelectExecutors;
         this.workingLogics = workingLogics;
+        this.conditionChanges = conditionChanges;
     }
 
     @Override
@@ -51,14 +55,31 @@ public class AtomicDeleteByPk implements IAtomicLogic{
             }
             entity._setStatus(EntityState.DELETED);
             workingLogic.entity = entity;
-            workingLogic.deletingCount ++;
-            workingLogic.otherExecutor = workingLogic.otherExecutor == null ? getLoadLowestExecutor(nonSelectExecutors, tableDesc) : workingLogic.otherExecutor;
-            MergingFutureTask<Cacheable> deleteTask = MergingTaskFactory.createDeleteTask(atomicLogic, workingLogic.otherExecutor, tableDesc, new TaskContext(), key, entity);
-            workingLogic.otherExecutor.put(deleteTask);
-            futureTaskLocal.set(deleteTask);
+            workingLogic.writtenDuringSelect = true;
+            MergingFutureTask<Cacheable> lastWriteTask = workingLogic.lastWriteTask;
+            int lastTaskType = lastWriteTask == null ? EMPTY_TASK : lastWriteTask.getMergingCallable().getTaskType();
+            WriteJournal.Record journalRecord = tableDesc.journal(DELETE_BY_PK, entity);
+            if(tableDesc.coalesceWrites && lastTaskType == INSERT_BY_PK && lastWriteTask.getMergingCallable().cancelWrite(journalRecord)){
+                // 插入任务还未开始执行，插入和删除互相抵消，不需要访问db
+                workingLogic.lastWriteTask = null;
+                futureTaskLocal.set(lastWriteTask);
+            }else{
+                if(tableDesc.coalesceWrites && lastTaskType == UPDATE_BY_PK){   // 还未执行的更新已经不需要了
+                    lastWriteTask.getMergingCallable().cancelWrite(null);
+                }
+                workingLogic.deletingCount ++;
+                workingLogic.otherExecutor = workingLogic.otherExecutor == null ? getLoadLowestExecutor(nonSelectExecutors, tableDesc) : workingLogic.otherExecutor;
+                TaskContext context = new TaskContext();
+                context.addJournalRecord(journalRecord);
+                MergingFutureTask<Cacheable> deleteTask = MergingTaskFactory.createDeleteTask(atomicLogic, workingLogic.otherExecutor, tableDesc, context, key, entity);
+                workingLogic.otherExecutor.put(deleteTask);
+                workingLogic.lastWriteTask = deleteTask;
+                futureTaskLocal.set(deleteTask);
+            }
             // 删除缓存
             cache.unloadCache(tableDesc, key);
             cache.whenDeleteEntity(tableDesc, entity);
+            conditionChanges.recordWrite(workingLogic, key.keys[0], tableDesc.tableStrategy.getConditionKeys(entity), false);
         }
     }
 
@@ -1,6 +1,6 @@
 package yushanmufeng.localcache.atomic;
 
-import yushanmufeng.localcache.util.SimpleTaskExecutor;
+import yushanmufeng.localcache.util.ITaskExecutor;
 import yushanmufeng.localcache.CacheKey;
 import yushanmufeng.localcache.Cacheable;
 import yushanmufeng.localcache.EntityCacheManager;
@@ -22,16 +22,19 @@ public class AtomicInsertByPk implements IAtomicLogic{
     private final TableDescribe<Cacheable> tableDesc;
     private final EntityCacheManager cache;
     /** 所有要从DB中查询数据的任务队列(主键查询和条件查询)、增删改任务队列 */
-    private final SimpleTaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors;
+    private final ITaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors;
     /** 主键对应数据的当前状态 pk-ConcurrentStatus;仅在exec0方法中检测和操作此状态 */
     private final Map<CacheKey, WorkingLogic> workingLogics;
+    /** 影响条件查询的插入和删除记录 */
+    private final ConditionChanges conditionChanges;
 
-    public AtomicInsertByPk(SingleTableAtomicLogic atomicLogic, TableDescribe<Cacheable> tableDesc, EntityCacheManager cache, SimpleTaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors, Map<CacheKey, WorkingLogic> workingLogics){
+    public AtomicInsertByPk(SingleTableAtomicLogic atomicLogic, TableDescribe<Cacheable> tableDesc, EntityCacheManager cache, ITaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors, Map<CacheKey, WorkingLogic> workingLogics, ConditionChanges conditionChanges){
         this.atomicLogic = atomicLogic;
         this.tableDesc = tableDesc;
         this.cache = cache;
         this.nonSelectExecutors = nonSelectExecutors;
         this.workingLogics = workingLogics;
+        this.conditionChanges = conditionChanges;
     }
 
     @Override
@@ -47,30 +50,38 @@ public class AtomicInsertByPk implements IAtomicLogic{
             throw new RuntimeException( "插入新的数据必须是新的实体实例，不能复用其他实例引用！table:" + tableDesc.entityName + ", CacheKey:" + (key==null?"null":key.toString()) );
         }
         MergingFutureTask<Cacheable> insertTask = null;
+        context.addJournalRecord(tableDesc.journal(INSERT_BY_PK, entity));
         if(curState == EntityState.DELETED){    // 冲突，当前状态为已删除
             entity._setStatus(EntityState.LATEST);
             workingLogic.entity = entity;
             workingLogic.insertingCount ++;
             insertTask = MergingTaskFactory.createInsertTask(atomicLogic, workingLogic.otherExecutor, tableDesc, context, key, entity);
             workingLogic.otherExecutor.put(insertTask);
+            workingLogic.lastWriteTask = insertTask;
             cache.cacheCore(tableDesc, key, entity);
             cache.whenInsertEntity(tableDesc, entity);
+            conditionChanges.recordWrite(workingLogic, key.keys[0], tableDesc.tableStrategy.getConditionKeys(entity), true);
         }else if(workingLogic != null && workingLogic.hasSelectTask()){ // 有查询任务
             entity._setStatus(EntityState.LATEST);
             workingLogic.entity = entity;
+            workingLogic.writtenDuringSelect = true;
             workingLogic.insertingCount ++;
             workingLogic.otherExecutor = getLoadLowestExecutor(nonSelectExecutors, tableDesc);
             insertTask = MergingTaskFactory.createInsertTask(atomicLogic, workingLogic.otherExecutor, tableDesc, context, key, entity);
             workingLogic.otherExecutor.put(insertTask);
+            workingLogic.lastWriteTask = insertTask;
             cache.cacheCore(tableDesc, key, entity);
             cache.whenInsertEntity(tableDesc, entity);
+            conditionChanges.recordWrite(workingLogic, key.keys[0], tableDesc.tableStrategy.getConditionKeys(entity), true);
         }else {   // 无任何进行中的任务
             entity._setStatus(EntityState.LATEST);
-            SimpleTaskExecutor<MergingFutureTask<?>> executor = getLoadLowestExecutor(nonSelectExecutors, tableDesc);
+            ITaskExecutor<MergingFutureTask<?>> executor = getLoadLowestExecutor(nonSelectExecutors, tableDesc);
             insertTask = MergingTaskFactory.createInsertTask(atomicLogic, executor, tableDesc, context, key, entity);
-            workingLogics.put( key, WorkingLogic.newInsert(insertTask, executor, entity) );
+            workingLogic = WorkingLogic.newInsert(insertTask, executor, entity);
+            workingLogics.put( key, workingLogic );
             cache.cacheCore(tableDesc, key, entity);
             cache.whenInsertEntity(tableDesc, entity);
+            conditionChanges.recordWrite(workingLogic, key.keys[0], tableDesc.tableStrategy.getConditionKeys(entity), true);
         }
         entityLocal.set(entity);
         futureTaskLocal.set(insertTask);
@@ -13,9 +13,12 @@ public class AtomicInsertByPkFinish implements IAtomicLogic{
 
     /** 主键对应数据的当前状态 pk-ConcurrentStatus;仅在exec0方法中检测和操作此状态 */
     private final Map<CacheKey, WorkingLogic> workingLogics;
+    /** 影响条件查询的插入和删除记录 */
+    private final ConditionChanges conditionChanges;
 
-    public AtomicInsertByPkFinish(Map<CacheKey, WorkingLogic> workingLogics){
+    public AtomicInsertByPkFinish(Map<CacheKey, WorkingLogic> workingLogics, ConditionChanges conditionChanges){
         this.workingLogics = workingLogics;
+        this.conditionChanges = conditionChanges;
     }
 
     @Override
@@ -23,6 +26,9 @@ public class AtomicInsertByPkFinish implements IAtomicLogic{
         WorkingLogic workingLogic = workingLogics.get(key);
         // 删除掉一条插入记录
         workingLogic.insertingCount --;
+        if(workingLogic.insertingCount == 0 && workingLogic.deletingCount == 0){  // 插入和删除都已写入db
+            conditionChanges.finishWrites(workingLogic, key.keys[0]);
+        }
         if(workingLogic.clearTempAttrByTaskCount()){   // 没有进行中的查询操作和增删改操作，可以删掉整个记录对象
             workingLogics.remove(key);
         }
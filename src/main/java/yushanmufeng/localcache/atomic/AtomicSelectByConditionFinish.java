@@ -6,6 +6,8 @@ import yushanmufeng.localcache.EntityCacheManager;
 import yushanmufeng.localcache.TableDescribe;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -18,32 +20,61 @@ public class AtomicSelectByConditionFinish implements IAtomicLogic{
     private final EntityCacheManager cache;
     /** 主键对应数据的当前状态 pk-ConcurrentStatus;仅在exec0方法中检测和操作此状态 */
     private final Map<CacheKey, WorkingLogic> workingLogics;
+    /** 影响条件查询的插入和删除记录 */
+    private final ConditionChanges conditionChanges;
 
-    public AtomicSelectByConditionFinish(TableDescribe<Cacheable> tableDesc, EntityCacheManager cache, Map<CacheKey, WorkingLogic> workingLogics){
+    /** 查询db失败时传入的查询结果，此时不会缓存查询结果，只清理查询状态 */
+    public static final List<Cacheable> SELECT_FAILED = Collections.unmodifiableList(new ArrayList<>());
+
+    public AtomicSelectByConditionFinish(TableDescribe<Cacheable> tableDesc, EntityCacheManager cache, Map<CacheKey, WorkingLogic> workingLogics, ConditionChanges conditionChanges){
         this.tableDesc = tableDesc;
         this.cache = cache;
         this.workingLogics = workingLogics;
+        this.conditionChanges = conditionChanges;
     }
 
     @Override
     public void handle(CacheKey key, List<CacheKey> keyList, Cacheable entity, List<Cacheable> entities) {
+        WorkingLogic workingLogic = workingLogics.get(key);
+        Map<Object, Boolean> changes = conditionChanges.finishSelect(key);
         List<Object> pks = cache.getByCondition(tableDesc, key, true);    // 优先使用缓存
-        if(pks == null){   // 缓存未命中, 使用db查询结果并更新缓存
+        if(pks == null && entities != SELECT_FAILED){   // 缓存未命中, 使用db查询结果并更新缓存
             pks = new ArrayList<>();
+            Map<Object, Cacheable> materializedEntities = tableDesc.materializeConditions ? new HashMap<>() : null;
             if(entities != null){
                 for(Cacheable entityFromDb : entities){
                     Object pk = tableDesc.tableStrategy.getPrimaryKey(entityFromDb);
+                    if(changes != null && Boolean.FALSE.equals(changes.get(pk))){   // 已被删除, 还未写入db
+                        continue;
+                    }
                     pks.add(pk);
                     CacheKey entityKey = new CacheKey(true, pk);
-                    if(cache.getByPK(tableDesc, entityKey, false) == null){    // 如果实体类也无法命中，则将实体类也加入缓存
+                    Cacheable cacheEntity = cache.getByPK(tableDesc, entityKey, false);
+                    if(cacheEntity == null){    // 如果实体类也无法命中，则将实体类也加入缓存
                         entityFromDb._setStatus(EntityState.LATEST);
                         cache.cacheCore(tableDesc, entityKey, entityFromDb);
+                        cacheEntity = entityFromDb;
+                    }
+                    if(materializedEntities != null){
+                        materializedEntities.put(pk, cacheEntity);
                     }
                 }
             }
-            cache.cacheCondition(tableDesc, key, pks);
+            if(changes != null){   // 查询db期间的插入，db查询结果中可能没有
+                for(Map.Entry<Object, Boolean> change : changes.entrySet()){
+                    if(change.getValue() && !pks.contains(change.getKey())){
+                        pks.add(change.getKey());
+                        if(materializedEntities != null){
+                            Cacheable cacheEntity = cache.getByPK(tableDesc, new CacheKey(true, change.getKey()), false);
+                            if(cacheEntity != null){
+                                materializedEntities.put(change.getKey(), cacheEntity);
+                            }
+                        }
+                    }
+                }
+            }
+            cache.cacheCondition(tableDesc, key, pks, materializedEntities);
         }
-        WorkingLogic workingLogic = workingLogics.get(key);
         workingLogic.selectingCount --;
         if(workingLogic.clearTempAttrByTaskCount()){   // 没有进行中的查询操作和增删改操作，可以删掉整个记录对象
             workingLogics.remove(key);
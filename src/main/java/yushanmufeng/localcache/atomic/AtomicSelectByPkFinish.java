@@ -19,6 +19,9 @@ public class AtomicSelectByPkFinish implements IAtomicLogic{
     /** 主键对应数据的当前状态 pk-ConcurrentStatus;仅在exec0方法中检测和操作此状态 */
     private final Map<CacheKey, WorkingLogic> workingLogics;
 
+    /** 查询db失败时传入的查询结果，用于和查询结果为空区分，此时不能确定数据是否存在，只清理查询状态 */
+    public static final Cacheable SELECT_FAILED = new Cacheable();
+
     public AtomicSelectByPkFinish(TableDescribe<Cacheable> tableDesc, EntityCacheManager cache, Map<CacheKey, WorkingLogic> workingLogics){
         this.tableDesc = tableDesc;
         this.cache = cache;
@@ -29,17 +32,33 @@ public class AtomicSelectByPkFinish implements IAtomicLogic{
     public void handle(CacheKey key, List<CacheKey> keyList, Cacheable entity, List<Cacheable> entities) {
         WorkingLogic workingLogic = workingLogics.get(key);
         int curState = getCurState(workingLogic);
+        boolean selectFailed = entity == SELECT_FAILED;    // 查询失败时不能确定数据是否存在
+        if(selectFailed){
+            entity = null;
+        }
         // 优先检测冲突状态：插入和删除。查询不改变冲突状态仅做合并来提升并发查询效率
         if(curState == EntityState.DELETED){    // 冲突，当前状态为删除
             // 无数据返回
         }else if(curState == EntityState.LATEST){   // 冲突，当前状态为插入或更新
-            log.warn("并发逻辑异常，查询未结束时进行插入或更新操作，请检查相关代码！table：" + tableDesc.entityName + ", key:" + key.toString(), new Exception());
+            if(!workingLogic.refreshing){   // 提前刷新期间缓存中的数据可以正常更新
+                log.warn("并发逻辑异常，查询未结束时进行插入或更新操作，请检查相关代码！table：" + tableDesc.entityName + ", key:" + key.toString(), new Exception());
+            }
             entityLocal.set(workingLogic.entity);
         }else if(curState == EntityState.DETACHED){ // 状态为不存在
-            if(entity != null){
+            if(workingLogic.refreshing && workingLogic.writtenDuringSelect){    // 提前刷新开始后有增删改并且已执行完毕，查询结果已过时，保留缓存中的数据
+                entityLocal.set(cache.getByPK(tableDesc, key, false));
+            }else if(entity != null){
                 entity._setStatus(EntityState.LATEST);
                 cache.cacheCore(tableDesc, key, entity);
+                cache.whenRefreshEntity(tableDesc, entity);
                 entityLocal.set(entity);
+            }else if(selectFailed){ // 查询失败，提前刷新时继续使用缓存中的旧数据，下次命中时重新提交刷新
+                // 无数据返回
+            }else if(workingLogic.refreshing){  // 提前刷新时数据源中已不存在，移除缓存中的旧数据
+                cache.unloadCache(tableDesc, key);
+                cache.cacheAbsent(tableDesc, key);
+            }else if(!workingLogic.writtenDuringSelect){  // 查询成功、数据源中不存在并且查询期间没有增删改，记录到负缓存
+                cache.cacheAbsent(tableDesc, key);
             }
         }
         workingLogic.selectingCount --;
@@ -0,0 +1,88 @@
+package yushanmufeng.localcache.atomic;
+
+import yushanmufeng.localcache.util.ITaskExecutor;
+import yushanmufeng.localcache.CacheKey;
+import yushanmufeng.localcache.Cacheable;
+import yushanmufeng.localcache.EntityCacheManager;
+import yushanmufeng.localcache.TableDescribe;
+import yushanmufeng.localcache.task.BatchSelectResults;
+import yushanmufeng.localcache.task.TaskContext;
+import yushanmufeng.localcache.task.MergingFutureTask;
+import yushanmufeng.localcache.task.MergingTaskFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 根据多个主键查询
+ * 每个主键的处理方式与{@link AtomicSelectByPk}相同，区别是所有未命中缓存且没有进行中查询任务的主键会合并为一个批量查询任务
+ */
+public class AtomicSelectByPks implements IAtomicLogic{
+
+    private final TableDescribe<Cacheable> tableDesc;
+    private final EntityCacheManager cache;
+    /** 所有要从DB中查询数据的任务队列(主键查询和条件查询) */
+    private final ITaskExecutor<MergingFutureTask<?>>[] selectExecutors;
+    /** 主键对应数据的当前状态 pk-ConcurrentStatus;仅在exec0方法中检测和操作此状态 */
+    private final Map<CacheKey, WorkingLogic> workingLogics;
+
+    public AtomicSelectByPks(TableDescribe<Cacheable> tableDesc, EntityCacheManager cache, ITaskExecutor<MergingFutureTask<?>>[] selectExecutors, Map<CacheKey, WorkingLogic> workingLogics){
+        this.tableDesc = tableDesc;
+        this.cache = cache;
+        this.selectExecutors = selectExecutors;
+        this.workingLogics = workingLogics;
+    }
+
+    @SuppressWarnings(value={"unchecked", "rawtypes"})
+    @Override
+    public void handle(CacheKey key, List<CacheKey> keyList, Cacheable entity, List<Cacheable> entities) {
+        Map<Object, Cacheable> results = new HashMap<>();   // 可以直接返回的实体对象
+        Map<CacheKey, MergingFutureTask<?>> futureTasks = new LinkedHashMap<>();    // 需要等待查询结果的主键
+        List<CacheKey> selectKeys = new ArrayList<>();  // 需要从数据库中查询的主键
+        for(CacheKey cacheKey : keyList){
+            WorkingLogic workingLogic = workingLogics.get(cacheKey);
+            int curState = getCurState(workingLogic);
+            Cacheable entityFromCache;
+            if(curState == EntityState.DELETED){    // 冲突，当前状态为删除
+                // 无数据返回
+            }else if(curState == EntityState.LATEST){   // 冲突，当前状态插入
+                results.put(cacheKey.keys[0], workingLogic.entity);
+            }else if(workingLogic != null && workingLogic.refreshing && (entityFromCache = cache.getByPK(tableDesc, cacheKey, true)) != null){
+                // 正在提前刷新，刷新完成前继续返回缓存中的数据
+                results.put(cacheKey.keys[0], entityFromCache);
+            }else if(workingLogic != null && workingLogic.hasSelectTask()){ // 有查询任务，合并查询
+                MergingFutureTask<Cacheable> task = MergingTaskFactory.createMergingSelectTask(null, tableDesc, TaskContext.DEFAULT_CONTEXT, cacheKey, null, (MergingFutureTask<Cacheable>)workingLogic.selectTask);
+                workingLogic.selectingCount ++;
+                workingLogic.selectCallback.add(task);
+                futureTasks.put(cacheKey, task);
+            }else{
+                entityFromCache = cache.getByPK(tableDesc, cacheKey, true);
+                if(entityFromCache == null && cache.isKnownAbsent(tableDesc, cacheKey)){  // 负缓存: 数据源中已确认不存在
+                    // 无数据返回
+                }else if(entityFromCache == null){    // 未命中缓存，加入批量查询
+                    selectKeys.add(cacheKey);
+                }else{  // 命中缓存
+                    results.put(cacheKey.keys[0], entityFromCache);
+                }
+            }
+        }
+        if(selectKeys.size() > 0){  // 未命中缓存的主键合并为一个批量查询任务，每个主键单独记录一个查询任务，使其他线程对相同主键的查询可以合并
+            ITaskExecutor executor = getLoadLowestExecutor(selectExecutors, tableDesc);
+            BatchSelectResults batchResults = new BatchSelectResults();
+            List<MergingFutureTask<Cacheable>> itemTasks = new ArrayList<>(selectKeys.size());
+            for(CacheKey cacheKey : selectKeys){
+                MergingFutureTask<Cacheable> itemTask = MergingTaskFactory.createSelectItemTask(tableDesc, TaskContext.DEFAULT_CONTEXT, cacheKey, batchResults);
+                itemTasks.add(itemTask);
+                workingLogics.put(cacheKey, WorkingLogic.newBatchSelect(itemTask, executor));
+                futureTasks.put(cacheKey, itemTask);
+            }
+            executor.put(MergingTaskFactory.createSelectByPksTask(executor, tableDesc, TaskContext.DEFAULT_CONTEXT, selectKeys, batchResults, itemTasks));
+        }
+        entitiesLocal.set(results);
+        futureTasksLocal.set(futureTasks);
+    }
+
+}
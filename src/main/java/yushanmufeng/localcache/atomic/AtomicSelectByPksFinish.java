@@ -0,0 +1,37 @@
+package yushanmufeng.localcache.atomic;
+
+import yushanmufeng.localcache.CacheKey;
+import yushanmufeng.localcache.Cacheable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 根据多个主键查询成功
+ * keyList与entities一一对应, 每个主键按{@link AtomicSelectByPkFinish}的逻辑处理
+ */
+public class AtomicSelectByPksFinish implements IAtomicLogic{
+
+    private final AtomicSelectByPkFinish selectByPkFinish;
+
+    public AtomicSelectByPksFinish(AtomicSelectByPkFinish selectByPkFinish){
+        this.selectByPkFinish = selectByPkFinish;
+    }
+
+    @Override
+    public void handle(CacheKey key, List<CacheKey> keyList, Cacheable entity, List<Cacheable> entities) {
+        Map<Object, Cacheable> results = new HashMap<>();
+        for(int i = 0; i < keyList.size(); i++){
+            CacheKey cacheKey = keyList.get(i);
+            selectByPkFinish.handle(cacheKey, null, entities.get(i), null);
+            Cacheable result = entityLocal.get();
+            if(result != null){
+                results.put(cacheKey.keys[0], result);
+                entityLocal.remove();
+            }
+        }
+        entitiesLocal.set(results);
+    }
+
+}
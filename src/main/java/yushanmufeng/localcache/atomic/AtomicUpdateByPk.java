@@ -1,11 +1,12 @@
 package yushanmufeng.localcache.atomic;
 
-import yushanmufeng.localcache.util.SimpleTaskExecutor;
+import yushanmufeng.localcache.util.ITaskExecutor;
 import yushanmufeng.localcache.CacheKey;
 import yushanmufeng.localcache.Cacheable;
 import yushanmufeng.localcache.EntityCacheManager;
 import yushanmufeng.localcache.SingleTableAtomicLogic;
 import yushanmufeng.localcache.TableDescribe;
+import yushanmufeng.localcache.WriteJournal;
 import yushanmufeng.localcache.task.TaskContext;
 import yushanmufeng.localcache.task.MergingFutureTask;
 import yushanmufeng.localcache.task.MergingTaskFactory;
@@ -22,11 +23,11 @@ public class AtomicUpdateByPk implements IAtomicLogic{
     private final TableDescribe<Cacheable> tableDesc;
     private final EntityCacheManager cache;
     /** 从DB中增删改任务队列 */
-    private final SimpleTaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors;
+    private final ITaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors;
     /** 主键对应数据的当前状态 pk-ConcurrentStatus;仅在exec0方法中检测和操作此状态 */
     private final Map<CacheKey, WorkingLogic> workingLogics;
 
-    public AtomicUpdateByPk(SingleTableAtomicLogic atomicLogic, TableDescribe<Cacheable> tableDesc, EntityCacheManager cache, SimpleTaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors, Map<CacheKey, WorkingLogic> workingLogics){
+    public AtomicUpdateByPk(SingleTableAtomicLogic atomicLogic, TableDescribe<Cacheable> tableDesc, EntityCacheManager cache, ITaskExecutor<MergingFutureTask<?>>[] nonSelectExecutors, Map<CacheKey, WorkingLogic> workingLogics){
         this.atomicLogic = atomicLogic;
         this.tableDesc = tableDesc;
         this.cache = cache;
@@ -46,16 +47,30 @@ public class AtomicUpdateByPk implements IAtomicLogic{
         }
         entity._setStatus(EntityState.LATEST);
         cache.cacheCore(tableDesc, key, entity);
+        cache.whenRefreshEntity(tableDesc, entity);
         if(workingLogic == null){
             workingLogic = new WorkingLogic();
             workingLogics.put(key, workingLogic);
         }
         workingLogic.entity = entity;
+        workingLogic.writtenDuringSelect = true;
+        WriteJournal.Record journalRecord = tableDesc.journal(UPDATE_BY_PK, entity);
+        if(tableDesc.coalesceWrites && workingLogic.lastWriteTask != null){
+            // 最后提交的插入或更新任务还未开始执行时，合并到此任务中，只写入最新的数据
+            MergingFutureTask<Cacheable> lastWriteTask = workingLogic.lastWriteTask;
+            int lastTaskType = lastWriteTask.getMergingCallable().getTaskType();
+            if((lastTaskType == INSERT_BY_PK || lastTaskType == UPDATE_BY_PK) && lastWriteTask.getMergingCallable().coalesce(entity, journalRecord)){
+                futureTaskLocal.set(lastWriteTask);
+                return;
+            }
+        }
         workingLogic.updatingCount ++;
         workingLogic.otherExecutor = workingLogic.otherExecutor == null ? getLoadLowestExecutor(nonSelectExecutors, tableDesc) : workingLogic.otherExecutor;
         TaskContext context = new TaskContext();
+        context.addJournalRecord(journalRecord);
         MergingFutureTask<Cacheable> task = MergingTaskFactory.createUpdateTask(atomicLogic, workingLogic.otherExecutor, tableDesc, context, key, entity);
         workingLogic.otherExecutor.put(task);
+        workingLogic.lastWriteTask = task;
         futureTaskLocal.set(task);
     }
 
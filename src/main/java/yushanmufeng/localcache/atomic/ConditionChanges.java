@@ -0,0 +1,93 @@
+package yushanmufeng.localcache.atomic;
+
+import yushanmufeng.localcache.CacheKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 单表中影响条件查询的插入和删除记录, 按条件查询键值索引
+ * 插入和删除提交时记录到实体对象的每个条件查询键值下，同一主键的插入删除全部写入db后移除
+ * 条件查询开始查询db时只复制此条件下还未写入db的记录，查询db期间的插入和删除也会记录到此查询中，查询完成时用于修正db查询结果
+ * 插入删除和条件查询处于不同的锁分段，只通过此对象中的线程安全容器交换记录，不读写其他锁分段的{@link WorkingLogic}
+ */
+public class ConditionChanges {
+
+    /** [条件查询键值, [主键, 插入为true/删除为false]] 还未写入db的插入和删除 */
+    private final Map<CacheKey, Map<Object, Boolean>> pendingWrites = new ConcurrentHashMap<>();
+    /** [条件查询键值, [主键, 插入为true/删除为false]] 正在查询db的条件查询，及查询期间影响此条件的插入和删除 */
+    private final Map<CacheKey, Map<Object, Boolean>> selectings = new ConcurrentHashMap<>();
+
+    /**
+     * 提交插入或删除时记录, 需要在持有主键所在锁分段时调用
+     * @param workingLogic 主键的操作记录，保存记录过的条件查询键值，全部写入db后用于移除
+     * @param isInsert 插入为true, 删除为false
+     */
+    public void recordWrite(WorkingLogic workingLogic, Object pk, List<CacheKey> conditionKeys, boolean isInsert){
+        if(conditionKeys == null){
+            return;
+        }
+        for(CacheKey conditionKey : conditionKeys){
+            // compute对单个条件查询键值是原子的，不会与finishWrites移除空记录冲突
+            pendingWrites.compute(conditionKey, (k, changes) -> {
+                if(changes == null){
+                    changes = new ConcurrentHashMap<>();
+                }
+                changes.put(pk, isInsert);
+                return changes;
+            });
+            Map<Object, Boolean> selecting = selectings.get(conditionKey);
+            if(selecting != null){
+                selecting.put(pk, isInsert);
+            }
+            if(workingLogic.pendingConditionKeys == null){
+                workingLogic.pendingConditionKeys = new ArrayList<>(conditionKeys.size());
+            }
+            if(!workingLogic.pendingConditionKeys.contains(conditionKey)){
+                workingLogic.pendingConditionKeys.add(conditionKey);
+            }
+        }
+    }
+
+    /**
+     * 主键所有的插入和删除都已写入db，移除记录, 需要在持有主键所在锁分段时调用
+     */
+    public void finishWrites(WorkingLogic workingLogic, Object pk){
+        if(workingLogic.pendingConditionKeys == null){
+            return;
+        }
+        for(CacheKey conditionKey : workingLogic.pendingConditionKeys){
+            pendingWrites.computeIfPresent(conditionKey, (k, changes) -> {
+                changes.remove(pk);
+                return changes.isEmpty() ? null : changes;
+            });
+        }
+        workingLogic.pendingConditionKeys = null;
+    }
+
+    /**
+     * 条件查询开始查询db, 复制此条件下还未写入db的插入和删除; 需要在持有条件查询键值所在锁分段时调用
+     * 先登记查询再复制，复制期间新提交的记录会直接记录到查询中，已有的记录不会覆盖更新的记录
+     */
+    public void startSelect(CacheKey conditionKey){
+        Map<Object, Boolean> selecting = new ConcurrentHashMap<>();
+        selectings.put(conditionKey, selecting);
+        Map<Object, Boolean> pending = pendingWrites.get(conditionKey);
+        if(pending != null){
+            for(Map.Entry<Object, Boolean> entry : pending.entrySet()){
+                selecting.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 条件查询db完成, 返回查询期间影响此条件的插入和删除; 需要在持有条件查询键值所在锁分段时调用
+     * @return 没有进行中的查询时返回null
+     */
+    public Map<Object, Boolean> finishSelect(CacheKey conditionKey){
+        return selectings.remove(conditionKey);
+    }
+
+}
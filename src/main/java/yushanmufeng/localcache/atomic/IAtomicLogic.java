@@ -1,7 +1,7 @@
 package yushanmufeng.localcache.atomic;
 
 import yushanmufeng.localcache.util.HashUtil;
-import yushanmufeng.localcache.util.SimpleTaskExecutor;
+import yushanmufeng.localcache.util.ITaskExecutor;
 import yushanmufeng.localcache.CacheKey;
 import yushanmufeng.localcache.Cacheable;
 import yushanmufeng.localcache.TableDescribe;
@@ -21,12 +21,14 @@ public interface IAtomicLogic {
     ThreadLocal<Cacheable> entityLocal = new ThreadLocal<>();
     ThreadLocal<List<Object>> pksLocal = new ThreadLocal<>();
     ThreadLocal<Map<Object, Cacheable>> entitiesLocal = new ThreadLocal<>();
+    ThreadLocal<Map<CacheKey, MergingFutureTask<?>>> futureTasksLocal = new ThreadLocal<>();
 
     static void clearLocal(){
         futureTaskLocal.remove();
         entityLocal.remove();
         pksLocal.remove();
         entitiesLocal.remove();
+        futureTasksLocal.remove();
     }
 
     /** 空任务,用于标志结束队列 */
@@ -55,10 +57,12 @@ public interface IAtomicLogic {
     int SELECT_BY_CONDITION_FINISH = 11;
     /** 卸载关联的缓存 */
     int UNLOAD_REFER_CACHE = 12;
-    /** 计算汇总缓存使用的内存大小 */
-    int SUM_MEM_BYTES = 13;
     /** 检测缓存过期 */
     int CHECK_CACHE_EXPIRE = 14;
+    /** 根据多个主键查询 */
+    int SELECT_BY_PKS = 15;
+    /** 根据多个主键查询完成 */
+    int SELECT_BY_PKS_FINISH = 16;
 
     /** 处理原子操作方法 */
     void handle(CacheKey key, List<CacheKey> keyList, Cacheable entity, List<Cacheable> entities);
@@ -76,8 +80,8 @@ public interface IAtomicLogic {
     }
 
     /** 返回负载最低的执行器 */
-    default <V extends Runnable> SimpleTaskExecutor<V> getLoadLowestExecutor(SimpleTaskExecutor<V>[] executors, TableDescribe<Cacheable> tableDesc){
-        return SimpleTaskExecutor.getLoadLowestExecutor(executors, HashUtil.hash(tableDesc, executors.length));
+    default <V extends Runnable> ITaskExecutor<V> getLoadLowestExecutor(ITaskExecutor<V>[] executors, TableDescribe<Cacheable> tableDesc){
+        return ITaskExecutor.getLoadLowestExecutor(executors, HashUtil.hash(tableDesc, executors.length));
     }
 
 }
@@ -1,8 +1,9 @@
 package yushanmufeng.localcache.atomic;
 
+import yushanmufeng.localcache.CacheKey;
 import yushanmufeng.localcache.Cacheable;
 import yushanmufeng.localcache.task.MergingFutureTask;
-import yushanmufeng.localcache.util.SimpleTaskExecutor;
+import yushanmufeng.localcache.util.ITaskExecutor;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -18,11 +19,15 @@ public class WorkingLogic {
     public Cacheable entity;            // 状态为最新的实体类
     public FutureTask<?> selectTask;    // 正在执行的查询任务,因为查询任务最多只有一个，对相同实体对象的查询会合并为一个请求
     public List<Runnable> selectCallback = new ArrayList<>();   // 查询任务执行完成后的回调函数
-    public SimpleTaskExecutor<MergingFutureTask<?>> selectExecutor;   // 正在执行的查询任务使用的执行器
-    public SimpleTaskExecutor<MergingFutureTask<?>> otherExecutor;    // 正在执行非查询任务使用的执行器
+    public ITaskExecutor<MergingFutureTask<?>> selectExecutor;   // 正在执行的查询任务使用的执行器
+    public ITaskExecutor<MergingFutureTask<?>> otherExecutor;    // 正在执行非查询任务使用的执行器
+    public List<CacheKey> pendingConditionKeys; // 还未写入db的插入和删除记录到了哪些条件查询键值下, 见{@link ConditionChanges}
+    public MergingFutureTask<Cacheable> lastWriteTask;  // 最后提交的增删改任务, 开启合并写操作时，还未开始执行的任务可以合并后续的写操作
+    public boolean refreshing;          // 正在执行的查询任务是否为提前刷新, 刷新完成前继续返回缓存中的数据
+    public boolean writtenDuringSelect; // 查询任务开始后是否有增删改, 有则提前刷新的查询结果已过时，不再覆盖缓存
 
     /** 初始化一个查询原子操作记录 */
-    public static WorkingLogic newSelect(MergingFutureTask<?> selectTask, SimpleTaskExecutor<MergingFutureTask<?>> selectExecutor){
+    public static WorkingLogic newSelect(MergingFutureTask<?> selectTask, ITaskExecutor<MergingFutureTask<?>> selectExecutor){
         WorkingLogic workingLogic = new WorkingLogic();
         workingLogic.selectingCount = 1;
         workingLogic.selectTask = selectTask;
@@ -31,12 +36,29 @@ public class WorkingLogic {
         return workingLogic;
     }
 
+    /** 初始化一个提前刷新的查询原子操作记录, 刷新完成前继续使用缓存中的数据 */
+    public static WorkingLogic newRefresh(MergingFutureTask<?> selectTask, ITaskExecutor<MergingFutureTask<?>> selectExecutor){
+        WorkingLogic workingLogic = newSelect(selectTask, selectExecutor);
+        workingLogic.refreshing = true;
+        return workingLogic;
+    }
+
+    /** 初始化一个批量查询中单个主键的查询原子操作记录, 查询任务由批量查询任务负责执行 */
+    public static WorkingLogic newBatchSelect(MergingFutureTask<?> selectTask, ITaskExecutor<MergingFutureTask<?>> selectExecutor){
+        WorkingLogic workingLogic = new WorkingLogic();
+        workingLogic.selectingCount = 1;
+        workingLogic.selectTask = selectTask;
+        workingLogic.selectExecutor = selectExecutor;
+        return workingLogic;
+    }
+
     /** 初始化一个插入原子操作记录 */
-    public static WorkingLogic newInsert(MergingFutureTask<?> insertTask, SimpleTaskExecutor<MergingFutureTask<?>> otherExecutor, Cacheable entity){
+    public static WorkingLogic newInsert(MergingFutureTask<Cacheable> insertTask, ITaskExecutor<MergingFutureTask<?>> otherExecutor, Cacheable entity){
         WorkingLogic workingLogic = new WorkingLogic();
         workingLogic.insertingCount = 1;
         workingLogic.otherExecutor = otherExecutor;
         workingLogic.entity = entity;
+        workingLogic.lastWriteTask = insertTask;
         otherExecutor.put(insertTask);  // 同时启动异步任务
         return workingLogic;
     }
@@ -61,10 +83,13 @@ public class WorkingLogic {
         boolean hasOtherTask = hasOtherTask();
         if(!hasSelectTask){
             selectExecutor = null;
+            refreshing = false;
+            writtenDuringSelect = false;
         }
         if(!hasOtherTask){
             entity = null;
             otherExecutor = null;
+            lastWriteTask = null;
         }
         return hasSelectTask == false && hasOtherTask == false;
     }
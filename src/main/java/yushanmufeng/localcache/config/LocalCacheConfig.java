@@ -1,5 +1,8 @@
 package yushanmufeng.localcache.config;
 
+import yushanmufeng.localcache.metrics.EmptyCacheMetrics;
+import yushanmufeng.localcache.metrics.ICacheMetrics;
+
 /**
  * 全局缓存配置项
  */
@@ -18,16 +21,38 @@ public class LocalCacheConfig extends SingleTableCacheConfig{
     public String nonSelectThreadPreName;
     /** 单表的缓存实体空间map初始长度，设置为稍大的值可减少map扩容次数 */
     public int entitiesInitialCapacity;
+    /** 是否使用工作窃取的任务执行器 */
+    public boolean workStealingExecutor;
+    /** 是否使用虚拟线程执行查询任务 */
+    public boolean virtualThreadSelects;
+    /** 批量增删改操作的最大条目数 */
+    public int maxBatchSize;
+    /** 批量增删改操作未满时等待后续任务的时间窗口毫秒数, 为0时不等待 */
+    public long batchWindowMs;
+    /** 是否在保存缓存时按字节数限制缓存总大小(W-TinyLFU淘汰策略) */
+    public boolean sizeBoundedEviction;
+    /** 缓存运行指标的采集实现 */
+    public ICacheMetrics metrics;
+    /** 增删改操作写日志的目录, 为null时不开启 */
+    public String writeJournalDir;
+    /** 缓存快照的目录, 为null时不开启 */
+    public String snapshotDir;
+    /** 缓存预热最多使用缓存空间的百分比 */
+    public int warmUpMaxPercent;
+    /** 缓存预热时最多同时加载的表数量 */
+    public int warmUpThreads;
     /** ===================== 基础配置 end ===================== */
 
     /** ===================== 过期相关配置 start ===================== */
-    /** 多久计算汇总一次单表的内存占用 */
+    /** 多久计算汇总一次单表的内存占用; 内存占用已改为每次保存和移除缓存时增量更新，此配置不再生效 */
+    @Deprecated
     public long sumOneTableMemMs;
-    /** 多久计算汇总一次所有表的内存占用 */
+    /** 多久打印一次所有表的内存占用 */
     public long sumAllTableMemMs;
     /** 多久检查一次缓存过期(检查缓存过期同时会计算自适应系数) */
     public long checkExpireMs;
-    /** 单轮检测过期最大条目数，配置的越大则会越及时的移除过期数据，但单轮检测所需的时间会更长 */
+    /** 单轮检测过期最大条目数; 检测过期已改为通过过期索引移除所有过期数据，此配置不再生效 */
+    @Deprecated
     public int oneRollCheckMax;
     /** ===================== 过期相关配置 end ===================== */
 
@@ -64,10 +89,18 @@ public class LocalCacheConfig extends SingleTableCacheConfig{
                 .selectThreadPreName("LocalCache-Select-Tasks-Thread")
                 .nonSelectThreadPreName("LocalCache-NonSelect-Tasks-Thread")
                 .entitiesInitialCapacity(1024)
-                .sumOneTableMemMinutes(1)
+                .workStealingExecutor(false)
+                .virtualThreadSelects(false)
+                .maxBatchSize(2000)
+                .batchWindowMs(0)
+                .sizeBoundedEviction(false)
+                .metrics(new EmptyCacheMetrics())
+                .writeJournalDir(null)
+                .snapshotDir(null)
+                .warmUpMaxPercent(75)
+                .warmUpThreads(4)
                 .sumAllTableMemMinutes(5)
                 .checkExpireMinutes(5)
-                .oneRollCheckMax(100)
                 .upAdaptStep(300)
                 .downAdaptStep(60)
                 .stableTimeMinutes(10)
@@ -108,6 +141,54 @@ public class LocalCacheConfig extends SingleTableCacheConfig{
         renewalRate = rate;
         return this;
     }
+
+    /** 锁分段数量, 会向上取整为2的幂, 最大64。单表的原子操作按CacheKey的hash划分到不同的锁段中，不同段的操作可以并行执行; 为1时整表共用一把锁 */
+    public LocalCacheConfig lockStripes(int stripes){
+        lockStripes = stripes;
+        return this;
+    }
+
+    /** 是否开启无锁读。开启后主键查询命中缓存且该主键没有进行中的增删改查任务时，直接读取缓存而不加锁；未命中或有进行中的任务时才走加锁的查询逻辑 */
+    public LocalCacheConfig optimisticRead(boolean optimisticRead){
+        this.optimisticRead = optimisticRead;
+        return this;
+    }
+
+    /** 是否合并写操作。开启后同一主键还未开始执行的插入或更新任务会合并后续的更新，只将最新的数据写入db；还未执行的插入遇到删除时互相抵消，不再访问db */
+    public LocalCacheConfig coalesceWrites(boolean coalesceWrites){
+        this.coalesceWrites = coalesceWrites;
+        return this;
+    }
+
+    /** 是否物化条件查询结果。开启后条件查询缓存同时保存实体对象的引用，并随插入、更新、删除同步更新，命中时直接返回不可修改的结果，不再逐个查询主键缓存 */
+    public LocalCacheConfig materializeConditions(boolean materializeConditions){
+        this.materializeConditions = materializeConditions;
+        return this;
+    }
+
+    /** 使用虚拟线程执行查询任务时，单表最多同时执行的查询任务数; 限制慢查询较多的表占用过多的数据库连接 */
+    public LocalCacheConfig maxConcurrentSelects(int maxConcurrentSelects){
+        this.maxConcurrentSelects = maxConcurrentSelects;
+        return this;
+    }
+
+    /** 提前刷新系数, 范围0~1。命中缓存时剩余的过期时间小于标准过期时间x此系数，则在后台从数据源重新加载，加载完成前继续返回缓存中的旧数据，热点数据过期时不会阻塞查询; 为0时不提前刷新 */
+    public LocalCacheConfig refreshAheadRate(double rate){
+        refreshAheadRate = rate;
+        return this;
+    }
+
+    /** 主键负缓存的有效期秒数。主键查询在数据源中不存在时记录此主键，有效期内再次查询直接返回null不访问数据源; 插入数据时立即失效。为0时不开启 */
+    public LocalCacheConfig negativeCacheSeconds(long seconds){
+        negativeCacheSeconds = seconds;
+        return this;
+    }
+
+    /** 主键负缓存最多记录的主键数量, 限制负缓存的内存占用; 达到上限后淘汰最早记录的主键 */
+    public LocalCacheConfig negativeCacheMaxKeys(int maxKeys){
+        negativeCacheMaxKeys = maxKeys;
+        return this;
+    }
     // =================== 可以单表单独配置的参数 end ===================
 
     /** 执行查询任务线程数 */
@@ -146,19 +227,116 @@ public class LocalCacheConfig extends SingleTableCacheConfig{
         return this;
     }
 
-    /** 单轮检测过期最大条目数，配置的越大则会越及时的移除过期数据，但单轮检测所需的时间会更长 */
+    /**
+     * 是否使用工作窃取的任务执行器
+     * 默认每个执行线程独占一个阻塞队列; 开启后任务提交到数量更多的无锁队列中，提交任务不需要加锁，空闲线程会执行其他队列中的任务，适合增删改任务突发较多的场景
+     */
+    public LocalCacheConfig workStealingExecutor(boolean workStealing){
+        workStealingExecutor = workStealing;
+        return this;
+    }
+
+    /**
+     * 是否使用虚拟线程执行查询任务
+     * 默认查询任务由{@link #selectThreadCount}个线程执行，慢查询会阻塞所有表的其他查询; 开启后每张表的查询任务由虚拟线程按需执行，
+     * 单表的并发数由{@link #maxConcurrentSelects}限制，不同表、不同主键的查询互不阻塞; 增删改任务仍由原执行器按顺序执行
+     * 虚拟线程需要jdk21及以上，更低版本的jdk开启后使用按需创建的普通线程代替
+     */
+    public LocalCacheConfig virtualThreadSelects(boolean virtualThreadSelects){
+        this.virtualThreadSelects = virtualThreadSelects;
+        return this;
+    }
+
+    /** 批量增删改操作的最大条目数, 执行时会从任务队列中收集同表同操作的任务合并为一次批量操作 */
+    public LocalCacheConfig maxBatchSize(int batchSize){
+        maxBatchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * 批量增删改操作未满时等待后续任务的时间窗口毫秒数, 为0时不等待
+     * 设置后批量操作可以合并更多的任务，减少访问db的次数，但会增加写入db的延迟，并且等待期间此执行队列中的其他任务也会延后执行
+     */
+    public LocalCacheConfig batchWindowMs(long ms){
+        batchWindowMs = ms;
+        return this;
+    }
+
+    /**
+     * 是否在保存缓存时按字节数限制缓存总大小
+     * 默认只在定时汇总内存占用后，内存不足时额外卸载部分即将过期的数据，两次汇总之间缓存可能大幅超出{@link #maxCacheBytes};
+     * 开启后每次保存缓存时都会检查总大小，超出时按W-TinyLFU策略淘汰访问频率低的数据，过期机制仍然同时生效
+     */
+    public LocalCacheConfig sizeBoundedEviction(boolean sizeBoundedEviction){
+        this.sizeBoundedEviction = sizeBoundedEviction;
+        return this;
+    }
+
+    /**
+     * 缓存运行指标的采集实现, 默认为空实现
+     * 可设置为{@link yushanmufeng.localcache.metrics.InMemoryCacheMetrics}在内存中汇总并通过JMX查看，或自行实现对接其他监控系统
+     */
+    public LocalCacheConfig metrics(ICacheMetrics metrics){
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * 增删改操作写日志的目录, 默认为null不开启
+     * 默认增删改操作只更新缓存后立即返回，异步写入数据源前进程退出会丢失这些数据; 开启后每次操作返回前先将记录追加到写日志并刷盘，
+     * 多个线程同时写入时合并为一次刷盘; 重启时将未完成的记录重新写入数据源, 可能重复写入，数据源的增删改需要允许重复执行
+     * 实体对象通过{@link yushanmufeng.localcache.datasource.TableDataSource#encodeEntity}序列化
+     */
+    public LocalCacheConfig writeJournalDir(String dir){
+        this.writeJournalDir = dir;
+        return this;
+    }
+
+    /**
+     * 缓存快照的目录, 默认为null不开启
+     * 开启后停止时将所有表未过期的缓存数据写入快照文件，启动时并行恢复各表的缓存，重启后不需要再从数据源重新加载
+     * 快照恢复后即删除; 停机期间数据源被其他程序修改时，恢复的缓存在过期前可能是旧数据
+     */
+    public LocalCacheConfig snapshotDir(String dir){
+        this.snapshotDir = dir;
+        return this;
+    }
+
+    /**
+     * 缓存预热最多使用缓存空间的百分比, 达到后停止预热; 计算方式与自适应过期的负载百分比相同，默认与{@link #testPercentL1}一致
+     */
+    public LocalCacheConfig warmUpMaxPercent(int percent){
+        warmUpMaxPercent = percent;
+        return this;
+    }
+
+    /** 缓存预热时最多同时加载的表数量, 每张表由一个线程加载 */
+    public LocalCacheConfig warmUpThreads(int threads){
+        warmUpThreads = threads;
+        return this;
+    }
+
+    /**
+     * 单轮检测过期最大条目数
+     * @deprecated 检测过期已改为通过过期索引移除所有过期数据，此配置不再生效
+     */
+    @Deprecated
     public LocalCacheConfig oneRollCheckMax(int checkCount){
         oneRollCheckMax = checkCount;
         return this;
     }
 
-    /** 多久计算汇总一次单表的内存占用 */
+    /**
+     * 多久计算汇总一次单表的内存占用
+     * @deprecated 内存占用已改为每次保存和移除缓存时增量更新，此配置不再生效
+     */
+    @Deprecated
     public LocalCacheConfig sumOneTableMemMinutes(long minutes){
         sumOneTableMemMs = minutes * 60 * 1000;
         return this;
     }
 
-    /** 多久计算汇总一次所有表的内存占用 */
+    /** 多久打印一次所有表的内存占用 */
     public LocalCacheConfig sumAllTableMemMinutes(long minutes){
         sumAllTableMemMs = minutes * 60 * 1000;
         return this;
@@ -13,13 +13,36 @@ public class SingleTableCacheConfig {
     public boolean useDynamicRate;
     /** 是否使用严格过期模式。因为数据过期后不会及时从内存中卸载，严格过期模式下这些数据会在过期后不可用，并在下次访问时从缓存中移除；非严格模式下，过期数据如果还未被卸载，再次被访问时依然可用 */
     public boolean strictExpireMode;
-
+    /** 锁分段数量。单表的原子操作按CacheKey的hash划分到不同的锁段中，不同段的操作可以并行执行; 为1时整表共用一把锁 */
+    public int lockStripes;
+    /** 是否开启无锁读。开启后主键查询命中缓存且该主键没有进行中的增删改查任务时，直接读取缓存而不加锁；未命中或有进行中的任务时才走加锁的查询逻辑 */
+    public boolean optimisticRead;
+    /** 是否合并写操作。开启后同一主键还未开始执行的插入或更新任务会合并后续的更新，只将最新的数据写入db；还未执行的插入遇到删除时互相抵消，不再访问db */
+    public boolean coalesceWrites;
+    /** 是否物化条件查询结果。开启后条件查询缓存同时保存实体对象的引用，并随插入、更新、删除同步更新，命中时直接返回不可修改的结果，不再逐个查询主键缓存 */
+    public boolean materializeConditions;
+    /** 使用虚拟线程执行查询任务时，单表最多同时执行的查询任务数 */
+    public int maxConcurrentSelects;
+    /** 提前刷新系数。命中缓存时剩余的过期时间小于标准过期时间x此系数，则在后台从数据源重新加载，加载完成前继续返回缓存中的旧数据; 为0时不提前刷新 */
+    public double refreshAheadRate;
+    /** 主键负缓存的有效期秒数, 为0时不缓存数据源中不存在的主键 */
+    public long negativeCacheSeconds;
+    /** 主键负缓存最多记录的主键数量 */
+    public int negativeCacheMaxKeys;
 
     public SingleTableCacheConfig(){
         this.expireMinutes(60)
                 .strictExpireMode(false)
                 .useDynamicRate(false)
                 .renewalRate(0.75)
+                .lockStripes(1)
+                .optimisticRead(true)
+                .coalesceWrites(false)
+                .materializeConditions(false)
+                .maxConcurrentSelects(64)
+                .refreshAheadRate(0)
+                .negativeCacheSeconds(0)
+                .negativeCacheMaxKeys(100000)
         ;
     }
 
@@ -53,4 +76,52 @@ public class SingleTableCacheConfig {
         return this;
     }
 
+    /** 锁分段数量, 会向上取整为2的幂, 最大64。单表的原子操作按CacheKey的hash划分到不同的锁段中，不同段的操作可以并行执行; 为1时整表共用一把锁 */
+    public SingleTableCacheConfig lockStripes(int stripes){
+        lockStripes = stripes;
+        return this;
+    }
+
+    /** 是否开启无锁读。开启后主键查询命中缓存且该主键没有进行中的增删改查任务时，直接读取缓存而不加锁；未命中或有进行中的任务时才走加锁的查询逻辑 */
+    public SingleTableCacheConfig optimisticRead(boolean optimisticRead){
+        this.optimisticRead = optimisticRead;
+        return this;
+    }
+
+    /** 是否合并写操作。开启后同一主键还未开始执行的插入或更新任务会合并后续的更新，只将最新的数据写入db；还未执行的插入遇到删除时互相抵消，不再访问db */
+    public SingleTableCacheConfig coalesceWrites(boolean coalesceWrites){
+        this.coalesceWrites = coalesceWrites;
+        return this;
+    }
+
+    /** 是否物化条件查询结果。开启后条件查询缓存同时保存实体对象的引用，并随插入、更新、删除同步更新，命中时直接返回不可修改的结果，不再逐个查询主键缓存 */
+    public SingleTableCacheConfig materializeConditions(boolean materializeConditions){
+        this.materializeConditions = materializeConditions;
+        return this;
+    }
+
+    /** 使用虚拟线程执行查询任务时，单表最多同时执行的查询任务数; 限制慢查询较多的表占用过多的数据库连接 */
+    public SingleTableCacheConfig maxConcurrentSelects(int maxConcurrentSelects){
+        this.maxConcurrentSelects = maxConcurrentSelects;
+        return this;
+    }
+
+    /** 提前刷新系数, 范围0~1。命中缓存时剩余的过期时间小于标准过期时间x此系数，则在后台从数据源重新加载，加载完成前继续返回缓存中的旧数据，热点数据过期时不会阻塞查询; 为0时不提前刷新 */
+    public SingleTableCacheConfig refreshAheadRate(double rate){
+        refreshAheadRate = rate;
+        return this;
+    }
+
+    /** 主键负缓存的有效期秒数。主键查询在数据源中不存在时记录此主键，有效期内再次查询直接返回null不访问数据源; 插入数据时立即失效。为0时不开启 */
+    public SingleTableCacheConfig negativeCacheSeconds(long seconds){
+        negativeCacheSeconds = seconds;
+        return this;
+    }
+
+    /** 主键负缓存最多记录的主键数量, 限制负缓存的内存占用; 达到上限后淘汰最早记录的主键 */
+    public SingleTableCacheConfig negativeCacheMaxKeys(int maxKeys){
+        negativeCacheMaxKeys = maxKeys;
+        return this;
+    }
+
 }
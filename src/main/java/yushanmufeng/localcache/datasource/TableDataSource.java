@@ -4,8 +4,11 @@ import yushanmufeng.localcache.CacheKey;
 import yushanmufeng.localcache.Cacheable;
 import yushanmufeng.localcache.config.LocalCacheConfig;
 import yushanmufeng.localcache.task.TaskContext;
+import yushanmufeng.localcache.util.EntityCodec;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * 配置可缓存的表数据源
@@ -34,9 +37,35 @@ public interface TableDataSource<T extends Cacheable> {
         return null;
     }
 
+    /**
+     * 根据多个主键批量查询, 默认实现为逐个调用{@link #selectByPK}; 数据源支持批量查询时(如 where id in (...))建议重写此方法
+     * @param primaryKeys 要查询的主键列表, 不会为空
+     * @return 查询到的实体对象, 不存在的主键不需要返回, 顺序不限
+     */
+    default List<T> selectByPKs(List<Object> primaryKeys){
+        List<T> results = new ArrayList<>(primaryKeys.size());
+        for(Object primaryKey : primaryKeys){
+            T entity = selectByPK(primaryKey);
+            if(entity != null){
+                results.add(entity);
+            }
+        }
+        return results;
+    }
+
     /** 根据缓存键值查询数据，需要对所有支持的情况都重写 */
     List<T> select(CacheKey key);
 
+    /**
+     * 缓存预热时逐条读取要缓存的数据, 默认不预热; 调用{@link yushanmufeng.localcache.LocalCacheFacade#warmUp}时执行
+     * 每读取一条数据调用一次consumer，不需要一次性读取到内存中(如使用游标分批查询); 缓存占用达到预热上限时consumer会抛出异常结束加载，实现中不要捕获此异常
+     * @param consumer 接收读取的实体对象
+     * @return 是否读取了表中的全部数据; 返回true时会根据所有实体对象的{@link #getConditionKeys}同时预热条件查询缓存
+     */
+    default boolean preload(Consumer<T> consumer){
+        return false;
+    }
+
     /**
      * 插入数据
      * @param contexts 操作相关的上下文对象
@@ -92,4 +121,94 @@ public interface TableDataSource<T extends Cacheable> {
         return config.strictExpireMode;
     }
 
+    /**
+     * 锁分段数量,优先级大于全局配置，覆写此方法可以覆盖全局配置。访问频繁的热点表可以配置更多的分段来提升并发
+     * @return 锁分段数量, 为1时整表共用一把锁
+     */
+    default int lockStripes(LocalCacheConfig config){
+        return config.lockStripes;
+    }
+
+    /**
+     * 是否开启主键查询的无锁读,优先级大于全局配置，覆写此方法可以覆盖全局配置
+     * @return 是否开启无锁读
+     */
+    default boolean optimisticRead(LocalCacheConfig config){
+        return config.optimisticRead;
+    }
+
+    /**
+     * 是否合并同一主键的写操作,优先级大于全局配置，覆写此方法可以覆盖全局配置。频繁更新的热点数据(如计数器)开启后可以大幅减少写db的次数
+     * @return 是否合并写操作
+     */
+    default boolean coalesceWrites(LocalCacheConfig config){
+        return config.coalesceWrites;
+    }
+
+    /**
+     * 是否物化条件查询结果,优先级大于全局配置，覆写此方法可以覆盖全局配置。条件查询频繁且结果集较大的表开启后可以减少每次查询的开销
+     * 开启后条件查询命中缓存时返回的map不可修改
+     * @return 是否物化条件查询结果
+     */
+    default boolean materializeConditions(LocalCacheConfig config){
+        return config.materializeConditions;
+    }
+
+    /**
+     * 提前刷新系数,优先级大于全局配置，覆写此方法可以覆盖全局配置。读多写少且过期后加载较慢的表开启后，热点数据过期时不会出现阻塞的查询
+     * @return 提前刷新系数, 为0时不提前刷新
+     */
+    default double refreshAheadRate(LocalCacheConfig config){
+        return config.refreshAheadRate;
+    }
+
+    /**
+     * 主键负缓存的有效期秒数,优先级大于全局配置，覆写此方法可以覆盖全局配置。经常查询不存在的主键的表开启后，这些查询不会每次都访问数据源
+     * 有效期内绕过此组件直接写入数据源的数据会被当作不存在
+     * @return 负缓存有效期秒数, 为0时不开启
+     */
+    default long negativeCacheSeconds(LocalCacheConfig config){
+        return config.negativeCacheSeconds;
+    }
+
+    /**
+     * 主键负缓存最多记录的主键数量,优先级大于全局配置，覆写此方法可以覆盖全局配置
+     * @return 最多记录的主键数量
+     */
+    default int negativeCacheMaxKeys(LocalCacheConfig config){
+        return config.negativeCacheMaxKeys;
+    }
+
+    /**
+     * 使用虚拟线程执行查询任务时，此表最多同时执行的查询任务数,优先级大于全局配置，覆写此方法可以覆盖全局配置
+     * @return 最大并发查询数
+     */
+    default int maxConcurrentSelects(LocalCacheConfig config){
+        return config.maxConcurrentSelects;
+    }
+
+    /**
+     * 开启写日志或缓存快照时，将实体对象序列化后写入文件, 默认序列化为json; 实体类有不适合json的字段时可以重写
+     * @return 序列化后的数据
+     */
+    default byte[] encodeEntity(T entity){
+        return EntityCodec.toJson(entity);
+    }
+
+    /**
+     * 重启时将写日志、缓存快照中的数据还原为实体对象, 与{@link #encodeEntity}对应
+     * @return 实体对象
+     */
+    default T decodeEntity(byte[] bytes){
+        return EntityCodec.fromJson(bytes, getEntityClass());
+    }
+
+    /**
+     * 主键是否为long类型(如bigint)。返回true时主键缓存使用以long为键的开放寻址数组保存，可以减少每条缓存的内存占用; 非Long类型的主键仍使用默认的存储方式
+     * @return 是否使用long类型主键的存储结构
+     */
+    default boolean isLongPrimaryKey(){
+        return false;
+    }
+
 }
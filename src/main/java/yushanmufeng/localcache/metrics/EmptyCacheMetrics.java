@@ -0,0 +1,33 @@
+package yushanmufeng.localcache.metrics;
+
+import yushanmufeng.localcache.TableDescribe;
+import yushanmufeng.localcache.util.ITaskExecutor;
+
+/** 缓存运行指标采集的空实现 */
+public class EmptyCacheMetrics implements ICacheMetrics {
+
+    @Override
+    public void bindTable(TableDescribe<?> tableDesc) {
+    }
+
+    @Override
+    public void bindExecutors(String name, ITaskExecutor<?>[] executors) {
+    }
+
+    @Override
+    public void recordLoad(String table, String method, long nanos) {
+    }
+
+    @Override
+    public void recordTaskWait(String executorName, long nanos) {
+    }
+
+    @Override
+    public void recordBatch(String table, String operation, int size) {
+    }
+
+    @Override
+    public void recordRemoval(String table, RemovalCause cause, int count) {
+    }
+
+}
@@ -0,0 +1,101 @@
+package yushanmufeng.localcache.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 数值分布的近似统计
+ * 按2的幂划分区间，每个区间再等分为4个子区间，每个子区间一个LongAdder计数器，记录时不加锁; 百分位数返回所在子区间的上限，误差不超过25%
+ */
+public class Histogram {
+
+    /** 每个2的幂区间划分的子区间数的位数 */
+    private static final int SUB_BITS = 2;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    /** 小于SUB_COUNT的值各占一个区间, 其余每个2的幂区间各占SUB_COUNT个区间 */
+    private static final int BUCKET_COUNT = SUB_COUNT + (63 - SUB_BITS) * SUB_COUNT;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram(){
+        for(int i = 0; i < BUCKET_COUNT; i++){
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /** 记录一个非负的值 */
+    public void record(long value){
+        if(value < 0){
+            value = 0;
+        }
+        buckets[indexOf(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /** 记录的次数 */
+    public long count(){
+        return count.sum();
+    }
+
+    /** 平均值, 无记录时返回0 */
+    public double mean(){
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /** 最大值 */
+    public long max(){
+        return max.get();
+    }
+
+    /**
+     * 百分位数
+     * @param percent 0~100
+     * @return 所在区间的上限, 不超过最大值; 无记录时返回0
+     */
+    public long percentile(double percent){
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++){
+            total += counts[i] = buckets[i].sum();
+        }
+        if(total == 0){
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percent / 100);
+        long seen = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++){
+            seen += counts[i];
+            if(seen >= rank && counts[i] > 0){
+                return Math.min(upperBound(i), max());
+            }
+        }
+        return max();
+    }
+
+    /** 值所在的区间下标 */
+    private static int indexOf(long value){
+        if(value < SUB_COUNT){
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return SUB_COUNT + (exponent - SUB_BITS) * SUB_COUNT + sub;
+    }
+
+    /** 区间包含的最大值 */
+    private static long upperBound(int index){
+        if(index < SUB_COUNT){
+            return index;
+        }
+        int shift = (index - SUB_COUNT) / SUB_COUNT;
+        long mantissa = SUB_COUNT + (index - SUB_COUNT) % SUB_COUNT + 1;
+        return shift == 63 - SUB_BITS && mantissa == 2 * SUB_COUNT ? Long.MAX_VALUE : (mantissa << shift) - 1;
+    }
+
+}
@@ -0,0 +1,58 @@
+package yushanmufeng.localcache.metrics;
+
+import yushanmufeng.localcache.TableDescribe;
+import yushanmufeng.localcache.util.ITaskExecutor;
+
+/**
+ * 缓存运行指标的采集接口
+ * 通过{@link yushanmufeng.localcache.config.LocalCacheConfig#metrics}注册，默认为空实现; 可使用{@link InMemoryCacheMetrics}在内存中汇总并通过JMX查看，或自行实现对接其他监控系统
+ * 除绑定方法外，其他方法会在缓存的读写和异步任务执行过程中调用，实现时不能阻塞且需要保证线程安全
+ */
+public interface ICacheMetrics {
+
+    /**
+     * 初始化时绑定一张表, 实现类可以从表描述中读取命中率、缓存条目数和内存占用
+     * @see TableDescribe#recentHitRate()
+     * @see TableDescribe#entryCount()
+     * @see TableDescribe#memBytes
+     */
+    void bindTable(TableDescribe<?> tableDesc);
+
+    /**
+     * 初始化时绑定一组执行器, 实现类可以从中读取队列中等待执行的任务数
+     * @param name 执行器组名字, select或nonSelect
+     */
+    void bindExecutors(String name, ITaskExecutor<?>[] executors);
+
+    /**
+     * 记录一次访问数据源的耗时
+     * @param table 表名(实体类名)
+     * @param method 数据源方法名, 如selectByPK、selectByPKs、select、insert、update、delete
+     * @param nanos 耗时纳秒数
+     */
+    void recordLoad(String table, String method, long nanos);
+
+    /**
+     * 记录异步任务从提交到开始执行的等待时间
+     * @param executorName 执行器组名字, select或nonSelect
+     * @param nanos 等待纳秒数
+     */
+    void recordTaskWait(String executorName, long nanos);
+
+    /**
+     * 记录一次批量增删改操作合并的任务数
+     * @param table 表名(实体类名)
+     * @param operation 操作名, insert、update或delete
+     * @param size 合并的任务数
+     */
+    void recordBatch(String table, String operation, int size);
+
+    /**
+     * 记录移除的缓存数据条数
+     * @param table 表名(实体类名)
+     * @param cause 移除原因
+     * @param count 移除条数
+     */
+    void recordRemoval(String table, RemovalCause cause, int count);
+
+}
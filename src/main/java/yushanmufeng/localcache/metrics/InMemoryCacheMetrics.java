@@ -0,0 +1,208 @@
+package yushanmufeng.localcache.metrics;
+
+import yushanmufeng.localcache.LocalCacheFacade;
+import yushanmufeng.localcache.TableDescribe;
+import yushanmufeng.localcache.util.ITaskExecutor;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 在内存中汇总缓存运行指标，可以通过{@link #snapshot()}读取，或调用{@link #registerMBean(String)}后通过JMX查看
+ * 记录指标只做无锁计数; 读取时才计算命中率、队列长度、百分位数等
+ *
+ * 指标名称:
+ * table.{表名}.hitRate / entries / bytes          最近的命中率(百分比)、缓存条目数、内存占用字节数
+ * table.{表名}.removal.{原因}                      各原因移除的缓存条目数, 见{@link RemovalCause}
+ * table.{表名}.load.{方法名}.count / meanMs / p50Ms / p99Ms / maxMs    访问数据源的次数和耗时分布
+ * table.{表名}.batch.{操作名}.count / mean / p50 / p99 / max           批量增删改操作合并的任务数分布
+ * executor.{执行器组}.queueDepth                   队列中等待执行的任务数
+ * executor.{执行器组}.wait.count / meanMs / p50Ms / p99Ms / maxMs      任务从提交到开始执行的等待时间分布
+ */
+public class InMemoryCacheMetrics implements ICacheMetrics, DynamicMBean {
+
+    private static final double NANOS_PER_MS = 1000_000.0;
+
+    private final List<TableDescribe<?>> tables = new CopyOnWriteArrayList<>();
+    private final Map<String, ITaskExecutor<?>[]> executors = new ConcurrentHashMap<>();
+    /** 耗时的单位为纳秒 */
+    private final Map<String, Histogram> loadHistograms = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> waitHistograms = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> batchHistograms = new ConcurrentHashMap<>();
+    private final Map<String, EnumMap<RemovalCause, LongAdder>> removals = new ConcurrentHashMap<>();
+
+    @Override
+    public void bindTable(TableDescribe<?> tableDesc) {
+        tables.add(tableDesc);
+    }
+
+    @Override
+    public void bindExecutors(String name, ITaskExecutor<?>[] executors) {
+        this.executors.put(name, executors);
+    }
+
+    @Override
+    public void recordLoad(String table, String method, long nanos) {
+        histogram(loadHistograms, "table." + table + ".load." + method).record(nanos);
+    }
+
+    @Override
+    public void recordTaskWait(String executorName, long nanos) {
+        histogram(waitHistograms, "executor." + executorName + ".wait").record(nanos);
+    }
+
+    @Override
+    public void recordBatch(String table, String operation, int size) {
+        histogram(batchHistograms, "table." + table + ".batch." + operation).record(size);
+    }
+
+    @Override
+    public void recordRemoval(String table, RemovalCause cause, int count) {
+        if(count <= 0){
+            return;
+        }
+        removals.computeIfAbsent(table, k -> {
+            EnumMap<RemovalCause, LongAdder> counters = new EnumMap<>(RemovalCause.class);
+            for(RemovalCause c : RemovalCause.values()){
+                counters.put(c, new LongAdder());
+            }
+            return counters;
+        }).get(cause).add(count);
+    }
+
+    private static Histogram histogram(Map<String, Histogram> histograms, String name){
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /**
+     * 返回当前所有指标的值, 按名称排序
+     */
+    public Map<String, Number> snapshot(){
+        Map<String, Number> values = new TreeMap<>();
+        for(TableDescribe<?> tableDesc : tables){
+            String prefix = "table." + tableDesc.entityName;
+            values.put(prefix + ".hitRate", tableDesc.recentHitRate());
+            values.put(prefix + ".entries", tableDesc.entryCount());
+            values.put(prefix + ".bytes", tableDesc.memBytes.sum());
+        }
+        for(Map.Entry<String, EnumMap<RemovalCause, LongAdder>> entry : removals.entrySet()){
+            for(Map.Entry<RemovalCause, LongAdder> counter : entry.getValue().entrySet()){
+                values.put("table." + entry.getKey() + ".removal." + counter.getKey().name().toLowerCase(), counter.getValue().sum());
+            }
+        }
+        for(Map.Entry<String, ITaskExecutor<?>[]> entry : executors.entrySet()){
+            long queueDepth = 0;
+            for(ITaskExecutor<?> executor : entry.getValue()){
+                queueDepth += executor.size();
+            }
+            values.put("executor." + entry.getKey() + ".queueDepth", queueDepth);
+        }
+        for(Map.Entry<String, Histogram> entry : loadHistograms.entrySet()){
+            putTimer(values, entry.getKey(), entry.getValue());
+        }
+        for(Map.Entry<String, Histogram> entry : waitHistograms.entrySet()){
+            putTimer(values, entry.getKey(), entry.getValue());
+        }
+        for(Map.Entry<String, Histogram> entry : batchHistograms.entrySet()){
+            Histogram histogram = entry.getValue();
+            values.put(entry.getKey() + ".count", histogram.count());
+            values.put(entry.getKey() + ".mean", histogram.mean());
+            values.put(entry.getKey() + ".p50", histogram.percentile(50));
+            values.put(entry.getKey() + ".p99", histogram.percentile(99));
+            values.put(entry.getKey() + ".max", histogram.max());
+        }
+        return values;
+    }
+
+    /** 耗时分布转换为毫秒 */
+    private static void putTimer(Map<String, Number> values, String name, Histogram histogram){
+        values.put(name + ".count", histogram.count());
+        values.put(name + ".meanMs", histogram.mean() / NANOS_PER_MS);
+        values.put(name + ".p50Ms", histogram.percentile(50) / NANOS_PER_MS);
+        values.put(name + ".p99Ms", histogram.percentile(99) / NANOS_PER_MS);
+        values.put(name + ".maxMs", histogram.max() / NANOS_PER_MS);
+    }
+
+    /**
+     * 注册到平台MBeanServer, 可通过jconsole等工具查看
+     * @param name ObjectName中的name属性, 同一进程中有多个缓存实例时用于区分
+     */
+    public void registerMBean(String name){
+        try{
+            ObjectName objectName = new ObjectName("yushanmufeng.localcache:type=CacheMetrics,name=" + ObjectName.quote(name));
+            if(!ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)){
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            }
+        }catch (Exception e){
+            LocalCacheFacade.log.error("注册缓存指标MBean失败! name:" + name, e);
+        }
+    }
+
+    // =================== DynamicMBean start ===================
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = snapshot().get(attribute);
+        if(value == null){
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("缓存指标为只读属性");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> values = snapshot();
+        AttributeList list = new AttributeList();
+        for(String attribute : attributes){
+            Number value = values.get(attribute);
+            if(value != null){
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    /** 属性列表随绑定的表和记录的指标增加，每次获取时重新生成 */
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Number> values = snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for(Map.Entry<String, Number> entry : values.entrySet()){
+            attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "本地缓存运行指标", attributes, null, null, null);
+    }
+
+    // =================== DynamicMBean end ===================
+
+}
@@ -0,0 +1,17 @@
+package yushanmufeng.localcache.metrics;
+
+/**
+ * 缓存数据被移除的原因
+ */
+public enum RemovalCause {
+
+    /** 检测过期时移除，或严格过期模式下读到过期数据时移除 */
+    EXPIRED,
+    /** 内存负载过高时，检测过期后额外卸载的即将过期的数据 */
+    MEMORY,
+    /** 开启按大小淘汰时，被W-TinyLFU策略淘汰 */
+    SIZE,
+    /** 删除数据或卸载关联缓存时主动移除 */
+    EXPLICIT
+
+}
@@ -0,0 +1,55 @@
+package yushanmufeng.localcache.store;
+
+import yushanmufeng.localcache.CacheEntry;
+import yushanmufeng.localcache.CacheKey;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 默认的缓存存储结构, 使用ConcurrentHashMap保存任意类型键值的缓存数据
+ */
+public class ConcurrentMapCacheStore implements ICacheStore {
+
+    private final ConcurrentHashMap<CacheKey, CacheEntry> entries;
+
+    public ConcurrentMapCacheStore(int initialCapacity, float loadFactor){
+        entries = new ConcurrentHashMap<>(initialCapacity, loadFactor);
+    }
+
+    @Override
+    public CacheEntry get(CacheKey key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public CacheEntry newEntry(CacheKey key) {
+        return new CacheEntry(key);
+    }
+
+    @Override
+    public void put(CacheEntry entry) {
+        entries.put(entry.getKey(), entry);
+    }
+
+    @Override
+    public void remove(CacheKey key) {
+        entries.remove(key);
+    }
+
+    @Override
+    public boolean remove(CacheEntry entry) {
+        return entries.remove(entry.getKey(), entry);
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void forEach(Consumer<CacheEntry> action) {
+        entries.values().forEach(action);
+    }
+
+}
@@ -0,0 +1,43 @@
+package yushanmufeng.localcache.store;
+
+import yushanmufeng.localcache.CacheEntry;
+import yushanmufeng.localcache.CacheKey;
+
+import java.util.function.Consumer;
+
+/**
+ * 单表缓存数据的存储结构
+ * 读操作允许不加锁并发执行; 同一个key的写操作由调用方在持有该key所在的锁分段时执行，不同key的写操作可能并发
+ */
+public interface ICacheStore {
+
+    /** 查询缓存数据, 不存在时返回null */
+    CacheEntry get(CacheKey key);
+
+    /** 创建一条未保存的缓存数据，赋值完成后再调用{@link #put}保存，由存储结构决定具体的缓存数据类型 */
+    CacheEntry newEntry(CacheKey key);
+
+    /** 保存由{@link #newEntry}创建的缓存数据 */
+    void put(CacheEntry entry);
+
+    /** 移除缓存数据 */
+    void remove(CacheKey key);
+
+    /**
+     * 只有当前保存的仍然是这一条缓存数据时才移除
+     * @return 是否移除成功
+     */
+    boolean remove(CacheEntry entry);
+
+    /** 当前保存的是否仍然是这一条缓存数据 */
+    default boolean contains(CacheEntry entry){
+        return get(entry.getKey()) == entry;
+    }
+
+    /** 缓存数据条数 */
+    int size();
+
+    /** 遍历所有缓存数据 */
+    void forEach(Consumer<CacheEntry> action);
+
+}
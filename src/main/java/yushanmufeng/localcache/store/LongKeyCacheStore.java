@@ -0,0 +1,305 @@
+package yushanmufeng.localcache.store;
+
+import yushanmufeng.localcache.CacheEntry;
+import yushanmufeng.localcache.CacheKey;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * long类型主键的缓存存储结构
+ * 主键缓存保存在以long为键的开放寻址(线性探测)数组中，不需要保存CacheKey、装箱的Long和map节点，减少了每条缓存的内存占用和查询时的指针跳转
+ * 条件查询缓存和非Long类型主键的缓存仍然保存在ConcurrentHashMap中
+ * 数组按主键散列值的高位分为多个分段，每个分段单独加锁和扩容，不同锁分段的写操作不会竞争同一个锁
+ * 读操作不加锁，直接读取分段当前的数组；同一分段的写操作互斥执行，删除数据时只做标记，扩容或标记过多时创建新数组复制数据后整体替换
+ */
+public class LongKeyCacheStore implements ICacheStore {
+
+    /** 已删除的槽位标记, 查询时需要跳过并继续向后探测 */
+    private static final LongCacheEntry TOMBSTONE = new LongCacheEntry(0L);
+    /** 数组中有效数据和删除标记的占比超过此值时扩容或重建数组 */
+    private static final float LOAD_FACTOR = 0.75f;
+    /** 分段数量的位数, 由散列值的最高几位选择分段 */
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    /** 单个分段数组的最大长度, 分段内的下标取散列值高32位的低位，与选择分段的最高几位不重叠 */
+    private static final int MAXIMUM_CAPACITY = 1 << (32 - SEGMENT_BITS);
+
+    /** 保存主键缓存的分段 */
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    /** 条件查询缓存，以及非Long类型主键的缓存 */
+    private final ConcurrentMapCacheStore otherStore;
+
+    public LongKeyCacheStore(int initialCapacity, float mapLoadFactor){
+        otherStore = new ConcurrentMapCacheStore(16, mapLoadFactor);
+        int capacity = tableSizeFor((int)(initialCapacity / SEGMENT_COUNT / LOAD_FACTOR) + 1);
+        for(int i = 0; i < SEGMENT_COUNT; i++){
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    /** long类型主键缓存的数据 */
+    private static final class LongCacheEntry extends CacheEntry {
+
+        private final long pk;
+
+        private LongCacheEntry(long pk){
+            this.pk = pk;
+        }
+
+        /** 不保存CacheKey对象，需要时再创建; 频繁调用的比较和hash使用{@link #pk}，不通过此方法 */
+        @Override
+        public CacheKey getKey() {
+            return new CacheKey(true, pk);
+        }
+
+        /** 与CacheKey中单个主键的hash计算结果相同 */
+        @Override
+        public int keyHash() {
+            return 31 + Long.hashCode(pk);
+        }
+    }
+
+    /** 是否为保存在数组中的Long类型主键 */
+    private static boolean isLongPk(CacheKey key){
+        return key.isPK && key.keys[0] instanceof Long;
+    }
+
+    private static int tableSizeFor(int c){
+        int n = 16;
+        while(n < c && n < MAXIMUM_CAPACITY){
+            n <<= 1;
+        }
+        return n;
+    }
+
+    /** 主键的乘法散列值, 高位分布均匀 */
+    private static long spread(long pk){
+        return pk * 0x9E3779B97F4A7C15L;
+    }
+
+    /** 主键所在的分段, 取散列值的最高几位 */
+    private Segment segmentFor(long pk){
+        return segments[(int)(spread(pk) >>> (64 - SEGMENT_BITS))];
+    }
+
+    /** 计算主键在分段数组中的起始探测位置, 取散列值高32位中的低位 */
+    private static int indexFor(long pk, int mask){
+        return (int)(spread(pk) >>> 32) & mask;
+    }
+
+    /**
+     * 一个分段的开放寻址数组
+     * 读操作不加锁; 写操作持有分段的对象锁
+     */
+    private static final class Segment {
+
+        /** 保存主键缓存的数组, 长度为2的幂 */
+        private volatile AtomicReferenceArray<LongCacheEntry> table;
+        /** 有效数据数量 */
+        private volatile int size;
+        /** 删除标记数量 */
+        private int tombstones;
+        /** 有效数据和删除标记的数量达到此值时扩容或重建数组 */
+        private int threshold;
+
+        private Segment(int capacity){
+            table = new AtomicReferenceArray<>(capacity);
+            threshold = (int)(capacity * LOAD_FACTOR);
+        }
+
+        private LongCacheEntry get(long pk){
+            AtomicReferenceArray<LongCacheEntry> tab = table;
+            int mask = tab.length() - 1;
+            for(int i = indexFor(pk, mask), n = 0; n <= mask; i = (i + 1) & mask, n++){
+                LongCacheEntry entry = tab.get(i);
+                if(entry == null){
+                    return null;
+                }
+                if(entry != TOMBSTONE && entry.pk == pk){
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        /** 查找主键所在的下标, 只在持有分段锁时调用 */
+        private int indexOf(AtomicReferenceArray<LongCacheEntry> tab, long pk){
+            int mask = tab.length() - 1;
+            for(int i = indexFor(pk, mask), n = 0; n <= mask; i = (i + 1) & mask, n++){
+                LongCacheEntry entry = tab.get(i);
+                if(entry == null){
+                    return -1;
+                }
+                if(entry != TOMBSTONE && entry.pk == pk){
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private synchronized void put(LongCacheEntry newEntry){
+            if(size + tombstones + 1 > threshold){
+                // 有效数据较多时扩容，否则只是删除标记过多，重建数组清理标记
+                AtomicReferenceArray<LongCacheEntry> tab = table;
+                rehash(size + 1 > threshold / 2 && tab.length() < MAXIMUM_CAPACITY ? tab.length() << 1 : tab.length());
+            }
+            AtomicReferenceArray<LongCacheEntry> tab = table;
+            int mask = tab.length() - 1;
+            int firstTombstone = -1;
+            for(int i = indexFor(newEntry.pk, mask); ; i = (i + 1) & mask){
+                LongCacheEntry entry = tab.get(i);
+                if(entry == null){
+                    if(firstTombstone >= 0){    // 复用探测路径上的第一个删除标记位置
+                        tab.set(firstTombstone, newEntry);
+                        tombstones --;
+                    }else{
+                        tab.set(i, newEntry);
+                    }
+                    size ++;
+                    return;
+                }
+                if(entry == TOMBSTONE){
+                    if(firstTombstone < 0) firstTombstone = i;
+                }else if(entry.pk == newEntry.pk){
+                    tab.set(i, newEntry);
+                    return;
+                }
+            }
+        }
+
+        /** 创建新数组并复制所有有效数据, 复制完成后再替换，不影响并发的读操作 */
+        private void rehash(int newCapacity){
+            AtomicReferenceArray<LongCacheEntry> oldTab = table;
+            AtomicReferenceArray<LongCacheEntry> newTab = new AtomicReferenceArray<>(newCapacity);
+            int mask = newCapacity - 1;
+            for(int j = 0; j < oldTab.length(); j++){
+                LongCacheEntry entry = oldTab.get(j);
+                if(entry != null && entry != TOMBSTONE){
+                    int i = indexFor(entry.pk, mask);
+                    while(newTab.get(i) != null){
+                        i = (i + 1) & mask;
+                    }
+                    newTab.set(i, entry);
+                }
+            }
+            tombstones = 0;
+            threshold = (int)(newCapacity * LOAD_FACTOR);
+            table = newTab;
+        }
+
+        /** 移除下标位置的数据, 只在持有分段锁时调用 */
+        private void removeAt(AtomicReferenceArray<LongCacheEntry> tab, int i){
+            int mask = tab.length() - 1;
+            if(tab.get((i + 1) & mask) == null){    // 下一个位置为空时，没有其他数据的探测路径经过此位置，可以直接置空
+                tab.set(i, null);
+            }else{
+                tab.set(i, TOMBSTONE);
+                tombstones ++;
+            }
+            size --;
+        }
+
+        private synchronized void remove(long pk){
+            AtomicReferenceArray<LongCacheEntry> tab = table;
+            int i = indexOf(tab, pk);
+            if(i >= 0){
+                removeAt(tab, i);
+            }
+        }
+
+        private synchronized boolean remove(LongCacheEntry entry){
+            AtomicReferenceArray<LongCacheEntry> tab = table;
+            int i = indexOf(tab, entry.pk);
+            if(i >= 0 && tab.get(i) == entry){
+                removeAt(tab, i);
+                return true;
+            }
+            return false;
+        }
+
+        private void forEach(Consumer<CacheEntry> action){
+            AtomicReferenceArray<LongCacheEntry> tab = table;
+            for(int i = 0; i < tab.length(); i++){
+                LongCacheEntry entry = tab.get(i);
+                if(entry != null && entry != TOMBSTONE){
+                    action.accept(entry);
+                }
+            }
+        }
+    }
+
+    @Override
+    public CacheEntry get(CacheKey key) {
+        if(isLongPk(key)){
+            long pk = (Long)key.keys[0];
+            return segmentFor(pk).get(pk);
+        }
+        return otherStore.get(key);
+    }
+
+    @Override
+    public boolean contains(CacheEntry entry) {
+        if(entry instanceof LongCacheEntry){
+            long pk = ((LongCacheEntry)entry).pk;
+            return segmentFor(pk).get(pk) == entry;
+        }
+        return otherStore.contains(entry);
+    }
+
+    @Override
+    public CacheEntry newEntry(CacheKey key) {
+        if(isLongPk(key)){
+            return new LongCacheEntry((Long)key.keys[0]);
+        }
+        return otherStore.newEntry(key);
+    }
+
+    @Override
+    public void put(CacheEntry entry) {
+        if(entry instanceof LongCacheEntry){
+            LongCacheEntry longEntry = (LongCacheEntry)entry;
+            segmentFor(longEntry.pk).put(longEntry);
+        }else{
+            otherStore.put(entry);
+        }
+    }
+
+    @Override
+    public void remove(CacheKey key) {
+        if(isLongPk(key)){
+            long pk = (Long)key.keys[0];
+            segmentFor(pk).remove(pk);
+        }else{
+            otherStore.remove(key);
+        }
+    }
+
+    @Override
+    public boolean remove(CacheEntry entry) {
+        if(entry instanceof LongCacheEntry){
+            LongCacheEntry longEntry = (LongCacheEntry)entry;
+            return segmentFor(longEntry.pk).remove(longEntry);
+        }
+        return otherStore.remove(entry);
+    }
+
+    @Override
+    public int size() {
+        int size = otherStore.size();
+        for(Segment segment : segments){
+            size += segment.size;
+        }
+        return size;
+    }
+
+    @Override
+    public void forEach(Consumer<CacheEntry> action) {
+        for(Segment segment : segments){
+            segment.forEach(action);
+        }
+        otherStore.forEach(action);
+    }
+
+}
@@ -0,0 +1,18 @@
+package yushanmufeng.localcache.task;
+
+import yushanmufeng.localcache.Cacheable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 根据多个主键批量查询的结果, 由批量查询任务写入，批量查询中各主键的查询任务读取
+ */
+public class BatchSelectResults {
+
+    /** 查询到的实体对象 [主键, 实体对象] */
+    final Map<Object, Cacheable> entities = new HashMap<>();
+    /** 批量查询发生的异常, 查询成功时为null */
+    volatile RuntimeException error;
+
+}
@@ -3,32 +3,40 @@ package yushanmufeng.localcache.task;
 import yushanmufeng.localcache.CacheKey;
 import yushanmufeng.localcache.Cacheable;
 import yushanmufeng.localcache.TableDescribe;
+import yushanmufeng.localcache.WriteJournal;
 import yushanmufeng.localcache.atomic.IAtomicLogic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import yushanmufeng.localcache.util.SimpleTaskExecutor;
+import yushanmufeng.localcache.util.ITaskExecutor;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 针对异步DB查询任务在函数体
  * 增删改操作的异步任务允许对操作进行合并，通过batch操作的方式减少访问db次数，提升高并发下的效率
  * 将函数拆分成两部分，第一部分为对数据库的异步操作，第二部分为针对返回值的自定义处理。第一部分允许合并, 被合并过的任务可以直接执行第二部分
- * 限制：可以合并的db任务为同表的连续相同操作，比如连续的的对A表的更新操作、连续的对B表的插入操作等
+ * 合并规则：从队列中收集同表的相同操作，比如对A表的所有更新操作，中间可以间隔同表其他操作的任务;
+ * 但同一主键排在前面的其他操作还未执行时，不会把此主键后面的操作提前合并，保证同一主键的写操作顺序不变;
+ * 遇到其他表还未执行的写操作时停止收集，不同表之间的写操作顺序不变(例如有外键依赖的表)
  * @param <V>
  */
 public abstract class MergingCallable<V> implements Callable<V> {
 
     public static Logger log = LoggerFactory.getLogger(MergingCallable.class);
 
+    /** 收集一次批量操作最多检查的队列任务数为批量操作最大条目数的倍数, 防止队列很长时每次批量都遍历整个队列 */
+    private static final int MAX_SCAN_FACTOR = 4;
+
     /** 异步任务类型，增删改查等 */
     protected int taskType;
     /** 此异步任务所使用的执行器 */
-    private SimpleTaskExecutor<MergingFutureTask<?>> executor;
+    private ITaskExecutor<MergingFutureTask<?>> executor;
 
     protected TableDescribe<Cacheable> tableDesc;
     protected TaskContext context;
@@ -37,12 +45,18 @@ public abstract class MergingCallable<V> implements Callable<V> {
 
     /** s1是否已经被合并处理, 如果已经被前面的任务合并，则等队列排到此任务实际执行时可以跳过s1 */
     private boolean isS1Finish;
+    /** 写操作是否已经开始执行(包括被前面的任务合并执行), 开始执行后不能再合并或取消 */
+    private boolean isWriteStarted;
+    /** 写操作是否已被取消, 取消后不再访问db, 但s2依然会执行 */
+    private boolean isWriteCancelled;
+    /** 任务的创建时间纳秒数, 用于统计在执行器队列中的等待时间 */
+    private final long createNanos = System.nanoTime();
 
     /**
      *
      * @param taskType
      */
-    public MergingCallable(int taskType, SimpleTaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity){
+    public MergingCallable(int taskType, ITaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity){
         this.taskType = taskType;
         this.executor = executor;
         this.tableDesc = tableDesc;
@@ -59,8 +73,53 @@ public abstract class MergingCallable<V> implements Callable<V> {
 
 
 
+    public int getTaskType(){
+        return taskType;
+    }
+
+    /**
+     * 写操作还未开始执行时，合并后续的写操作，改为写入最新的实体对象
+     * @param journalRecord 后续写操作的写日志记录, 合并成功时随此任务一起完成; 可以为null
+     * @return 是否合并成功，已经开始执行时返回false
+     */
+    public synchronized boolean coalesce(Cacheable entity, WriteJournal.Record journalRecord){
+        if(isWriteStarted){
+            return false;
+        }
+        this.entity = entity;
+        context.addJournalRecord(journalRecord);
+        return true;
+    }
+
+    /**
+     * 写操作还未开始执行时取消对db的操作
+     * @param journalRecord 抵消此操作的写操作的写日志记录, 取消成功时随此任务一起完成; 可以为null
+     * @return 是否取消成功，已经开始执行时返回false
+     */
+    public synchronized boolean cancelWrite(WriteJournal.Record journalRecord){
+        if(isWriteStarted){
+            return false;
+        }
+        isWriteCancelled = true;
+        context.addJournalRecord(journalRecord);
+        return true;
+    }
+
+    /**
+     * 标记写操作开始执行
+     * @return 是否需要执行, 已被取消时返回false
+     */
+    private synchronized boolean startWrite(){
+        isWriteStarted = true;
+        return !isWriteCancelled;
+    }
+
     @Override
     public V call() {
+        if(executor != null && taskType != IAtomicLogic.EMPTY_TASK){
+            boolean isSelect = taskType == IAtomicLogic.SELECT_BY_PK || taskType == IAtomicLogic.SELECT_BY_PKS || taskType == IAtomicLogic.SELECT_BY_CONDITION;
+            tableDesc.metrics.recordTaskWait(isSelect ? "select" : "nonSelect", System.nanoTime() - createNanos);
+        }
         if(!isS1Finish){    // s1已被前面的批量执行合并，不需要重复执行
             subCall1();
         }
@@ -72,27 +131,37 @@ public abstract class MergingCallable<V> implements Callable<V> {
      * 此方法默认实现对db操作的合并方法
      */
     public void subCall1(){
-        // 合并连续的同表同操作的查询
-        List<TaskContext> contexts = new ArrayList<>(Arrays.asList(context));
-        List<Cacheable> entities = new ArrayList<>(Arrays.asList(entity));
-        Iterator<MergingFutureTask<?>> iterator = executor.iterator();
-        int count = 0;  // 限制批量SQL最大条目数
-        while (iterator.hasNext()){
-            count ++;
-            MergingFutureTask<?> task = iterator.next();
-            MergingCallable<?> otherCallable = task.getMergingCallable();
-            if(count < 2000 && otherCallable.taskType == taskType && otherCallable.tableDesc == tableDesc){
-                contexts.add(otherCallable.context);
-                entities.add(otherCallable.entity);
-                otherCallable.isS1Finish = true;
-            }else{
-                break;
+        // 合并队列中同表同操作的任务, 已被取消的写操作不再写入db
+        BatchCollector batch = new BatchCollector();
+        if(startWrite()){
+            batch.contexts.add(context);
+            batch.entities.add(entity);
+        }else{
+            context.completeJournal();
+        }
+        int maxBatchSize = tableDesc.maxBatchSize;  // 限制批量SQL最大条目数
+        collectMergingTasks(batch, maxBatchSize);
+        if(tableDesc.batchWindowMs > 0){
+            // 批量未满时，在时间窗口内等待后续提交的任务，使批量操作尽量填满; 有新任务提交时唤醒，只检查新提交的任务
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(tableDesc.batchWindowMs);
+            long remaining;
+            while(!batch.stopped && batch.contexts.size() < maxBatchSize && (remaining = deadline - System.nanoTime()) > 0){
+                executor.awaitPut(batch.scannedCount, remaining);
+                collectMergingTasks(batch, maxBatchSize);
             }
         }
-        if(contexts.size() > 1){
+        List<TaskContext> contexts = batch.contexts;
+        List<Cacheable> entities = batch.entities;
+        if(contexts.isEmpty()){
+            return;
+        }
+        String operation = taskType == IAtomicLogic.INSERT_BY_PK ? "insert" : taskType == IAtomicLogic.UPDATE_BY_PK ? "update" : "delete";
+        if(contexts.size() > 1 && log.isDebugEnabled()){
             String taskTypeName = taskType == IAtomicLogic.INSERT_BY_PK ? "插入" : taskType == IAtomicLogic.UPDATE_BY_PK ? "更新" : "删除";
             log.debug("合并异步[" + taskTypeName + "]操作,table:" + tableDesc.entityName + ",count:" + contexts.size());
         }
+        tableDesc.metrics.recordBatch(tableDesc.entityName, operation, contexts.size());
+        long startNanos = System.nanoTime();
         // 增加
         if(taskType == IAtomicLogic.INSERT_BY_PK){
             try {
@@ -117,6 +186,66 @@ public abstract class MergingCallable<V> implements Callable<V> {
                 log.error("异步删除实体对象发生异常！table:" + tableDesc.entityName + ", CacheKey:" + (key==null?"null":key.toString()), e);
             }
         }
+        tableDesc.metrics.recordLoad(tableDesc.entityName, operation, System.nanoTime() - startNanos);
+        // 写入失败时已记录错误日志，同样标记完成，避免重启后重放过时的数据
+        for(TaskContext taskContext : contexts){
+            taskContext.completeJournal();
+        }
+    }
+
+    /** 一次批量操作收集任务的进度, 时间窗口内重新收集时从上次的位置继续 */
+    private static class BatchCollector {
+        final List<TaskContext> contexts = new ArrayList<>();
+        final List<Cacheable> entities = new ArrayList<>();
+        /** 排在前面还有其他写操作未执行的主键 */
+        Set<CacheKey> blockedKeys;
+        /** 已检查过的队列任务数 */
+        int scannedCount;
+        /** 遇到其他表未执行的写操作或达到检查上限，不再向后收集 */
+        boolean stopped;
+    }
+
+    /**
+     * 从执行器队列中收集可以合并到当前批量操作的任务
+     * 同表同操作且未被合并过的任务加入批量; 同表其他未执行的写操作的主键会被记录下来，这些主键后面的任务不能提前合并
+     * 只有已开始写的任务计入批量条目数, 已被取消的任务只标记完成
+     */
+    private void collectMergingTasks(BatchCollector batch, int maxBatchSize){
+        Iterator<MergingFutureTask<?>> iterator = executor.iterator();
+        // 执行期间只有当前线程从队列中取任务，已检查过的任务位置不变，跳过后只检查新提交的任务
+        for(int i = 0; i < batch.scannedCount && iterator.hasNext(); i++){
+            iterator.next();
+        }
+        int maxScanCount = maxBatchSize * MAX_SCAN_FACTOR;
+        while (batch.contexts.size() < maxBatchSize && iterator.hasNext()){
+            if(batch.scannedCount >= maxScanCount){
+                batch.stopped = true;
+                break;
+            }
+            MergingCallable<?> otherCallable = iterator.next().getMergingCallable();
+            batch.scannedCount ++;
+            if(otherCallable.isS1Finish){    // 不需要合并的任务，或已被合并执行过的写操作
+                continue;
+            }
+            if(otherCallable.tableDesc != tableDesc){   // 其他表还未执行的写操作，不能把后面的任务提前
+                batch.stopped = true;
+                break;
+            }
+            if(otherCallable.taskType == taskType && (batch.blockedKeys == null || !batch.blockedKeys.contains(otherCallable.key))){
+                if(otherCallable.startWrite()){
+                    batch.contexts.add(otherCallable.context);
+                    batch.entities.add(otherCallable.entity);
+                }else{
+                    otherCallable.context.completeJournal();
+                }
+                otherCallable.isS1Finish = true;
+            }else if(otherCallable.key != null){    // 同表的其他写操作，或不能提前的同主键操作
+                if(batch.blockedKeys == null){
+                    batch.blockedKeys = new HashSet<>();
+                }
+                batch.blockedKeys.add(otherCallable.key);
+            }
+        }
     }
 
     /**
@@ -1,5 +1,8 @@
 package yushanmufeng.localcache.task;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
 
 /**
@@ -13,13 +16,71 @@ public class MergingFutureTask<V> extends FutureTask<V> {
     /** 可以合并的异步函数 */
     private MergingCallable<V> mergingCallable;
 
+    /** 合并到的实际执行的查询任务, 不是合并任务时为null */
+    private final MergingFutureTask<V> realTask;
+
+    /** 任务完成时通知的CompletableFuture, 需要时才创建 */
+    private volatile CompletableFuture<V> completableFuture;
+
     public MergingFutureTask(MergingCallable<V> mergingCallable) {
+        this(mergingCallable, null);
+    }
+
+    /**
+     * @param realTask 合并到的实际执行的查询任务
+     */
+    public MergingFutureTask(MergingCallable<V> mergingCallable, MergingFutureTask<V> realTask) {
         super(mergingCallable);
         this.mergingCallable = mergingCallable;
+        this.realTask = realTask;
     }
 
     public MergingCallable<V> getMergingCallable(){
         return mergingCallable;
     }
 
+    /**
+     * 返回任务完成时通知的CompletableFuture
+     * 合并任务会在实际执行的查询任务的完成回调中(持有锁时)执行，所以合并任务直接返回实际查询任务的CompletableFuture，后续操作不会在持有锁的线程中执行
+     * 后续操作默认在完成任务的执行器线程中执行
+     */
+    public CompletableFuture<V> toCompletableFuture(){
+        if(realTask != null){
+            return realTask.toCompletableFuture();
+        }
+        CompletableFuture<V> future = completableFuture;
+        if(future == null){
+            synchronized (this){
+                if((future = completableFuture) == null){
+                    completableFuture = future = new CompletableFuture<>();
+                }
+            }
+            if(isDone()){   // 创建前任务已经完成
+                complete(future);
+            }
+        }
+        return future;
+    }
+
+    @Override
+    protected void done() {
+        CompletableFuture<V> future = completableFuture;
+        if(future != null){
+            complete(future);
+        }
+    }
+
+    private void complete(CompletableFuture<V> future){
+        try{
+            future.complete(get());
+        }catch (ExecutionException e){
+            future.completeExceptionally(e.getCause());
+        }catch (CancellationException e){
+            future.cancel(false);
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+        }
+    }
+
 }
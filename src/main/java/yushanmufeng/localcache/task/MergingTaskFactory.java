@@ -1,19 +1,20 @@
 package yushanmufeng.localcache.task;
 
-import yushanmufeng.localcache.util.SimpleTaskExecutor;
+import yushanmufeng.localcache.util.ITaskExecutor;
 import yushanmufeng.localcache.CacheKey;
 import yushanmufeng.localcache.Cacheable;
 import yushanmufeng.localcache.SingleTableAtomicLogic;
 import yushanmufeng.localcache.TableDescribe;
 import yushanmufeng.localcache.atomic.IAtomicLogic;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /** 创建可合并的异步任务-工厂 */
 public class MergingTaskFactory {
 
     /** 创建空任务 */
-    public static MergingFutureTask<?> createEmptyTask(SimpleTaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context){
+    public static MergingFutureTask<?> createEmptyTask(ITaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context){
         return new MergingFutureTask<>(new MergingCallable<Cacheable>(IAtomicLogic.EMPTY_TASK, executor, tableDesc, context, null, null) {
             @Override
             public Cacheable subCall2() {
@@ -23,17 +24,22 @@ public class MergingTaskFactory {
     }
 
     /** 创建查询任务 */
-    public static MergingFutureTask<Cacheable> createSelectTask(SimpleTaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity){
+    public static MergingFutureTask<Cacheable> createSelectTask(ITaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity){
         return new MergingFutureTask<>(new MergingCallable<Cacheable>(IAtomicLogic.SELECT_BY_PK, executor, tableDesc, context, key, entity) {
             @Override
             public Cacheable subCall2() {
-                return tableDesc.tableStrategy.selectByPK(key.keys[0]);
+                long startNanos = System.nanoTime();
+                try{
+                    return tableDesc.tableStrategy.selectByPK(key.keys[0]);
+                }finally {
+                    tableDesc.load("selectByPK", startNanos);
+                }
             }
         });
     }
 
     /** 创建合并查询任务 */
-    public static MergingFutureTask<Cacheable> createMergingSelectTask(SimpleTaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity, MergingFutureTask<Cacheable> realSelectTask){
+    public static MergingFutureTask<Cacheable> createMergingSelectTask(ITaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity, MergingFutureTask<Cacheable> realSelectTask){
         return new MergingFutureTask<>(new MergingCallable<Cacheable>(IAtomicLogic.SELECT_BY_PK, executor, tableDesc, context, key, entity) {
             @Override
             public Cacheable subCall2() {
@@ -45,21 +51,78 @@ public class MergingTaskFactory {
                 }
                 return result;
             }
+        }, realSelectTask);
+    }
+
+    /**
+     * 创建根据多个主键批量查询任务
+     * 查询完成后会依次执行每个主键的查询任务, 各主键的查询任务直接从批量查询结果中获取实体对象
+     *
+     * @param keys 要查询的主键列表
+     * @param results 批量查询结果, 与各主键的查询任务共用
+     * @param itemTasks 各主键的查询任务
+     */
+    public static MergingFutureTask<?> createSelectByPksTask(ITaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, List<CacheKey> keys, BatchSelectResults results, List<MergingFutureTask<Cacheable>> itemTasks){
+        return new MergingFutureTask<>(new MergingCallable<Cacheable>(IAtomicLogic.SELECT_BY_PKS, executor, tableDesc, context, null, null) {
+            @Override
+            public Cacheable subCall2() {
+                long startNanos = System.nanoTime();
+                try{
+                    List<Object> pks = new ArrayList<>(keys.size());
+                    for(CacheKey key : keys){
+                        pks.add(key.keys[0]);
+                    }
+                    List<Cacheable> entities = tableDesc.tableStrategy.selectByPKs(pks);
+                    if(entities != null){
+                        for(Cacheable entity : entities){
+                            results.entities.put(tableDesc.tableStrategy.getPrimaryKey(entity), entity);
+                        }
+                    }
+                }catch (RuntimeException e){
+                    results.error = e;
+                    throw e;
+                }finally {
+                    tableDesc.load("selectByPKs", startNanos);
+                    // 无论批量查询是否成功都要执行各主键的查询任务，防止等待查询结果的线程一直阻塞
+                    for(MergingFutureTask<Cacheable> itemTask : itemTasks){
+                        itemTask.run();
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /** 创建批量查询中单个主键的查询任务, 由批量查询任务执行; 批量查询失败时此任务也会失败 */
+    public static MergingFutureTask<Cacheable> createSelectItemTask(TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, BatchSelectResults results){
+        return new MergingFutureTask<>(new MergingCallable<Cacheable>(IAtomicLogic.SELECT_BY_PK, null, tableDesc, context, key, null) {
+            @Override
+            public Cacheable subCall2() {
+                if(results.error != null){
+                    throw results.error;
+                }
+                return results.entities.get(key.keys[0]);
+            }
         });
     }
 
     /** 创建条件查询任务 */
-    public static MergingFutureTask<?> createSelectByConditionTask(SimpleTaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity){
+    public static MergingFutureTask<?> createSelectByConditionTask(ITaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity){
         return new MergingFutureTask<>(new MergingCallable<List<Cacheable>>(IAtomicLogic.SELECT_BY_CONDITION, executor, tableDesc, context, key, entity) {
             @Override
             public List<Cacheable> subCall2() {
-                return tableDesc.tableStrategy.select(key);
+                long startNanos = System.nanoTime();
+                try{
+                    return tableDesc.tableStrategy.select(key);
+                }finally {
+                    tableDesc.load("select", startNanos);
+                }
             }
         });
     }
 
     /** 创建条件查询合并任务 */
-    public static MergingFutureTask<?> createMergingSelectByConditionTask(SimpleTaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity, MergingFutureTask<List<Cacheable>> realSelectTask){
+    public static MergingFutureTask<?> createMergingSelectByConditionTask(ITaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity, MergingFutureTask<List<Cacheable>> realSelectTask){
         return new MergingFutureTask<>(new MergingCallable<List<Cacheable>>(IAtomicLogic.SELECT_BY_CONDITION, executor, tableDesc, context, key, entity) {
             @Override
             public List<Cacheable> subCall2() {
@@ -71,11 +134,11 @@ public class MergingTaskFactory {
                 }
                 return result;
             }
-        });
+        }, realSelectTask);
     }
 
     /** 创建更新任务 */
-    public static MergingFutureTask<Cacheable> createUpdateTask(SingleTableAtomicLogic atomicLogic, SimpleTaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity){
+    public static MergingFutureTask<Cacheable> createUpdateTask(SingleTableAtomicLogic atomicLogic, ITaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity){
         return new MergingFutureTask<>(new MergingCallable<Cacheable>(IAtomicLogic.UPDATE_BY_PK, executor, tableDesc, context, key, entity) {
             @Override
             public Cacheable subCall2() {
@@ -86,7 +149,7 @@ public class MergingTaskFactory {
     }
 
     /** 创建插入任务 */
-    public static MergingFutureTask<Cacheable> createInsertTask(SingleTableAtomicLogic atomicLogic, SimpleTaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity){
+    public static MergingFutureTask<Cacheable> createInsertTask(SingleTableAtomicLogic atomicLogic, ITaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity){
         return new MergingFutureTask<>(new MergingCallable<Cacheable>(IAtomicLogic.INSERT_BY_PK, executor, tableDesc, context, key, entity) {
             @Override
             public Cacheable subCall2() {
@@ -97,7 +160,7 @@ public class MergingTaskFactory {
     }
 
     /** 创建删除任务 */
-    public static MergingFutureTask<Cacheable> createDeleteTask(SingleTableAtomicLogic atomicLogic, SimpleTaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity){
+    public static MergingFutureTask<Cacheable> createDeleteTask(SingleTableAtomicLogic atomicLogic, ITaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context, CacheKey key, Cacheable entity){
         return new MergingFutureTask<>(new MergingCallable<Cacheable>(IAtomicLogic.DELETE_BY_PK, executor, tableDesc, context, key, entity) {
             @Override
             public Cacheable subCall2() {
@@ -107,19 +170,8 @@ public class MergingTaskFactory {
         });
     }
 
-    /** 创建内存合计任务 */
-    public static MergingFutureTask<?> createSumMemBytesTask(SingleTableAtomicLogic atomicLogic, SimpleTaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context){
-        return new MergingFutureTask<>(new MergingCallable<Cacheable>(IAtomicLogic.SUM_MEM_BYTES, executor, tableDesc, context, null, null) {
-            @Override
-            public Cacheable subCall2() {
-                atomicLogic.exec(IAtomicLogic.SUM_MEM_BYTES, null, null, null, null);
-                return null;
-            }
-        });
-    }
-
     /** 创建检查缓存过期任务 */
-    public static MergingFutureTask<?> createCheckCacheExpireTask(SingleTableAtomicLogic atomicLogic, SimpleTaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context){
+    public static MergingFutureTask<?> createCheckCacheExpireTask(SingleTableAtomicLogic atomicLogic, ITaskExecutor<MergingFutureTask<?>> executor, TableDescribe<Cacheable> tableDesc, TaskContext context){
         return new MergingFutureTask<>(new MergingCallable<Cacheable>(IAtomicLogic.CHECK_CACHE_EXPIRE, executor, tableDesc, context, null, null) {
             @Override
             public Cacheable subCall2() {
@@ -1,5 +1,10 @@
 package yushanmufeng.localcache.task;
 
+import yushanmufeng.localcache.WriteJournal;
+
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 异步任务的上下文对象
  * 用于保存和传递相关参数
@@ -9,7 +14,35 @@ public class TaskContext {
     /** 任务的提交时间，单位毫秒 */
     public long commitTime = System.currentTimeMillis();
 
+    /** 此任务对应的写日志记录(包括被合并、抵消的操作), 未开启写日志时为空 */
+    private List<WriteJournal.Record> journalRecords;
+
     /** 无用的默认taskContext */
     public static TaskContext DEFAULT_CONTEXT = new TaskContext();
 
+    /**
+     * 关联一条写日志记录, 任务写入数据源后一并完成
+     * @param record 为null时忽略
+     */
+    public void addJournalRecord(WriteJournal.Record record){
+        if(record == null){
+            return;
+        }
+        if(journalRecords == null){
+            journalRecords = new ArrayList<>(1);
+        }
+        journalRecords.add(record);
+    }
+
+    /** 任务已写入数据源(或已被取消), 完成关联的所有写日志记录 */
+    public void completeJournal(){
+        if(journalRecords == null){
+            return;
+        }
+        for(WriteJournal.Record record : journalRecords){
+            record.complete();
+        }
+        journalRecords = null;
+    }
+
 }
@@ -26,7 +26,11 @@ public class CLHLock {
     private final AtomicReference<CLHNode> TAIL = new AtomicReference<>();
 
     /** 自旋超时时间，发生死锁时打印日志 */
-    private static final long TIMEOUT_COUNT = 5_000_000_000L, ERROR_MS = 500;
+    private static final long ERROR_MS = 500;
+    /** 连续自旋次数上限，超过后每次轮询前让出cpu，防止等待线程长时间独占一个核心 */
+    private static final long MAX_SPIN_COUNT = 1 << 10;
+    /** 让出cpu后，每轮询多少次检测一次自旋时间 */
+    private static final long CHECK_TIME_MASK = (1 << 10) - 1;
 
     /**
      * 加锁,获取锁
@@ -46,9 +50,9 @@ public class CLHLock {
             long startMs = System.currentTimeMillis();
             long l = 0;
             while (preNode.isLocked) {
-                if(++l >= TIMEOUT_COUNT){
-                    l = 0;
-                    if(System.currentTimeMillis() - startMs >= ERROR_MS){
+                if(++l >= MAX_SPIN_COUNT){
+                    Thread.yield();
+                    if((l & CHECK_TIME_MASK) == 0 && System.currentTimeMillis() - startMs >= ERROR_MS){
                         log.error("自旋时间过长！请检查是否发生死锁或优化程序,ms:" + (System.currentTimeMillis() - startMs), new Exception());
                         startMs = System.currentTimeMillis();
                     }
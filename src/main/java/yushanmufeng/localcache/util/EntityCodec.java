@@ -0,0 +1,27 @@
+package yushanmufeng.localcache.util;
+
+import com.google.gson.Gson;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 实体对象的默认序列化方式, 用于写日志和缓存快照
+ * 序列化为json的utf8字节, Gson实例线程安全，所有表共用
+ */
+public final class EntityCodec {
+
+    private static final Gson GSON = new Gson();
+
+    private EntityCodec(){}
+
+    /** 实体对象序列化为json */
+    public static byte[] toJson(Object entity){
+        return GSON.toJson(entity).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** json反序列化为实体对象 */
+    public static <T> T fromJson(byte[] bytes, Class<T> entityClass){
+        return GSON.fromJson(new String(bytes, StandardCharsets.UTF_8), entityClass);
+    }
+
+}
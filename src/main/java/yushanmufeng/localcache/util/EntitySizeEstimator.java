@@ -0,0 +1,234 @@
+package yushanmufeng.localcache.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 实体类的内存占用估算
+ * 每个实体类在初始化时根据字段布局计算一次固定的对象大小，估算时只需要再加上字符串、数组、集合等变长字段的大小
+ * 变长字段通过初始化时生成的MethodHandle读取，不需要每次反射
+ * 估算结果只用于控制缓存的内存占用，不要求精确，不会递归计算其他引用对象的大小
+ */
+public final class EntitySizeEstimator {
+
+    private static final Logger log = LoggerFactory.getLogger(EntitySizeEstimator.class);
+
+    /** 引用占用的字节数 */
+    public static final int REF_BYTES;
+    /** 对象头、数组头占用的字节数 */
+    public static final int OBJECT_HEADER_BYTES, ARRAY_HEADER_BYTES;
+    /** 对象按8字节对齐 */
+    private static final int OBJECT_ALIGNMENT = 8;
+    /** 字符串每个字符占用的字节数，jdk9开始默认使用压缩字符串，按单字节估算 */
+    private static final int STRING_BYTES_PER_CHAR;
+    /** String对象本身的大小, 不含字符数组 */
+    private static final long STRING_SHALLOW_BYTES;
+    /** 集合中未知类型元素的估算大小 */
+    private static final long DEFAULT_ELEMENT_BYTES = 16;
+    /** HashMap、LinkedList等集合每个元素的节点对象大小 */
+    private static final long NODE_BYTES;
+
+    /** 变长字段的类型 */
+    private static final int KIND_STRING = 0, KIND_ARRAY = 1, KIND_COLLECTION = 2, KIND_MAP = 3;
+
+    static {
+        boolean is64Bit = !"32".equals(System.getProperty("sun.arch.data.model"));
+        boolean compressedOops = is64Bit && isCompressedOops();
+        REF_BYTES = compressedOops || !is64Bit ? 4 : 8;
+        OBJECT_HEADER_BYTES = is64Bit ? (compressedOops ? 12 : 16) : 8;
+        ARRAY_HEADER_BYTES = align(OBJECT_HEADER_BYTES + 4);
+        STRING_BYTES_PER_CHAR = System.getProperty("java.specification.version", "").startsWith("1.") ? 2 : 1;
+        STRING_SHALLOW_BYTES = shallowSizeOfInstance(String.class);
+        NODE_BYTES = align(OBJECT_HEADER_BYTES + 4 + 3L * REF_BYTES);
+    }
+
+    /** 实体对象本身的大小 */
+    private final long shallowSize;
+    /** 变长字段的读取方法和类型 */
+    private final MethodHandle[] getters;
+    private final int[] kinds;
+    /** 数组类型字段的元素大小 */
+    private final int[] componentSizes;
+
+    /**
+     * @param entityClass 实体类，包括父类的所有非静态字段都会参与计算
+     */
+    public EntitySizeEstimator(Class<?> entityClass){
+        this.shallowSize = shallowSizeOfInstance(entityClass);
+        List<MethodHandle> getterList = new ArrayList<>();
+        List<Integer> kindList = new ArrayList<>(), componentSizeList = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for(Class<?> c = entityClass; c != null && c != Object.class; c = c.getSuperclass()){
+            for(Field field : c.getDeclaredFields()){
+                if(Modifier.isStatic(field.getModifiers())){
+                    continue;
+                }
+                Class<?> type = field.getType();
+                int kind;
+                if(type == String.class){
+                    kind = KIND_STRING;
+                }else if(type.isArray()){
+                    kind = KIND_ARRAY;
+                }else if(Collection.class.isAssignableFrom(type)){
+                    kind = KIND_COLLECTION;
+                }else if(Map.class.isAssignableFrom(type)){
+                    kind = KIND_MAP;
+                }else{
+                    continue;
+                }
+                try{
+                    field.setAccessible(true);
+                    getterList.add(lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class)));
+                    kindList.add(kind);
+                    componentSizeList.add(type.isArray() ? sizeOfType(type.getComponentType()) : 0);
+                }catch (Exception e){
+                    log.warn("无法读取字段，计算内存占用时忽略此字段: " + c.getSimpleName() + "." + field.getName(), e);
+                }
+            }
+        }
+        this.getters = getterList.toArray(new MethodHandle[0]);
+        this.kinds = new int[kindList.size()];
+        this.componentSizes = new int[kindList.size()];
+        for(int i = 0; i < kinds.length; i++){
+            kinds[i] = kindList.get(i);
+            componentSizes[i] = componentSizeList.get(i);
+        }
+    }
+
+    /**
+     * 估算实体对象的内存占用, 单位字节
+     */
+    public long estimate(Object entity){
+        long size = shallowSize;
+        try {
+            for(int i = 0; i < getters.length; i++){
+                Object value = getters[i].invokeExact(entity);
+                if(value == null){
+                    continue;
+                }
+                switch (kinds[i]){
+                    case KIND_STRING:
+                        size += sizeOf((String) value);
+                        break;
+                    case KIND_ARRAY:
+                        size += align(ARRAY_HEADER_BYTES + (long) Array.getLength(value) * componentSizes[i]);
+                        break;
+                    case KIND_COLLECTION:
+                        size += sizeOf((Collection<?>) value);
+                        break;
+                    case KIND_MAP:
+                        size += sizeOf((Map<?, ?>) value);
+                        break;
+                    default:
+                }
+            }
+        }catch (Throwable e){
+            log.error("计算实体对象内存占用异常!", e);
+        }
+        return size;
+    }
+
+    /** 字符串的内存占用 */
+    public static long sizeOf(String s){
+        return STRING_SHALLOW_BYTES + align(ARRAY_HEADER_BYTES + (long) s.length() * STRING_BYTES_PER_CHAR);
+    }
+
+    /** 集合的内存占用, 按数组或链表结构估算，元素只计算字符串和其他对象的默认大小 */
+    public static long sizeOf(Collection<?> collection){
+        int size = collection.size();
+        long total = align(OBJECT_HEADER_BYTES + 4L + 2L * REF_BYTES) + align(ARRAY_HEADER_BYTES + (long) size * REF_BYTES);
+        for(Object element : collection){
+            total += sizeOfElement(element);
+        }
+        return total;
+    }
+
+    /** map的内存占用, 按HashMap结构估算 */
+    public static long sizeOf(Map<?, ?> map){
+        int size = map.size();
+        long total = align(OBJECT_HEADER_BYTES + 16L + 4L * REF_BYTES) + align(ARRAY_HEADER_BYTES + (long) Integer.highestOneBit(size * 2 + 1) * REF_BYTES) + size * NODE_BYTES;
+        for(Map.Entry<?, ?> entry : map.entrySet()){
+            total += sizeOfElement(entry.getKey()) + sizeOfElement(entry.getValue());
+        }
+        return total;
+    }
+
+    /** 每个元素以链表节点保存的集合(如LinkedHashMap的key集合)的内存占用, 元素只计算字符串和其他对象的默认大小 */
+    public static long sizeOfNodes(Collection<?> elements){
+        int size = elements.size();
+        long total = align(ARRAY_HEADER_BYTES + (long) Integer.highestOneBit(size * 2 + 1) * REF_BYTES) + size * (NODE_BYTES + 2L * REF_BYTES);
+        for(Object element : elements){
+            total += sizeOfElement(element);
+        }
+        return total;
+    }
+
+    private static long sizeOfElement(Object element){
+        if(element == null){
+            return 0;
+        }
+        return element instanceof String ? sizeOf((String) element) : DEFAULT_ELEMENT_BYTES;
+    }
+
+    /** 根据字段布局计算对象本身的大小 */
+    private static long shallowSizeOfInstance(Class<?> clazz){
+        long size = OBJECT_HEADER_BYTES;
+        for(Class<?> c = clazz; c != null; c = c.getSuperclass()){
+            for(Field field : c.getDeclaredFields()){
+                if(!Modifier.isStatic(field.getModifiers())){
+                    size += sizeOfType(field.getType());
+                }
+            }
+        }
+        return align(size);
+    }
+
+    /** 字段类型占用的字节数 */
+    private static int sizeOfType(Class<?> type){
+        if(!type.isPrimitive()){
+            return REF_BYTES;
+        }
+        if(type == long.class || type == double.class){
+            return 8;
+        }else if(type == int.class || type == float.class){
+            return 4;
+        }else if(type == short.class || type == char.class){
+            return 2;
+        }
+        return 1;
+    }
+
+    private static long align(long size){
+        return (size + OBJECT_ALIGNMENT - 1) & -OBJECT_ALIGNMENT;
+    }
+
+    private static int align(int size){
+        return (size + OBJECT_ALIGNMENT - 1) & -OBJECT_ALIGNMENT;
+    }
+
+    /** 是否开启了压缩指针, 无法获取时按最大堆内存是否小于32G判断 */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static boolean isCompressedOops(){
+        try{
+            Class<?> beanClass = Class.forName("com.sun.management.HotSpotDiagnosticMXBean");
+            Object bean = ManagementFactory.getPlatformMXBean((Class) beanClass);
+            Object option = beanClass.getMethod("getVMOption", String.class).invoke(bean, "UseCompressedOops");
+            return Boolean.parseBoolean(option.getClass().getMethod("getValue").invoke(option).toString());
+        }catch (Throwable e){
+            return Runtime.getRuntime().maxMemory() < 32L * 1024 * 1024 * 1024;
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package yushanmufeng.localcache.util;
+
+/**
+ * 访问频率的近似统计(Count-Min Sketch)
+ * 每个计数器占4位，最大计数为15; 每个数据使用4个计数器，取最小值作为估算的访问频率
+ * 累计的访问次数达到采样数后所有计数器减半，让频率统计只反映最近一段时间的访问情况
+ * 非线程安全，由调用方保证互斥访问
+ */
+public class FrequencySketch {
+
+    /** 计数器减半时用于清除每个计数器最高位的掩码 */
+    private static final long RESET_MASK = 0x7777777777777777L;
+    /** 计数器减半时用于统计奇数计数器的掩码 */
+    private static final long ONE_MASK = 0x1111111111111111L;
+    /** 4个计数器各自的散列种子 */
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    /** 每个long保存16个计数器 */
+    private long[] table;
+    private int tableMask;
+    /** 累计访问次数达到此值时计数器减半 */
+    private int sampleSize;
+    /** 距上次减半的累计访问次数 */
+    private int size;
+
+    public FrequencySketch(){
+        ensureCapacity(16);
+    }
+
+    /**
+     * 按统计的数据量扩容，扩容后之前的统计数据会丢失
+     * @param maximumSize 需要统计的数据量
+     */
+    public void ensureCapacity(long maximumSize){
+        int maximum = (int) Math.min(Math.max(maximumSize, 16), Integer.MAX_VALUE >>> 4);
+        if(table != null && table.length >= maximum){
+            return;
+        }
+        table = new long[Integer.highestOneBit(maximum - 1) << 1];
+        tableMask = table.length - 1;
+        sampleSize = 10 * maximum;
+        size = 0;
+    }
+
+    /** 当前统计的数据量上限 */
+    public int capacity(){
+        return table.length;
+    }
+
+    /**
+     * 返回估算的访问频率
+     * @param hash 数据的hash值
+     * @return 0~15
+     */
+    public int frequency(int hash){
+        hash = spread(hash);
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for(int i = 0; i < 4; i++){
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /** 增加一次访问次数 */
+    public void increment(int hash){
+        hash = spread(hash);
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for(int i = 0; i < 4; i++){
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if(added && ++size >= sampleSize){
+            reset();
+        }
+    }
+
+    /** 未达到最大计数时，增加指定计数器的计数 */
+    private boolean incrementAt(int i, int j){
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if((table[i] & mask) != mask){
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /** 所有计数器减半 */
+    private void reset(){
+        int count = 0;
+        for(int i = 0; i < table.length; i++){
+            count += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (count >>> 2);
+    }
+
+    /** 返回第i个计数器所在的下标 */
+    private int indexOf(int hash, int i){
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    /** 打散hash值，减少低质量hash的冲突 */
+    private static int spread(int x){
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+}
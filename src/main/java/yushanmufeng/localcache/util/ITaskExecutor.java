@@ -0,0 +1,72 @@
+package yushanmufeng.localcache.util;
+
+import java.util.Iterator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步任务执行器
+ * 提交到同一个执行器的任务按提交顺序依次执行，不会并发，相同主键的增删改任务依赖此顺序保证落库顺序
+ */
+public interface ITaskExecutor<T extends Runnable> {
+
+    /** 提交任务 */
+    void put(T task);
+
+    /** 队列中是否没有等待执行的任务 */
+    boolean isEmpty();
+
+    /** 返回当前队列中等待执行的任务数, 需要可以频繁调用 */
+    int size();
+
+    /** 返回队列的迭代器, 用于合并队列中的同类任务 */
+    Iterator<T> iterator();
+
+    /**
+     * 等待新任务提交，最多等待指定的纳秒数; 用于批量写操作在时间窗口内等待后续任务, 只由正在执行此执行器任务的线程调用
+     * 默认实现不会被提交唤醒，直接等待到超时
+     * @param observedSize 调用方已检查过的任务数, 队列中的任务数与此不同时立即返回
+     */
+    default void awaitPut(int observedSize, long nanos){
+        if(size() == observedSize){
+            LockSupport.parkNanos(nanos);
+        }
+    }
+
+    /**
+     * 返回负载最低的执行器
+     * @param executors 执行器列表
+     * @return
+     */
+    static <V extends Runnable> ITaskExecutor<V> getLoadLowestExecutor(ITaskExecutor<V>[] executors){
+        return getLoadLowestExecutor(executors, -1);
+    }
+
+    /**
+     * 返回负载最低的执行器
+     * 如果所有执行器均负载较高，则每张表会使用固定下标的执行器，用来便于优化sql批量执行
+     *
+     * @param executors 执行器列表
+     * @param bandIndex 负载较高情况时固定使用的执行器下标
+     */
+    static <V extends Runnable> ITaskExecutor<V> getLoadLowestExecutor(ITaskExecutor<V>[] executors, int bandIndex){
+        // 没有空闲的则返回一个负载最低的
+        int minTasks = Integer.MAX_VALUE;
+        ITaskExecutor<V> lowestExecutor = null;
+        for(ITaskExecutor<V> executor : executors){
+            int size = executor.size();
+            if(size == 0){
+                return executor;
+            }
+            if(size < minTasks){
+                minTasks = size;
+                lowestExecutor = executor;
+            }
+        }
+        if(minTasks > 2 && bandIndex != -1){
+            return executors[bandIndex];
+        }else{
+            return lowestExecutor;
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package yushanmufeng.localcache.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 在临时的线程池中并行执行一组任务，用于启动和停止时按表并行的批量操作(缓存快照、预热)
+ */
+public final class ParallelTasks {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelTasks.class);
+
+    private ParallelTasks(){}
+
+    /**
+     * 并行执行所有任务并等待全部执行完毕, 执行完毕后线程池即关闭
+     * 任务需要自行处理异常，未处理的异常只记录日志，不影响其他任务
+     * @param maxThreads 最多同时执行的任务数
+     */
+    public static void invokeAll(List<? extends Runnable> tasks, int maxThreads){
+        if(tasks.isEmpty()){
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(tasks.size(), maxThreads)));
+        try{
+            List<Callable<Object>> callables = new ArrayList<>(tasks.size());
+            for(Runnable task : tasks){
+                callables.add(() -> {
+                    try{
+                        task.run();
+                    }catch (Exception e){
+                        log.error("并行任务执行发生异常!", e);
+                    }
+                    return null;
+                });
+            }
+            executor.invokeAll(callables);
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -3,17 +3,19 @@ package yushanmufeng.localcache.util;
 import java.util.Iterator;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * 简单的任务执行器，将启用一个线程来持续执行任务
  */
-public class SimpleTaskExecutor<T extends Runnable> {
+public class SimpleTaskExecutor<T extends Runnable> implements ITaskExecutor<T> {
 
     private final Thread thread;
     private LinkedBlockingQueue<T> taskQueue;
     private boolean startup;
     public final String threadName;
     private CountDownLatch countDownLatch;  // 用于结束执行器时计数
+    private volatile Thread putWaiter;      // 正在等待新任务提交的执行线程
 
     public SimpleTaskExecutor(String name, boolean startup){
         this(name, startup, new CountDownLatch(1));
@@ -60,24 +62,45 @@ public class SimpleTaskExecutor<T extends Runnable> {
 
     }
 
+    @Override
     public void put(T runnable){
         try {
             taskQueue.put(runnable);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        Thread waiter = putWaiter;
+        if(waiter != null){
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /** 先登记等待线程再检查任务数，登记后提交的任务一定会唤醒等待线程 */
+    @Override
+    public void awaitPut(int observedSize, long nanos){
+        putWaiter = Thread.currentThread();
+        try{
+            if(taskQueue.size() == observedSize){
+                LockSupport.parkNanos(this, nanos);
+            }
+        }finally {
+            putWaiter = null;
+        }
     }
 
+    @Override
     public boolean isEmpty(){
         return taskQueue.isEmpty();
     }
 
     /** 返回当前队列大小 */
+    @Override
     public int size(){
         return taskQueue.size();
     }
 
     /** 返回队列的迭代器 */
+    @Override
     public Iterator<T> iterator(){
         return taskQueue.iterator();
     }
@@ -110,41 +133,4 @@ public class SimpleTaskExecutor<T extends Runnable> {
         }
     }
 
-    /**
-     * 返回负载最低的执行器
-     * @param executors 执行器列表
-     * @return
-     */
-    public static <V extends Runnable> SimpleTaskExecutor<V> getLoadLowestExecutor(SimpleTaskExecutor<V>[] executors){
-        return getLoadLowestExecutor(executors, -1);
-    }
-
-    /**
-     * 返回负载最低的执行器
-     * 如果所有执行器均负载较高，则每张表会使用固定下标的执行器，用来便于优化sql批量执行
-     *
-     * @param executors 执行器列表
-     * @param bandIndex 负载较高情况时固定使用的执行器下标
-     */
-    public static <V extends Runnable> SimpleTaskExecutor<V> getLoadLowestExecutor(SimpleTaskExecutor<V>[] executors, int bandIndex){
-        // 没有空闲的则返回一个负载最低的
-        int minTasks = Integer.MAX_VALUE;
-        SimpleTaskExecutor<V> lowestExecutor = null;
-        for(SimpleTaskExecutor<V> executor : executors){
-            if(executor.size() < minTasks){
-                minTasks = executor.size();
-                lowestExecutor = executor;
-            }
-            if(executor.isEmpty()){
-                return executor;
-            }
-        }
-        if(minTasks > 2 && bandIndex != -1){
-            return executors[bandIndex];
-        }else{
-            return lowestExecutor;
-        }
-
-    }
-
 }
@@ -0,0 +1,149 @@
+package yushanmufeng.localcache.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 限制并发数的任务执行器，任务由虚拟线程执行(jdk21及以上)
+ * 提交的任务进入无锁队列，正在执行的线程数未达到并发上限时启动新的线程，每个线程持续执行队列中的任务直到队列为空后结束
+ * 任务之间不保证执行顺序，只用于查询任务; 增删改任务依赖执行器的顺序保证落库顺序，不能使用此执行器
+ * 运行环境不支持虚拟线程时(jdk21以下)使用普通的守护线程代替，同样按需创建、空闲即结束
+ */
+public class VirtualThreadTaskExecutor<T extends Runnable> implements ITaskExecutor<T> {
+
+    public static final Logger log = LoggerFactory.getLogger(VirtualThreadTaskExecutor.class);
+
+    /** 创建线程的工厂, 所有执行器共用 */
+    private static final ThreadFactory THREAD_FACTORY = createThreadFactory();
+
+    private final ConcurrentLinkedQueue<T> taskQueue = new ConcurrentLinkedQueue<>();
+    /** 等待执行的任务数 */
+    private final AtomicInteger size = new AtomicInteger();
+    /** 正在执行任务的线程数 */
+    private final AtomicInteger running = new AtomicInteger();
+    /** 最大并发执行的任务数 */
+    private final int maxConcurrency;
+    public final String threadName;
+    private volatile boolean stopped;
+    private final AtomicBoolean stopSignaled = new AtomicBoolean();
+    private final CountDownLatch countDownLatch;  // 用于结束执行器时计数, 所有任务执行完毕后计数一次
+
+    /**
+     * @param name 线程名字
+     * @param maxConcurrency 最大并发执行的任务数
+     * @param countDownLatch 结束计数器
+     */
+    public VirtualThreadTaskExecutor(String name, int maxConcurrency, CountDownLatch countDownLatch){
+        this.threadName = name;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.countDownLatch = countDownLatch;
+    }
+
+    /** 当前运行环境是否支持虚拟线程 */
+    public static boolean isVirtualThreadSupported(){
+        return !(THREAD_FACTORY instanceof PlatformThreadFactory);
+    }
+
+    /** 结束执行器，已提交的任务执行完毕后计数 */
+    public void stop(){
+        stopped = true;
+        signalIfStopped();
+    }
+
+    @Override
+    public void put(T task) {
+        taskQueue.offer(task);
+        size.incrementAndGet();
+        tryStartWorker();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return taskQueue.iterator();
+    }
+
+    /** 有等待执行的任务并且未达到并发上限时，启动一个新的线程 */
+    private void tryStartWorker(){
+        int n;
+        while(size.get() > 0 && (n = running.get()) < maxConcurrency){
+            if(running.compareAndSet(n, n + 1)){
+                try{
+                    Thread thread = THREAD_FACTORY.newThread(this::runTasks);
+                    thread.setName(threadName);
+                    thread.start();
+                }catch (Throwable e){
+                    running.decrementAndGet();
+                    log.error("启动任务执行线程发生异常! " + threadName, e);
+                }
+                return;
+            }
+        }
+    }
+
+    /** 持续执行队列中的任务直到队列为空 */
+    private void runTasks(){
+        try{
+            T task;
+            while((task = taskQueue.poll()) != null){
+                size.decrementAndGet();
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("执行异步任务发生异常!", e);
+                }
+            }
+        }finally {
+            running.decrementAndGet();
+        }
+        // 线程结束前提交的任务可能因为达到并发上限没有启动新的线程，需要再检查一次
+        tryStartWorker();
+        signalIfStopped();
+    }
+
+    private void signalIfStopped(){
+        if(stopped && size.get() == 0 && running.get() == 0 && stopSignaled.compareAndSet(false, true)){
+            countDownLatch.countDown();
+        }
+    }
+
+    /** 通过反射创建虚拟线程工厂(Thread.ofVirtual().factory()), 不支持时返回普通的守护线程工厂 */
+    private static ThreadFactory createThreadFactory(){
+        try{
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            ThreadFactory factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+            log.info("查询任务使用虚拟线程执行");
+            return factory;
+        }catch (Throwable e){
+            log.info("当前jdk不支持虚拟线程，查询任务使用普通线程执行");
+            return new PlatformThreadFactory();
+        }
+    }
+
+    /** 普通的守护线程工厂 */
+    private static class PlatformThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
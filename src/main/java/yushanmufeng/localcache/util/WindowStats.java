@@ -0,0 +1,129 @@
+package yushanmufeng.localcache.util;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按固定时间段滚动的统计数据
+ * 使用环形数组保存最近若干个时间段，每个时间段的计数器为LongAdder，多线程记录时不会竞争同一个计数器
+ * 滚动到新的时间段时用CAS替换数组中过期的时间段，不需要加锁; 替换前后极少量并发记录的数据可能丢失，不影响统计结果
+ */
+public class WindowStats {
+
+    /** 缓存访问次数 */
+    public static final int VISIT = 0;
+    /** 缓存命中次数 */
+    public static final int HIT = 1;
+    /** 未命中时从数据源加载的次数 */
+    public static final int LOAD = 2;
+    /** 从数据源加载的总耗时纳秒数 */
+    public static final int LOAD_NANOS = 3;
+    /** 统计项的数量 */
+    private static final int METRIC_COUNT = 4;
+
+    /** 每个时间段的毫秒数 */
+    private final long intervalMs;
+    /** 保存的时间段数量 */
+    private final int size;
+    /** 环形数组，下标为时间段序号对size取余 */
+    private final AtomicReferenceArray<Window> windows;
+
+    /** 一个时间段的统计数据 */
+    public static class Window {
+        /** 时间段序号: 开始时间/时间段毫秒数 */
+        private final long index;
+        /** 开始统计时间 */
+        public final long recordTime;
+        /** 结束统计时间 */
+        public final long endTime;
+        private final LongAdder[] counters;
+
+        private Window(long index, long intervalMs, boolean empty){
+            this.index = index;
+            this.recordTime = index * intervalMs;
+            this.endTime = recordTime + intervalMs;
+            this.counters = empty ? null : new LongAdder[METRIC_COUNT];
+            if(!empty){
+                for(int i = 0; i < METRIC_COUNT; i++){
+                    counters[i] = new LongAdder();
+                }
+            }
+        }
+
+        /** 返回统计项的累计值 */
+        public long get(int metric){
+            return counters == null ? 0 : counters[metric].sum();
+        }
+
+        /** 命中率 */
+        public double getHitRate(){
+            return 100.0 * get(HIT) / get(VISIT);
+        }
+
+        @Override
+        public String toString() {
+            long load = get(LOAD);
+            StringBuilder sb = new StringBuilder("{").append(get(HIT)).append("/").append(get(VISIT)).append("=")
+                    .append(new DecimalFormat("#.00").format(getHitRate())).append("%");
+            if(load > 0){
+                sb.append(", load:").append(load).append(" avg:").append(new DecimalFormat("#.00").format(get(LOAD_NANOS) / 1e6 / load)).append("ms");
+            }
+            return sb.append("}").toString();
+        }
+    }
+
+    /**
+     * @param intervalMs 每个时间段的毫秒数
+     * @param size 保存最近多少个时间段的统计数据
+     */
+    public WindowStats(long intervalMs, int size){
+        this.intervalMs = intervalMs;
+        this.size = size;
+        this.windows = new AtomicReferenceArray<>(size);
+    }
+
+    /** 统计项增加1 */
+    public void increment(int metric, long curTime){
+        current(curTime).counters[metric].increment();
+    }
+
+    /** 统计项增加指定值 */
+    public void add(int metric, long value, long curTime){
+        current(curTime).counters[metric].add(value);
+    }
+
+    /** 返回当前时间所在的时间段, 已过期时替换为新的时间段 */
+    private Window current(long curTime){
+        long index = curTime / intervalMs;
+        int i = (int) (index % size);
+        Window window = windows.get(i);
+        while(window == null || window.index != index){
+            if(window != null && window.index > index){
+                return window; // 调用方传入的时间略早于其他线程，计入较新的时间段
+            }
+            Window newWindow = new Window(index, intervalMs, false);
+            if(windows.compareAndSet(i, window, newWindow)){
+                return newWindow;
+            }
+            window = windows.get(i);
+        }
+        return window;
+    }
+
+    /**
+     * 返回最近的所有时间段，从新到旧排列，第一个为当前时间所在的时间段; 没有统计数据的时间段各项均为0
+     */
+    public List<Window> snapshot(long curTime){
+        long index = curTime / intervalMs;
+        List<Window> list = new ArrayList<>(size);
+        for(long j = index; j > index - size; j--){
+            Window window = windows.get((int) (j % size));
+            list.add(window != null && window.index == j ? window : new Window(j, intervalMs, true));
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,241 @@
+package yushanmufeng.localcache.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 工作窃取的任务执行器组
+ * 任务提交到多个无锁队列(通道)中，通道数多于线程数，线程不与通道绑定: 每个线程优先执行自己的通道，空闲时获取其他有任务的通道来执行
+ * 同一时刻一个通道只会被一个线程获取，获取后按顺序执行通道中的任务，所以同一通道中的任务依然按提交顺序依次执行
+ * 提交任务只做无锁入队和计数，不需要加锁; 任务数通过计数器读取，不需要遍历队列
+ */
+public class WorkStealingTaskExecutor<T extends Runnable> {
+
+    public static final Logger log = LoggerFactory.getLogger(WorkStealingTaskExecutor.class);
+
+    /** 每个线程对应的通道数 */
+    private static final int LANES_PER_THREAD = 4;
+    /** 线程获取一个通道后最多连续执行的任务数，超过后释放通道，防止单个繁忙通道长期占用线程 */
+    private static final int MAX_RUN_PER_CLAIM = 256;
+    /** 线程空闲时的最大等待时间，正常情况下提交任务时会唤醒空闲线程，这里只是兜底 */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Lane[] lanes;
+    private final Worker[] workers;
+    /** 空闲等待中的线程数 */
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private volatile boolean startup;
+    private final CountDownLatch countDownLatch;  // 用于结束执行器时计数, 每个线程结束时计数一次
+
+    /**
+     * @param name 启动的线程名字前缀
+     * @param threadCount 线程数
+     * @param countDownLatch 结束计数器
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public WorkStealingTaskExecutor(String name, int threadCount, CountDownLatch countDownLatch){
+        int laneCount = 1;
+        while(laneCount < threadCount * LANES_PER_THREAD){
+            laneCount <<= 1;
+        }
+        this.lanes = (Lane[]) new WorkStealingTaskExecutor.Lane[laneCount];
+        for(int i = 0; i < laneCount; i++){
+            lanes[i] = new Lane();
+        }
+        this.workers = (Worker[]) new WorkStealingTaskExecutor.Worker[threadCount];
+        for(int i = 0; i < threadCount; i++){
+            workers[i] = new Worker(name + i, i * laneCount / threadCount);
+        }
+        this.countDownLatch = countDownLatch;
+    }
+
+    /** 启动所有线程 */
+    public void start(){
+        if(!startup){
+            startup = true;
+            for(Worker worker : workers){
+                worker.thread.start();
+            }
+        }
+    }
+
+    /** 结束所有线程，线程会在所有通道的任务执行完毕后结束 */
+    public void stop(){
+        startup = false;
+        for(Worker worker : workers){
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    /** 返回所有通道, 每个通道作为一个执行器使用 */
+    @SuppressWarnings("unchecked")
+    public ITaskExecutor<T>[] getLanes(){
+        return (ITaskExecutor<T>[]) lanes.clone();
+    }
+
+    /** 唤醒一个空闲线程 */
+    private void signalWork(){
+        if(idleCount.get() == 0){
+            return;
+        }
+        for(Worker worker : workers){
+            if(worker.idle.get() && worker.idle.compareAndSet(true, false)){
+                idleCount.decrementAndGet();
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    /** 是否有可以获取的通道 */
+    private boolean hasClaimableLane(){
+        for(Lane lane : lanes){
+            if(lane.size.get() > 0 && !lane.claimed.get()){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** 任务通道, 多个线程提交，同一时刻只有获取了通道的一个线程执行 */
+    private class Lane implements ITaskExecutor<T> {
+
+        private final ConcurrentLinkedQueue<T> taskQueue = new ConcurrentLinkedQueue<>();
+        /** 等待执行的任务数 */
+        private final AtomicInteger size = new AtomicInteger();
+        /** 是否已被某个线程获取 */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        /** 获取了此通道并正在等待新任务提交的线程 */
+        private volatile Thread putWaiter;
+
+        @Override
+        public void put(T task) {
+            taskQueue.offer(task);
+            size.incrementAndGet();
+            if(!claimed.get()){
+                signalWork();
+            }
+            Thread waiter = putWaiter;
+            if(waiter != null){
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        /** 先登记等待线程再检查任务数，登记后提交的任务一定会唤醒等待线程 */
+        @Override
+        public void awaitPut(int observedSize, long nanos){
+            putWaiter = Thread.currentThread();
+            try{
+                if(size.get() == observedSize){
+                    LockSupport.parkNanos(this, nanos);
+                }
+            }finally {
+                putWaiter = null;
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size.get() == 0;
+        }
+
+        @Override
+        public int size() {
+            return size.get();
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return taskQueue.iterator();
+        }
+
+        /**
+         * 获取通道并执行任务, 执行完毕或达到单次执行上限后释放通道
+         * @return 是否获取到了通道
+         */
+        boolean tryRun(){
+            if(size.get() == 0 || !claimed.compareAndSet(false, true)){
+                return false;
+            }
+            try{
+                for(int n = 0; n < MAX_RUN_PER_CLAIM; n++){
+                    T task = taskQueue.poll();
+                    if(task == null){
+                        break;
+                    }
+                    size.decrementAndGet();
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        log.error("执行异步任务发生异常!", e);
+                    }
+                }
+            }finally {
+                claimed.set(false);
+            }
+            return true;
+        }
+    }
+
+    /** 执行线程 */
+    private class Worker implements Runnable {
+
+        private final Thread thread;
+        /** 优先执行的通道下标 */
+        private final int homeLane;
+        /** 是否处于空闲等待中 */
+        private final AtomicBoolean idle = new AtomicBoolean();
+
+        Worker(String name, int homeLane){
+            this.thread = new Thread(this, name);
+            this.homeLane = homeLane;
+        }
+
+        @Override
+        public void run() {
+            int mask = lanes.length - 1;
+            while(true){
+                // 从优先通道开始依次查找有任务的通道
+                boolean ran = false;
+                for(int i = 0; i <= mask; i++){
+                    ran |= lanes[(homeLane + i) & mask].tryRun();
+                }
+                if(ran){
+                    continue;
+                }
+                if(!startup && !hasPendingTask()){
+                    break;
+                }
+                // 先标记空闲再检查一次通道，防止标记前提交的任务没有唤醒任何线程
+                idle.set(true);
+                idleCount.incrementAndGet();
+                if(!hasClaimableLane()){
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                if(idle.compareAndSet(true, false)){
+                    idleCount.decrementAndGet();
+                }
+            }
+            countDownLatch.countDown();
+        }
+
+        /** 是否还有未执行完的任务 */
+        private boolean hasPendingTask(){
+            for(Lane lane : lanes){
+                if(lane.size.get() > 0){
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}